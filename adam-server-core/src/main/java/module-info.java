@@ -8,4 +8,9 @@ module org.caichongjian.adam.server.core {
     requires org.caichongjian.mini.servlet.api;
 
     exports org.caichongjian.server.startup;
+    exports org.caichongjian.server.codec;
+    exports org.caichongjian.server.route;
+
+    uses org.caichongjian.server.codec.BodyCodec;
+    uses org.caichongjian.server.route.RouteTable;
 }
\ No newline at end of file
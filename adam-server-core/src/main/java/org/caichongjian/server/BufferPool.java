@@ -0,0 +1,195 @@
+package org.caichongjian.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>byte数组池，连接的读写缓冲区、请求体、响应头等临时使用的byte数组都从这里借，用完还回来，减少高并发时年轻代的GC。</p>
+ * <p/>
+ * <ul>
+ *     <li>按大小分成若干档(512B、1KB、2KB ... 64KB)，借的时候向上取整到最接近的一档。超过最大一档的直接new，还回来时直接丢掉</li>
+ *     <li>每个线程先从自己的缓存中借还，不需要加锁；线程自己的缓存满了或者空了，再和全局的池交换</li>
+ *     <li>启动参数-Dadam.server.buffer-leak-detection=true开启泄漏检测(调试时使用)：
+ *     借出去的数组没还回来就被GC回收了时，打印借出时的调用栈</li>
+ * </ul>
+ * <p>注意：数组还回来之后就不能再使用了，也不能还两次。</p>
+ */
+public final class BufferPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
+
+    private static final int MIN_SIZE_SHIFT = 9; // 最小的一档是512B
+    private static final int MAX_SIZE_SHIFT = 16; // 最大的一档是64KB
+    public static final int MAX_POOLED_SIZE = 1 << MAX_SIZE_SHIFT;
+    private static final int SIZE_CLASSES = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1;
+
+    /**
+     * 全局的池中每一档最多缓存多少字节，可根据实际情况调整
+     */
+    private static final int GLOBAL_BYTES_PER_SIZE_CLASS = 1024 * 1024;
+    /**
+     * 每个线程的缓存中每一档最多缓存多少字节，可根据实际情况调整
+     */
+    private static final int THREAD_LOCAL_BYTES_PER_SIZE_CLASS = 64 * 1024;
+
+    /**
+     * 虚拟线程用完就丢，线程自己的缓存起不到作用，这时只使用全局的池
+     */
+    private static final boolean THREAD_LOCAL_CACHE_ENABLED = !"virtual".equals(Constants.Server.EXECUTOR);
+    private static final boolean LEAK_DETECTION_ENABLED = Boolean.getBoolean("adam.server.buffer-leak-detection");
+
+    @SuppressWarnings("unchecked")
+    private static final ArrayBlockingQueue<byte[]>[] GLOBAL_POOL = new ArrayBlockingQueue[SIZE_CLASSES];
+
+    @SuppressWarnings("unchecked")
+    private static final ThreadLocal<ArrayDeque<byte[]>[]> THREAD_LOCAL_CACHE = ThreadLocal.withInitial(() -> {
+        final ArrayDeque<byte[]>[] caches = new ArrayDeque[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            caches[i] = new ArrayDeque<>(threadLocalCapacity(i));
+        }
+        return caches;
+    });
+
+    static {
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            GLOBAL_POOL[i] = new ArrayBlockingQueue<>(Math.max(1, GLOBAL_BYTES_PER_SIZE_CLASS / sizeOf(i)));
+        }
+    }
+
+    // 以下是泄漏检测用的，只有开启泄漏检测时才会用到
+    private static final Map<byte[], LeakTracker> BORROWED = Collections.synchronizedMap(new WeakHashMap<>()); // byte[]的equals和hashCode都是按对象地址计算的
+    private static final Set<LeakTracker> TRACKERS = ConcurrentHashMap.newKeySet();
+    private static final ReferenceQueue<byte[]> LEAKED = new ReferenceQueue<>();
+
+    private BufferPool() {
+    }
+
+    /**
+     * 借一个byte数组，数组的长度不小于minCapacity，内容是上一次使用时留下的，不一定是0
+     *
+     * @param minCapacity 至少需要多长
+     * @return byte数组
+     */
+    public static byte[] allocate(int minCapacity) {
+        if (minCapacity > MAX_POOLED_SIZE) {
+            return new byte[minCapacity];
+        }
+        final int sizeClass = sizeClassOf(minCapacity);
+        byte[] buffer = null;
+        if (THREAD_LOCAL_CACHE_ENABLED) {
+            buffer = THREAD_LOCAL_CACHE.get()[sizeClass].pollLast();
+        }
+        if (buffer == null) {
+            buffer = GLOBAL_POOL[sizeClass].poll();
+        }
+        if (buffer == null) {
+            buffer = new byte[sizeOf(sizeClass)];
+        }
+        if (LEAK_DETECTION_ENABLED) {
+            track(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * 还回一个通过allocate()借的byte数组，传入null时什么都不做
+     *
+     * @param buffer 通过allocate()借的byte数组
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length > MAX_POOLED_SIZE || Integer.bitCount(buffer.length) != 1 || buffer.length < sizeOf(0)) {
+            return; // 不是从池里借的，交给GC
+        }
+        if (LEAK_DETECTION_ENABLED && !untrack(buffer)) {
+            LOGGER.warn("A buffer was released twice or was not allocated from the pool.", new IllegalStateException());
+            return;
+        }
+        final int sizeClass = sizeClassOf(buffer.length);
+        if (THREAD_LOCAL_CACHE_ENABLED) {
+            final ArrayDeque<byte[]> cache = THREAD_LOCAL_CACHE.get()[sizeClass];
+            if (cache.size() < threadLocalCapacity(sizeClass)) {
+                cache.addLast(buffer);
+                return;
+            }
+        }
+        GLOBAL_POOL[sizeClass].offer(buffer); // 全局的池也满了就交给GC
+    }
+
+    /**
+     * 把数组扩容到不小于minCapacity，并把前length个字节复制过去，旧的数组会还回池里
+     *
+     * @param buffer      旧的数组
+     * @param length      需要保留的数据的长度
+     * @param minCapacity 至少需要多长
+     * @return 新的数组
+     */
+    public static byte[] grow(byte[] buffer, int length, int minCapacity) {
+        final byte[] newBuffer = allocate(minCapacity);
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+        release(buffer);
+        return newBuffer;
+    }
+
+    private static int sizeClassOf(int capacity) {
+        final int shift = capacity <= (1 << MIN_SIZE_SHIFT) ? MIN_SIZE_SHIFT : 32 - Integer.numberOfLeadingZeros(capacity - 1);
+        return shift - MIN_SIZE_SHIFT;
+    }
+
+    private static int sizeOf(int sizeClass) {
+        return 1 << (sizeClass + MIN_SIZE_SHIFT);
+    }
+
+    private static int threadLocalCapacity(int sizeClass) {
+        return Math.max(1, Math.min(16, THREAD_LOCAL_BYTES_PER_SIZE_CLASS / sizeOf(sizeClass)));
+    }
+
+    private static void track(byte[] buffer) {
+        reportLeaks();
+        final LeakTracker tracker = new LeakTracker(buffer);
+        TRACKERS.add(tracker);
+        BORROWED.put(buffer, tracker);
+    }
+
+    private static boolean untrack(byte[] buffer) {
+        final LeakTracker tracker = BORROWED.remove(buffer);
+        if (tracker == null) {
+            return false;
+        }
+        TRACKERS.remove(tracker);
+        tracker.clear();
+        return true;
+    }
+
+    private static void reportLeaks() {
+        Reference<? extends byte[]> reference;
+        while ((reference = LEAKED.poll()) != null) {
+            final LeakTracker tracker = (LeakTracker) reference;
+            if (TRACKERS.remove(tracker)) {
+                LOGGER.error("LEAK: a buffer was garbage-collected before it was released. Allocated at:", tracker.allocatedAt);
+            }
+        }
+    }
+
+    /**
+     * 记录数组是在哪里借出去的。数组被GC回收后，LeakTracker会被放到LEAKED队列中
+     */
+    private static final class LeakTracker extends PhantomReference<byte[]> {
+
+        private final Throwable allocatedAt = new Throwable("buffer allocated here");
+
+        LeakTracker(byte[] buffer) {
+            super(buffer, LEAKED);
+        }
+    }
+}
@@ -17,7 +17,10 @@ public final class Constants {
 
         public static final String APPLICATION_FORM_URLENCODED = "application/x-www-form-urlencoded";
         public static final String APPLICATION_JSON = "application/json";
+        public static final String APPLICATION_MSGPACK = "application/msgpack";
         public static final String TEXT_HTML = "text/html";
+        public static final String TEXT_EVENT_STREAM = "text/event-stream";
+        public static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
         /**
          * <p>adam-server的定位是学习材料，学习材料本身没必要实现这么多特性。</p>
          * <p>小伙伴们如果感兴趣的话，可以将它作为一道练习题，自己尝试着实现文件的上传下载特性。</p>
@@ -36,8 +39,59 @@ public final class Constants {
 
         public static final int PORT = 8888; // 端口号，可根据实际情况调整
         public static final int THREAD_POOL_SIZE = 20; // 线程池大小，可根据实际情况调整
+
+        /**
+         * 执行请求的方式，可通过启动参数-Dadam.server.executor=virtual修改。
+         * pool: 使用大小为THREAD_POOL_SIZE的线程池；workstealing: 使用基于work stealing的线程池；virtual: 每个请求使用一个虚拟线程(需要Java 21+，否则改为使用pool)
+         */
+        public static final String EXECUTOR = System.getProperty("adam.server.executor", "pool");
+
+        /**
+         * workstealing线程池中最多有多少个工作在排队，可根据实际情况调整
+         */
+        public static final int JOB_QUEUE_CAPACITY = THREAD_POOL_SIZE * 2;
+
+        /**
+         * workstealing线程池排队的工作超过上限时的处理方式，可通过启动参数-Dadam.server.rejection-policy=caller_runs修改。
+         * abort: 直接响应503；caller_runs: 由accept线程自己处理请求(只对BIO模式有效，NIO模式下不能阻塞I/O线程，仍然响应503)
+         */
+        public static final String REJECTION_POLICY = System.getProperty("adam.server.rejection-policy", "abort");
         public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8"); // 默认字符集，可根据实际情况调整
 
+        /**
+         * 静态资源目录，可通过启动参数-Dadam.server.static-dir=/var/www指定。
+         * 指定后优先从这个目录中查找静态资源，找不到再从classpath的/static目录中查找。
+         * 打成jar包后classpath中的静态资源没法零拷贝发送，比较大的静态资源建议放到这个目录中
+         */
+        public static final String STATIC_RESOURCE_DIR = System.getProperty("adam.server.static-dir");
+
+        /**
+         * 静态资源不小于这个长度(单位为字节)时，不再读到内存中发送，而是直接从磁盘发送(文件系统中的静态资源使用FileChannel.transferTo零拷贝发送)
+         */
+        public static final long STATIC_RESOURCE_TRANSFER_THRESHOLD = 64 * 1024L;
+
+        /**
+         * 静态资源缓存最多占用多少字节的堆内存，超过后按最近最少使用淘汰，可通过启动参数-Dadam.server.static-cache-size=0关闭缓存。
+         * 只有小于STATIC_RESOURCE_TRANSFER_THRESHOLD的静态资源才会被缓存
+         */
+        public static final long STATIC_RESOURCE_CACHE_MAX_BYTES = Long.getLong("adam.server.static-cache-size", 32 * 1024 * 1024L);
+
+        /**
+         * 静态资源缓存的过期时间，单位为秒。STATIC_RESOURCE_DIR中的文件被修改后，最多过这么久才能看到新的内容
+         */
+        public static final long STATIC_RESOURCE_CACHE_EXPIRE_SECONDS = 60;
+
+        /**
+         * 响应体不小于这个长度(单位为字节)时才压缩，太小的响应体压缩后反而可能变大。可通过启动参数-Dadam.server.compression-min-size=2048修改
+         */
+        public static final int COMPRESSION_MIN_SIZE = Integer.getInteger("adam.server.compression-min-size", 1024);
+
+        /**
+         * gzip、deflate的压缩级别，取值1-9，越大压缩率越高、越耗CPU。可通过启动参数-Dadam.server.compression-level=1修改。
+         * 设置为0时不再压缩响应体(static目录中预先压缩好的.gz文件仍然会发送)
+         */
+        public static final int COMPRESSION_LEVEL = Integer.getInteger("adam.server.compression-level", 6);
+
         /**
          * 连接超时时间，单位为毫秒。
          * 经初步测试发现socketInputStream.read()阻塞时间超过这个值的请求将被打断。
@@ -45,6 +99,91 @@ public final class Constants {
          */
         public static final Integer CONNECTION_TIMEOUT_MILLIS = null;
 
+        /**
+         * KeepAlive连接的空闲超时时间，单位为毫秒。处理完一个请求后，在这段时间内没有收到下一个请求的连接将被关闭。
+         * BIO模式下等待的这段时间会一直占用线程池中的一个线程，所以线程池中有工作在排队时不再保持连接(响应头中加上Connection: close)。
+         * 需要大量KeepAlive连接时建议使用NIO模式
+         */
+        public static final int KEEP_ALIVE_TIMEOUT_MILLIS = 5000;
+
+        /**
+         * 一个KeepAlive连接上最多处理多少个请求，达到这个数量后服务器将在响应头中加上Connection: close并关闭连接。
+         * 设置为1时相当于不支持KeepAlive。
+         */
+        public static final int MAX_KEEP_ALIVE_REQUESTS = 100;
+
+        /**
+         * 返回CompletionStage的rest方法默认的超时时间，单位为毫秒，可通过启动参数-Dadam.server.async-timeout修改。
+         * 超时后不再等待，直接响应请求处理失败。@MiniRequestMapping.asyncTimeout()大于0时以注解为准
+         */
+        public static final long ASYNC_TIMEOUT_MILLIS = Long.getLong("adam.server.async-timeout", 30000L);
+
+        /**
+         * rest方法返回Flow.Publisher(Server-Sent Events)时，多久没有推送事件就发送一次注释行，单位为毫秒，
+         * 可通过启动参数-Dadam.server.sse-heartbeat修改，设置为0时不发送。
+         * 一方面避免代理服务器把长时间没有数据的连接关掉，另一方面及时发现客户端已经断开，取消订阅
+         */
+        public static final long EVENT_STREAM_HEARTBEAT_MILLIS = Long.getLong("adam.server.sse-heartbeat", 15000L);
+
+        /**
+         * WebSocket连接多久没有收到数据就发送一次ping，单位为毫秒，可通过启动参数-Dadam.server.websocket-ping-interval修改。
+         * 发送ping之后又过了这么久还是没有收到任何数据(包括pong)，就认为客户端已经断开，关闭连接。设置为0时不发送ping，也不会因为空闲关闭连接
+         */
+        public static final int WEBSOCKET_PING_INTERVAL_MILLIS = Integer.getInteger("adam.server.websocket-ping-interval", 30000);
+
+        /**
+         * WebSocket的一条消息(分片的消息合起来)的最大长度，单位为字节，超过后以1009关闭连接。
+         * 可通过启动参数-Dadam.server.websocket-max-message-size修改
+         */
+        public static final int WEBSOCKET_MAX_MESSAGE_SIZE = Integer.getInteger("adam.server.websocket-max-message-size", 1024 * 1024);
+
+        /**
+         * NIO模式下，一个WebSocket连接上最多有多少字节的消息在排队等待发送，超过后认为客户端接收得太慢，直接关闭连接。
+         * 这样向很多连接广播消息时，不会因为一个慢客户端让消息无限制地堆积在内存中，也不会阻塞发送消息的线程
+         */
+        public static final int WEBSOCKET_MAX_PENDING_BYTES = Integer.getInteger("adam.server.websocket-max-pending-bytes", 4 * 1024 * 1024);
+
+        /**
+         * BIO模式下最多同时有多少个WebSocket连接，可通过启动参数-Dadam.server.bio-websocket-max-connections修改。
+         * BIO模式下每个WebSocket连接由一个单独的线程读取(不占用线程池中的线程)，超过这个数量后握手请求响应503。
+         * WebSocket连接较多时建议使用NIO模式，空闲的连接不占用线程
+         */
+        public static final int BIO_WEBSOCKET_MAX_CONNECTIONS = Integer.getInteger("adam.server.bio-websocket-max-connections", 100);
+
+        /**
+         * NIO模式下，一个连接上最多同时有多少个pipelining的请求在排队或处理中。超过这个数量后暂停读取这个连接上的数据，直到前面的响应发送出去
+         */
+        public static final int MAX_PIPELINED_REQUESTS = 16;
+
+        /**
+         * 请求行和请求头的最大长度，单位为字节。超过这个长度的请求视为非法请求，直接关闭连接
+         */
+        public static final int MAX_REQUEST_HEADER_SIZE = 64 * 1024;
+
+        /**
+         * Transfer-Encoding: chunked的请求体中单个chunk的最大长度，单位为字节。超过这个长度的请求视为非法请求，直接关闭连接。
+         * BIO模式下请求体是边读边处理的，这个限制主要是为了防止NIO模式下恶意的请求占用过多内存
+         */
+        public static final long MAX_CHUNK_SIZE = Long.getLong("adam.server.max-chunk-size", 16 * 1024 * 1024L);
+
+        /**
+         * NIO模式下请求体的最大长度，单位为字节，可通过启动参数-Dadam.server.max-request-body-size修改。
+         * NIO模式下整个请求体要先读到内存中再交给线程池处理，超过这个长度时直接响应413并关闭连接，不再继续读取。
+         * chunked编码的请求体按解码前的长度计算。BIO模式下请求体是边读边处理的，不受这个限制
+         */
+        public static final long MAX_REQUEST_BODY_SIZE = Long.getLong("adam.server.max-request-body-size", 16 * 1024 * 1024L);
+
+        /**
+         * 是否使用NIO处理连接，可通过启动参数-Dadam.server.nio=true开启。
+         * 开启后由少量I/O线程基于Selector读取和解析请求，只把完整的请求交给线程池处理，慢客户端和空闲连接不再占用线程池中的线程。
+         */
+        public static final boolean NIO_ENABLED = Boolean.getBoolean("adam.server.nio");
+
+        /**
+         * NIO模式下I/O线程(event loop)的数量，可根据实际情况调整
+         */
+        public static final int IO_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
     }
 
 }
@@ -0,0 +1,194 @@
+package org.caichongjian.server;
+
+import com.google.common.net.HttpHeaders;
+import org.caichongjian.server.codec.BodyCodec;
+import org.caichongjian.server.codec.BodyCodecs;
+import org.caichongjian.server.http.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>rest方法返回Flow.Publisher时，订阅它并把每个元素作为一个Server-Sent Events事件(text/event-stream)发送到浏览器。</p>
+ * <p>每次只request(1)，上一个事件发送出去之后才要下一个。客户端接收得慢时，发送会被网络缓冲区(NIO模式下是NioResponseBuffer)挡住，
+ * 不再request，数据就积压在Publisher那边(如SubmissionPublisher的缓冲区满了以后submit()会阻塞)，服务器这边最多只占用一个事件的内存。</p>
+ * <p>Publisher调用onNext()等方法的线程只负责把工作交给asyncExecutor，发送事件都在线程池中进行，并且按顺序一个一个执行，
+ * 所以这里的字段不需要加锁。等待下一个事件期间不占用线程池中的线程。
+ * asyncExecutor不能阻塞，也不能在调用方的线程中执行工作，否则Publisher的线程和发送心跳的delayer线程(JDK全局只有一个)会被卡住。</p>
+ * <p>String类型的元素原样作为data发送，其他类型按JSON序列化。HTTP/1.0不支持chunked，要等Publisher结束后才能一起发送。</p>
+ */
+final class EventStreamSubscriber implements Flow.Subscriber<Object> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventStreamSubscriber.class);
+    private static final byte[] DATA = "data: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final Response response;
+    private final OutputStream outputStream;
+    private final Executor executor;
+    private final BodyCodec codec = BodyCodecs.forContentType(Constants.ContentType.APPLICATION_JSON);
+    /**
+     * 事件流结束(Publisher结束、出错或者客户端断开)时完成
+     */
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private volatile Flow.Subscription subscription;
+    private boolean done;
+    private long lastWriteNanos = System.nanoTime();
+
+    /**
+     * 发送text/event-stream的响应头
+     *
+     * @param response http response
+     * @param executor 发送事件的线程池，execute()不能阻塞调用方(如HttpServer.resume())
+     * @throws IOException IO异常
+     */
+    EventStreamSubscriber(Response response, Executor executor) throws IOException {
+        this.response = response;
+        this.executor = new SerialExecutor(executor);
+        response.setContentType(Constants.ContentType.TEXT_EVENT_STREAM + ";charset=UTF-8");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        this.outputStream = response.getOutputStream();
+        // 先把响应头发出去，浏览器的EventSource马上就能触发open事件
+        outputStream.flush();
+    }
+
+    /**
+     * @return 事件流结束时完成的CompletionStage，客户端断开时异常结束
+     */
+    CompletionStage<Void> getCompletion() {
+        return completion;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        scheduleHeartbeat();
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(Object item) {
+        executor.execute(() -> {
+            final byte[] event;
+            try {
+                event = encode(item);
+            } catch (RuntimeException e) {
+                LOGGER.error("事件序列化失败", e);
+                subscription.cancel();
+                finish();
+                return;
+            }
+            if (write(event)) {
+                subscription.request(1);
+            }
+        });
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        executor.execute(() -> {
+            LOGGER.error("事件流出错", throwable);
+            finish();
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        executor.execute(this::finish);
+    }
+
+    private void scheduleHeartbeat() {
+        final long heartbeatMillis = Constants.Server.EVENT_STREAM_HEARTBEAT_MILLIS;
+        if (heartbeatMillis > 0) {
+            // 到时间后CompletableFuture的delayer线程直接交给executor，不经过ForkJoinPool.commonPool()
+            CompletableFuture.delayedExecutor(heartbeatMillis, TimeUnit.MILLISECONDS, executor).execute(this::heartbeat);
+        }
+    }
+
+    private void heartbeat() {
+        if (done) {
+            return;
+        }
+        if (System.nanoTime() - lastWriteNanos < TimeUnit.MILLISECONDS.toNanos(Constants.Server.EVENT_STREAM_HEARTBEAT_MILLIS) || write(HEARTBEAT)) {
+            scheduleHeartbeat();
+        }
+    }
+
+    /**
+     * 按text/event-stream的格式编码一个事件，data中的每一行都要以"data: "开头，事件以空行结束
+     */
+    private byte[] encode(Object item) {
+        final ByteArrayOutputStream event = new ByteArrayOutputStream();
+        try {
+            final byte[] data;
+            if (item instanceof String) {
+                data = ((String) item).getBytes(StandardCharsets.UTF_8);
+            } else {
+                final ByteArrayOutputStream json = new ByteArrayOutputStream();
+                codec.encode(item, json);
+                data = json.toByteArray();
+            }
+            event.write(DATA);
+            for (byte b : data) {
+                if (b == '\n') {
+                    event.write('\n');
+                    event.write(DATA);
+                } else if (b != '\r') {
+                    event.write(b);
+                }
+            }
+            event.write('\n');
+            event.write('\n');
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return event.toByteArray();
+    }
+
+    /**
+     * @return 是否发送成功。客户端已经断开时取消订阅，结束事件流
+     */
+    private boolean write(byte[] bytes) {
+        if (done) {
+            return false;
+        }
+        try {
+            outputStream.write(bytes);
+            outputStream.flush();
+            lastWriteNanos = System.nanoTime();
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("客户端已断开，取消订阅", e);
+            done = true;
+            subscription.cancel();
+            completion.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    private void finish() {
+        if (done) {
+            return;
+        }
+        done = true;
+        try {
+            response.finishStreaming();
+            completion.complete(null);
+        } catch (IOException e) {
+            completion.completeExceptionally(e);
+        }
+    }
+}
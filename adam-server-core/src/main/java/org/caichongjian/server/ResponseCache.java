@@ -0,0 +1,74 @@
+package org.caichongjian.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.caichongjian.server.http.Request;
+import org.caichongjian.server.route.CacheOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>一个@MiniCacheable方法的响应缓存，key由uri、keyParameters中的请求参数和按Accept选择的Content-Type组成，
+ * value为序列化后的响应体。命中时不需要调用controller的方法，也不需要序列化。</p>
+ * <p>和静态资源缓存一样使用Guava的Cache，读写和淘汰都是分段加锁的，多个线程同时访问时不会互相阻塞太久。</p>
+ */
+final class ResponseCache {
+
+    private final Cache<List<Object>, byte[]> cache;
+    private final String[] keyParameters;
+
+    ResponseCache(CacheOptions options) {
+        this.keyParameters = options.getKeyParameters();
+        // Guava的Cache不能同时限制条目数和字节数，所以每个条目至少按平均可占用的字节数计算，
+        // 这样总字节数不超过maximumBytes时，条目数也不会超过maximumSize
+        final long minWeight = Math.max(1, options.getMaximumBytes() / Math.max(1, options.getMaximumSize()));
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(options.getMaximumBytes())
+                .weigher((List<Object> key, byte[] body) -> (int) Math.min(Integer.MAX_VALUE, Math.max(minWeight, body.length)))
+                .expireAfterWrite(options.getExpireSeconds(), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 只缓存GET和HEAD请求的响应，其他请求方式通常会修改数据
+     */
+    boolean isCacheable(Request request) {
+        final String method = request.getMethod();
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * 生成缓存的key
+     *
+     * @param request     http request
+     * @param contentType 按Accept选择的BodyCodec的Content-Type
+     * @return 缓存的key
+     */
+    List<Object> key(Request request, String contentType) {
+        final List<Object> key = new ArrayList<>(keyParameters.length + 3);
+        key.add(contentType);
+        key.add(request.getRequestURI());
+        if (keyParameters.length == 0) {
+            key.add(request.getQueryString());
+        } else {
+            for (String name : keyParameters) {
+                key.add(Arrays.asList(request.getParameterValues(name)));
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return 序列化后的响应体，没有缓存或者已经过期时返回null
+     */
+    byte[] get(List<Object> key) {
+        return cache.getIfPresent(key);
+    }
+
+    void put(List<Object> key, byte[] body) {
+        cache.put(key, body);
+    }
+}
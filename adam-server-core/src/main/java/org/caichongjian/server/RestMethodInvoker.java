@@ -1,89 +1,201 @@
 package org.caichongjian.server;
 
+import org.caichongjian.annotations.MiniCacheable;
+import org.caichongjian.annotations.MiniPathVariable;
 import org.caichongjian.annotations.MiniRequestBody;
+import org.caichongjian.annotations.MiniRequestMapping;
 import org.caichongjian.api.MiniHttpServletRequest;
 import org.caichongjian.api.MiniHttpServletResponse;
 import org.caichongjian.server.http.Request;
 import org.caichongjian.server.http.Response;
+import org.caichongjian.server.route.CacheOptions;
+import org.caichongjian.server.route.ControllerInvoker;
+import org.caichongjian.server.route.ParameterSource;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
+import java.util.function.Function;
 
 /**
  * 用来调用rest方法，与uri是一对一关系。
  * Q: 为什么要有RestMethodInvoker？
- * A: 想要通过反射调用restController里定义的方法，必须要有Method和restController实例。
- * 将这两者封装成RestMethodInvoker后，即可在RestProcessor中通过URI_MAPPING路由到restController里定义的方法
+ * A: 想要调用restController里定义的方法，必须要有Method和restController实例。
+ * 将这两者封装成RestMethodInvoker后，即可在RestProcessor中通过Router路由到restController里定义的方法
  */
 public class RestMethodInvoker {
 
-    private final Method method;
-    private final Object instance;
-    private final Argument[] argumentDefinitions;
-
-    private static final class Argument {
-        private final String name;
-        private final Class<?> type;
-        private final boolean isRequestBodyArgument;
+    private final ControllerInvoker controllerInvoker;
+    private final ArgumentResolver[] argumentResolvers;
+    private final boolean etagEnabled;
+    /**
+     * 方法上没有@MiniCacheable时为null
+     */
+    private final ResponseCache responseCache;
+    /**
+     * 方法返回CompletionStage时的超时时间，单位为毫秒
+     */
+    private final long asyncTimeoutMillis;
+
+    /**
+     * 从请求中获取方法的一个参数
+     */
+    @FunctionalInterface
+    private interface ArgumentResolver {
+        Object resolve(Request request, Response response) throws IOException;
+    }
 
-        public Argument(String name, Class<?> type, boolean isRequestBodyArgument) {
-            this.name = name;
-            this.type = type;
-            this.isRequestBodyArgument = isRequestBodyArgument;
+    /**
+     * 没有编译时生成的路由表时使用。启动时调用一次，把方法和restController实例链接成一个MethodHandle，并为每个参数准备好ArgumentResolver。
+     * 处理请求时不需要再走反射的权限检查，也不需要逐个参数判断类型。
+     * 注意：MethodHandle保存在lambda的字段中，不是常量，JIT通常无法把调用内联到controller的方法中，每次调用都要经过asSpreader()/asType()生成的适配器。
+     * 需要直接调用时使用adam-server-processor在编译时生成的路由表
+     *
+     * @throws IllegalAccessException 方法不是public的
+     */
+    public RestMethodInvoker(Method method, Object instance) throws IllegalAccessException {
+        final MiniRequestMapping mapping = method.getAnnotation(MiniRequestMapping.class);
+        this.etagEnabled = mapping != null && mapping.etag();
+        this.asyncTimeoutMillis = asyncTimeoutMillis(mapping == null ? 0 : mapping.asyncTimeout());
+        final MiniCacheable cacheable = method.getAnnotation(MiniCacheable.class);
+        this.responseCache = cacheable == null ? null : new ResponseCache(new CacheOptions(cacheable.expireSeconds(),
+                cacheable.keyParameters(), cacheable.maximumSize(), cacheable.maximumBytes()));
+
+        // 方法的各个参数的名称、类型、是否请求体参数数据没必要每次请求过来时都通过反射获取，启动时直接转换成对应的ArgumentResolver
+        final Parameter[] parameterDefinitions = method.getParameters();
+        argumentResolvers = new ArgumentResolver[parameterDefinitions.length];
+        for (int i = 0; i < parameterDefinitions.length; i++) {
+            final Parameter definition = parameterDefinitions[i];
+            final MiniPathVariable pathVariable = definition.getAnnotation(MiniPathVariable.class);
+            if (pathVariable != null) {
+                final String name = pathVariable.value().isEmpty() ? definition.getName() : pathVariable.value();
+                argumentResolvers[i] = createArgumentResolver(name, definition.getType(), ParameterSource.PATH_VARIABLE);
+            } else if (definition.getAnnotation(MiniRequestBody.class) != null) {
+                argumentResolvers[i] = createArgumentResolver(definition.getName(), definition.getType(), ParameterSource.REQUEST_BODY);
+            } else {
+                argumentResolvers[i] = createArgumentResolver(definition.getName(), definition.getType(), ParameterSource.REQUEST_PARAMETER);
+            }
         }
 
-        public String getName() {
-            return name;
-        }
+        // (Object[])Object，参数数组在MethodHandle内部展开并转换成各个参数的实际类型，返回值为void时返回null
+        final MethodHandle methodHandle = MethodHandles.lookup().unreflect(method)
+                .bindTo(instance)
+                .asSpreader(Object[].class, parameterDefinitions.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        this.controllerInvoker = arguments -> (Object) methodHandle.invokeExact(arguments);
+    }
 
-        public Class<?> getType() {
-            return type;
+    /**
+     * 使用编译时生成的路由表时使用，参数的信息由adam-server-processor在编译时从源代码中读取
+     *
+     * @see org.caichongjian.server.route.RouteRegistrar#register
+     */
+    public RestMethodInvoker(ControllerInvoker controllerInvoker, String[] parameterNames, Class<?>[] parameterTypes,
+                             ParameterSource[] parameterSources, boolean etagEnabled, CacheOptions cacheOptions,
+                             long asyncTimeout) {
+        this.controllerInvoker = controllerInvoker;
+        this.etagEnabled = etagEnabled;
+        this.asyncTimeoutMillis = asyncTimeoutMillis(asyncTimeout);
+        this.responseCache = cacheOptions == null ? null : new ResponseCache(cacheOptions);
+        argumentResolvers = new ArgumentResolver[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            argumentResolvers[i] = createArgumentResolver(parameterNames[i], parameterTypes[i], parameterSources[i]);
         }
+    }
+
+    private static long asyncTimeoutMillis(long asyncTimeout) {
+        return asyncTimeout > 0 ? asyncTimeout : Constants.Server.ASYNC_TIMEOUT_MILLIS;
+    }
 
-        public boolean isRequestBodyArgument() {
-            return isRequestBodyArgument;
+    /**
+     * 参数的类型转换函数也在这里选好，处理请求时直接调用，不再经过Request.getParameter(name, type)等方法逐个判断类型
+     */
+    private static ArgumentResolver createArgumentResolver(String name, Class<?> clazz, ParameterSource source) {
+        if (source == ParameterSource.PATH_VARIABLE) {
+            final Function<String, ?> converter = Request.parameterConverter(clazz);
+            return (request, response) -> {
+                final String value = request.getPathVariable(name);
+                return value == null ? null : converter.apply(value);
+            };
+        } else if (clazz == MiniHttpServletRequest.class) {
+            return (request, response) -> request;
+        } else if (clazz == MiniHttpServletResponse.class) {
+            return (request, response) -> response;
+        } else if (clazz == String[].class) {
+            return (request, response) -> request.getParameterValues(name);
+        } else if (clazz.isArray()) {
+            final Class<?> componentType = clazz.getComponentType();
+            final Function<String, ?> converter = Request.parameterConverter(componentType);
+            return (request, response) -> {
+                final String[] values = request.getParameterValues(name);
+                final Object array = Array.newInstance(componentType, values.length);
+                for (int i = 0; i < values.length; i++) {
+                    Array.set(array, i, converter.apply(values[i]));
+                }
+                return array;
+            };
+        } else if (source == ParameterSource.REQUEST_BODY) {
+            return (request, response) -> request.getObjectFromBody(clazz);
+        } else if (clazz == String.class) {
+            return (request, response) -> request.getParameter(name);
+        } else {
+            final Function<String, ?> converter = Request.parameterConverter(clazz);
+            return (request, response) -> {
+                final String value = request.getParameter(name);
+                return value == null ? null : converter.apply(value);
+            };
         }
     }
 
-    public RestMethodInvoker(Method method, Object instance) {
-        this.method = method;
-        this.instance = instance;
+    /**
+     * @return 是否需要根据序列化后的响应体计算ETag
+     */
+    public boolean isEtagEnabled() {
+        return etagEnabled;
+    }
 
-        // 方法的各个参数的名称、类型、是否请求体参数数据没必要每次请求过来时都通过反射获取，将它们缓存到argumentDefinitions这一成员变量中,从而提高性能
-        final Parameter[] parameterDefinitions = method.getParameters();
-        argumentDefinitions = new Argument[parameterDefinitions.length];
-        for (int i = 0; i < parameterDefinitions.length; i++) {
-            final Parameter definition = parameterDefinitions[i];
-            argumentDefinitions[i] = new Argument(definition.getName(), definition.getType(), definition.getAnnotation(MiniRequestBody.class) != null);
-        }
+    /**
+     * @return 方法返回CompletionStage时的超时时间，单位为毫秒
+     */
+    public long getAsyncTimeoutMillis() {
+        return asyncTimeoutMillis;
     }
 
-    public Object invoke(Request request, Response response) throws InvocationTargetException, IllegalAccessException, IOException {
+    /**
+     * @return 方法上有@MiniCacheable时的响应缓存，没有时返回null
+     */
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * 调用rest方法
+     *
+     * @return 方法的返回值
+     * @throws InvocationTargetException 方法抛出了受检异常，和以前通过反射调用时一样包装一下
+     * @throws IOException               读取请求体时出错
+     */
+    public Object invoke(Request request, Response response) throws InvocationTargetException, IOException {
 
         // 解析请求体
         request.parseRequestBody();
 
         // 根据方法定义中的参数列表，从request中获取相应的参数
-        final Object[] parameters = new Object[argumentDefinitions.length];
-        for (int i = 0; i < argumentDefinitions.length; i++) {
-
-            Argument argumentDefinition = argumentDefinitions[i];
-            Class<?> clazz = argumentDefinition.getType();
-
-            if (clazz == MiniHttpServletRequest.class) {
-                parameters[i] = request;
-            } else if (clazz == MiniHttpServletResponse.class) {
-                parameters[i] = response;
-            } else if (clazz.isArray()) {
-                parameters[i] = request.getParameterValues(argumentDefinition.getName(), clazz);
-            } else if (argumentDefinition.isRequestBodyArgument()) {
-                parameters[i] = request.getObjectFromBody(clazz);
-            } else {
-                parameters[i] = request.getParameter(argumentDefinition.getName(), clazz);
-            }
+        final Object[] parameters = new Object[argumentResolvers.length];
+        for (int i = 0; i < argumentResolvers.length; i++) {
+            parameters[i] = argumentResolvers[i].resolve(request, response);
+        }
+        try {
+            return controllerInvoker.invoke(parameters);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
         }
-        return method.invoke(instance, parameters);
     }
 }
@@ -1,42 +1,185 @@
 package org.caichongjian.server;
 
 import com.alibaba.fastjson.JSON;
+import com.google.common.net.HttpHeaders;
 import org.caichongjian.annotations.MiniRequestMapping;
+import org.caichongjian.annotations.MiniRequestMethod;
+import org.caichongjian.api.MiniWebSocketHandler;
+import org.caichongjian.server.codec.BodyCodec;
+import org.caichongjian.server.codec.BodyCodecs;
 import org.caichongjian.server.http.Request;
 import org.caichongjian.server.http.Response;
+import org.caichongjian.server.route.CacheOptions;
+import org.caichongjian.server.route.ControllerInvoker;
+import org.caichongjian.server.route.ParameterSource;
+import org.caichongjian.server.route.RouteRegistrar;
+import org.caichongjian.server.route.RouteTable;
+import org.caichongjian.server.websocket.WebSocketProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 public class RestProcessor {
 
-    private static final Map<String, RestMethodInvoker> URI_MAPPING = new HashMap<>();
+    private static final Router<RestMethodInvoker> ROUTER = new Router<>();
     private static final Logger LOGGER = LoggerFactory.getLogger(RestProcessor.class);
 
     /**
      * Process servlet request.
      *
-     * @param request  http request
-     * @param response http response
+     * @param request       http request
+     * @param response      http response
+     * @param match         route()的结果，不能为null
+     * @param asyncExecutor 方法返回的CompletionStage完成后，在这里序列化并发送响应。由完成CompletionStage的线程或者Publisher的线程调用，不能阻塞调用方
+     * @return 方法返回CompletionStage或者Flow.Publisher时，返回响应生成完毕时完成的CompletionStage，在这之前不能结束请求；其他情况返回null
      */
-    public void process(Request request, Response response) throws IOException {
+    public CompletionStage<Void> process(Request request, Response response, Router.Match<RestMethodInvoker> match,
+                                         Executor asyncExecutor) throws IOException {
 
-        RestMethodInvoker restMethodInvoker = URI_MAPPING.get(request.getRequestURI());
+        final RestMethodInvoker restMethodInvoker = match.getHandler();
+        if (restMethodInvoker == null) {
+            response.sendMethodNotAllowed(match.getAllowedMethods());
+            return null;
+        }
+        request.setPathVariables(match.getVariables());
+        final ResponseCache responseCache = restMethodInvoker.getResponseCache();
         try {
+            // @MiniCacheable方法命中缓存时直接发送缓存的响应体，不调用方法也不序列化
+            BodyCodec codec = null;
+            List<Object> cacheKey = null;
+            if (responseCache != null && responseCache.isCacheable(request)) {
+                codec = BodyCodecs.forAccept(request.getHeader(HttpHeaders.ACCEPT));
+                cacheKey = responseCache.key(request, codec.getContentType());
+                final byte[] responseBody = responseCache.get(cacheKey);
+                if (responseBody != null) {
+                    response.sendEncodedResource(responseBody, responseBody.length, codec.getContentType(), request, restMethodInvoker.isEtagEnabled());
+                    return null;
+                }
+            }
+
             final Object returnValue = restMethodInvoker.invoke(request, response);
-            String jsonString = JSON.toJSONString(returnValue); // 可以换成Jackson、Gson等任意一个你喜欢的类库或者自己实现一个其他格式的序列化类库
-            response.sendJsonDynamicResource(jsonString);
+            if (returnValue instanceof Flow.Publisher) {
+                return processEventStream(response, (Flow.Publisher<?>) returnValue, asyncExecutor);
+            }
+            if (returnValue instanceof CompletionStage) {
+                return processAsync(request, response, restMethodInvoker, (CompletionStage<?>) returnValue, codec, cacheKey, asyncExecutor);
+            }
+            sendReturnValue(request, response, restMethodInvoker, returnValue, codec, cacheKey);
         } catch (Exception e) {
+            sendError(response, e);
+        }
+        return null;
+    }
+
+    /**
+     * 方法返回CompletionStage时，处理请求的线程不再等待，CompletionStage完成或者超时后在asyncExecutor中发送响应
+     */
+    private CompletionStage<Void> processAsync(Request request, Response response, RestMethodInvoker restMethodInvoker,
+                                               CompletionStage<?> returnValue, BodyCodec codec, List<Object> cacheKey,
+                                               Executor asyncExecutor) {
+        // 不直接在方法返回的CompletionStage上设置超时，以免影响controller中其他使用它的地方
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        returnValue.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        result.orTimeout(restMethodInvoker.getAsyncTimeoutMillis(), TimeUnit.MILLISECONDS);
+        return result.handleAsync((value, error) -> {
+            try {
+                if (error == null) {
+                    try {
+                        sendReturnValue(request, response, restMethodInvoker, value, codec, cacheKey);
+                        return null;
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                }
+                sendError(response, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }, asyncExecutor);
+    }
+
+    /**
+     * 方法返回Flow.Publisher时，把它的元素作为Server-Sent Events逐个发送，连接一直保持到Publisher结束或者客户端断开。
+     * 等待下一个元素期间不占用线程池中的线程，不受asyncTimeout限制
+     */
+    @SuppressWarnings("unchecked")
+    private CompletionStage<Void> processEventStream(Response response, Flow.Publisher<?> publisher, Executor asyncExecutor) throws IOException {
+        final EventStreamSubscriber subscriber = new EventStreamSubscriber(response, asyncExecutor);
+        ((Flow.Publisher<Object>) publisher).subscribe(subscriber);
+        return subscriber.getCompletion();
+    }
+
+    /**
+     * 序列化并发送方法的返回值。@MiniCacheable方法序列化后的响应体放到缓存中再发送
+     */
+    private void sendReturnValue(Request request, Response response, RestMethodInvoker restMethodInvoker, Object returnValue,
+                                 BodyCodec codec, List<Object> cacheKey) throws IOException {
+        if (response.isStreaming()) {
+            // controller已经通过getOutputStream()或getWriter()输出了响应体，不再序列化返回值
+            response.finishStreaming();
+            return;
+        }
+        if (cacheKey == null) {
+            response.sendReturnValue(returnValue, request, restMethodInvoker.isEtagEnabled());
+            return;
+        }
+        // 缓存中的数组会一直保留，所以不从BufferPool借
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.encode(returnValue, outputStream);
+        final byte[] responseBody = outputStream.toByteArray();
+        restMethodInvoker.getResponseCache().put(cacheKey, responseBody);
+        response.sendEncodedResource(responseBody, responseBody.length, codec.getContentType(), request, restMethodInvoker.isEtagEnabled());
+    }
+
+    private void sendError(Response response, Throwable e) throws IOException {
+        if (e instanceof TimeoutException) {
+            LOGGER.error("请求处理超时");
+        } else {
             LOGGER.error("请求处理失败", e);
-            // TODO 请求处理失败时，提示得更人性化
-            Map<String, Object> message = Map.of("success", false, "msg", "操作失败");
-            response.sendJsonDynamicResource(JSON.toJSONString(message));
         }
+        if (response.isCommitted()) {
+            // 响应头已经发送出去了，没法再发送错误信息，只能关闭连接让客户端知道响应不完整
+            throw new IOException("Response already committed.", e);
+        }
+        response.resetBuffer();
+        // TODO 请求处理失败时，提示得更人性化
+        Map<String, Object> message = Map.of("success", false, "msg", "操作失败");
+        response.sendJsonDynamicResource(JSON.toJSONString(message));
+    }
+
+    /**
+     * 根据请求方式和uri查找rest方法，一次请求只查找一次
+     *
+     * @param request http request
+     * @return 查找结果，为null时只能当做静态资源请求处理了；getHandler()为null时表示uri匹配但是请求方式不对
+     */
+    public static Router.Match<RestMethodInvoker> route(Request request) {
+        // TODO 考虑uri多个斜杠少个斜杠的情况
+        return ROUTER.find(request.getMethod(), request.getRequestURI());
     }
 
     /**
@@ -51,20 +194,31 @@ public class RestProcessor {
                 // TODO 考虑配置为空的情况
                 String uri = typeAnnotation.value() + methodAnnotation.value();
                 Object instance = clazz.getConstructor().newInstance();
-                URI_MAPPING.put(uri, new RestMethodInvoker(method, instance));
+                final Set<String> methods = Arrays.stream(methodAnnotation.method()).map(MiniRequestMethod::name).collect(Collectors.toSet());
+                ROUTER.add(uri, methods, new RestMethodInvoker(method, instance));
             }
         }
     }
 
     /**
-     * 判断RestProcessor是否包含了uri的映射。
-     * 如果没包含，只能当做静态资源请求处理了
+     * 添加编译时生成的路由表中的uri和方法的映射，不需要反射
      *
-     * @param uri uri
-     * @return 是否包含了uri的映射
+     * @param routeTable adam-server-processor生成的路由表
      */
-    public static boolean containsUriMapping(String uri) {
-        // TODO 考虑uri多个斜杠少个斜杠的情况
-        return URI_MAPPING.containsKey(uri);
+    public static void addUriMapping(RouteTable routeTable) {
+        routeTable.registerRoutes(new RouteRegistrar() {
+
+            @Override
+            public void register(String uri, String[] methods, ControllerInvoker invoker, String[] parameterNames, Class<?>[] parameterTypes,
+                                 ParameterSource[] parameterSources, boolean etag, CacheOptions cacheOptions, long asyncTimeout) {
+                ROUTER.add(uri, Set.of(methods), new RestMethodInvoker(invoker, parameterNames, parameterTypes, parameterSources,
+                        etag, cacheOptions, asyncTimeout));
+            }
+
+            @Override
+            public void registerWebSocket(String uri, MiniWebSocketHandler handler) {
+                WebSocketProcessor.addEndpoint(uri, handler);
+            }
+        });
     }
 }
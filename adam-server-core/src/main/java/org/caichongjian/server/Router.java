@@ -0,0 +1,312 @@
+package org.caichongjian.server;
+
+import com.google.common.base.Preconditions;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>按uri的各段组织成前缀树的路由表，代替以前只能精确匹配的HashMap。</p>
+ * <p>uri中的每一段可以是：</p>
+ * <ul>
+ *     <li>普通的字符串，如/users，必须完全相同</li>
+ *     <li>{name}，路径变量，匹配任意非空的一段，匹配到的值可以通过@MiniPathVariable获取</li>
+ *     <li>*，匹配任意非空的一段</li>
+ *     <li>**，匹配剩下的所有部分(包括空的)，只能放在最后</li>
+ * </ul>
+ * <p>查找时从根节点开始一段一段地往下走，普通字符串优先，其次路径变量，再其次*和**，走不通时回退。
+ * 子节点的普通字符串是排好序的，直接拿uri中的那一段和它们二分查找比较，查找的过程中不需要切分uri、不需要创建字符串，
+ * 路由再多每一层也只需要比较log(n)次。只有匹配成功并且有路径变量时才创建变量的值。</p>
+ * <p>路由在启动时注册好，之后只读，不需要加锁。</p>
+ *
+ * @param <T> 处理请求的对象
+ */
+public final class Router<T> {
+
+    private static final String WILDCARD = "*";
+    private static final String CATCH_ALL = "**";
+
+    private final Node<T> root = new Node<>();
+    /**
+     * 所有路由中路径变量最多的那个有几个变量，查找时按这个数量准备存放变量位置的数组
+     */
+    private int maxVariables;
+
+    /**
+     * 注册路由
+     *
+     * @param pattern 如/users/{id}/orders
+     * @param methods 请求方式，为空时不限制
+     * @param handler 处理请求的对象
+     * @throws IllegalStateException 路由重复或者格式错误
+     */
+    public void add(String pattern, Set<String> methods, T handler) {
+        Preconditions.checkState(pattern.startsWith("/"), "Route must start with '/': " + pattern);
+        final String[] segments = pattern.substring(1).split("/", -1);
+        final List<String> variableNames = new ArrayList<>();
+        Node<T> node = root;
+        Route<T> route = null;
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if (CATCH_ALL.equals(segment)) {
+                Preconditions.checkState(i == segments.length - 1, "'**' must be the last segment: " + pattern);
+                if (node.catchAll == null) {
+                    node.catchAll = new Route<>(pattern, variableNames);
+                }
+                route = node.catchAll;
+            } else if (WILDCARD.equals(segment)) {
+                if (node.wildcardChild == null) {
+                    node.wildcardChild = new Node<>();
+                }
+                node = node.wildcardChild;
+            } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                variableNames.add(segment.substring(1, segment.length() - 1));
+                if (node.variableChild == null) {
+                    node.variableChild = new Node<>();
+                }
+                node = node.variableChild;
+            } else {
+                node = node.addStaticChild(segment);
+            }
+        }
+        if (route == null) {
+            if (node.route == null) {
+                node.route = new Route<>(pattern, variableNames);
+            }
+            route = node.route;
+        }
+        // 同一个位置的路径变量在不同的请求方式中名称不同的话，取值时就分不清了
+        Preconditions.checkState(route.variableNames.equals(variableNames), "Route conflicts with " + route.pattern + ": " + pattern);
+        route.addHandler(methods, handler);
+        maxVariables = Math.max(maxVariables, variableNames.size());
+    }
+
+    /**
+     * 查找处理请求的对象，只查找一次
+     *
+     * @param method 请求方式
+     * @param path   请求的uri
+     * @return 查找结果，没有匹配的路由时返回null(这时当作静态资源处理)
+     */
+    public Match<T> find(String method, String path) {
+        if (path == null || !path.startsWith("/")) {
+            return null;
+        }
+        final int[] captures = maxVariables == 0 ? null : new int[maxVariables * 2];
+        final Route<T> route = match(root, path, 1, captures, 0);
+        if (route == null) {
+            return null;
+        }
+        final T handler = route.getHandler(method);
+        if (handler == null) {
+            return new Match<>(null, Collections.emptyMap(), route.handlers.keySet());
+        }
+        return new Match<>(handler, route.extractVariables(path, captures), Collections.emptySet());
+    }
+
+    /**
+     * 从position开始匹配uri中剩下的部分
+     *
+     * @param captures 按顺序存放路径变量在uri中的开始和结束位置
+     * @param count    已经匹配到了几个路径变量
+     */
+    private Route<T> match(Node<T> node, String path, int position, int[] captures, int count) {
+        if (position > path.length()) {
+            // uri已经匹配完了，**也可以匹配空的部分
+            return node.route != null ? node.route : node.catchAll;
+        }
+        int end = path.indexOf('/', position);
+        if (end == -1) {
+            end = path.length();
+        }
+
+        Route<T> route;
+        final Node<T> staticChild = node.findStaticChild(path, position, end);
+        if (staticChild != null && (route = match(staticChild, path, end + 1, captures, count)) != null) {
+            return route;
+        }
+        if (node.variableChild != null && end > position) {
+            captures[count * 2] = position;
+            captures[count * 2 + 1] = end;
+            if ((route = match(node.variableChild, path, end + 1, captures, count + 1)) != null) {
+                return route;
+            }
+        }
+        if (node.wildcardChild != null && end > position && (route = match(node.wildcardChild, path, end + 1, captures, count)) != null) {
+            return route;
+        }
+        return node.catchAll;
+    }
+
+    /**
+     * 查找结果
+     */
+    public static final class Match<T> {
+
+        private final T handler;
+        private final Map<String, String> variables;
+        private final Set<String> allowedMethods;
+
+        private Match(T handler, Map<String, String> variables, Set<String> allowedMethods) {
+            this.handler = handler;
+            this.variables = variables;
+            this.allowedMethods = allowedMethods;
+        }
+
+        /**
+         * @return 处理请求的对象，uri匹配但是请求方式不匹配时为null
+         */
+        public T getHandler() {
+            return handler;
+        }
+
+        /**
+         * @return 路径变量，已经按UTF-8解码了
+         */
+        public Map<String, String> getVariables() {
+            return variables;
+        }
+
+        /**
+         * @return uri匹配但是请求方式不匹配时，这个uri支持的请求方式
+         */
+        public Set<String> getAllowedMethods() {
+            return allowedMethods;
+        }
+    }
+
+    private static final class Node<T> {
+
+        private static final String[] NO_KEYS = new String[0];
+
+        /**
+         * 普通字符串的子节点，按staticKeys排好序
+         */
+        private String[] staticKeys = NO_KEYS;
+        private List<Node<T>> staticChildren = new ArrayList<>(0);
+        private Node<T> variableChild;
+        private Node<T> wildcardChild;
+        /**
+         * 在这个节点结束的路由
+         */
+        private Route<T> route;
+        /**
+         * 以**结尾的路由
+         */
+        private Route<T> catchAll;
+
+        private Node<T> addStaticChild(String key) {
+            final int index = Arrays.binarySearch(staticKeys, key);
+            if (index >= 0) {
+                return staticChildren.get(index);
+            }
+            final int insertion = -index - 1;
+            final String[] keys = new String[staticKeys.length + 1];
+            System.arraycopy(staticKeys, 0, keys, 0, insertion);
+            keys[insertion] = key;
+            System.arraycopy(staticKeys, insertion, keys, insertion + 1, staticKeys.length - insertion);
+            staticKeys = keys;
+            final Node<T> child = new Node<>();
+            staticChildren.add(insertion, child);
+            return child;
+        }
+
+        /**
+         * 拿path[start, end)和staticKeys二分查找，比较的规则和String.compareTo()一样
+         */
+        private Node<T> findStaticChild(String path, int start, int end) {
+            int low = 0;
+            int high = staticKeys.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compare(staticKeys[mid], path, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return staticChildren.get(mid);
+                }
+            }
+            return null;
+        }
+
+        private static int compare(String key, String path, int start, int end) {
+            final int length = end - start;
+            final int n = Math.min(key.length(), length);
+            for (int i = 0; i < n; i++) {
+                final int cmp = key.charAt(i) - path.charAt(start + i);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return key.length() - length;
+        }
+    }
+
+    private static final class Route<T> {
+
+        private final String pattern;
+        private final List<String> variableNames;
+        private final Map<String, T> handlers = new LinkedHashMap<>();
+        /**
+         * 不限制请求方式的处理对象
+         */
+        private T anyMethodHandler;
+
+        private Route(String pattern, List<String> variableNames) {
+            this.pattern = pattern;
+            this.variableNames = new ArrayList<>(variableNames);
+        }
+
+        private void addHandler(Set<String> methods, T handler) {
+            if (methods.isEmpty()) {
+                Preconditions.checkState(anyMethodHandler == null, "Duplicate route: " + pattern);
+                anyMethodHandler = handler;
+                return;
+            }
+            for (String method : methods) {
+                Preconditions.checkState(handlers.putIfAbsent(method, handler) == null, "Duplicate route: " + method + " " + pattern);
+            }
+        }
+
+        private T getHandler(String method) {
+            final T handler = handlers.get(method);
+            return handler != null ? handler : anyMethodHandler;
+        }
+
+        private Map<String, String> extractVariables(String path, int[] captures) {
+            if (variableNames.isEmpty()) {
+                return Collections.emptyMap();
+            }
+            final Map<String, String> variables = new HashMap<>(variableNames.size() * 2);
+            for (int i = 0; i < variableNames.size(); i++) {
+                variables.put(variableNames.get(i), decode(path.substring(captures[i * 2], captures[i * 2 + 1])));
+            }
+            return variables;
+        }
+
+        /**
+         * 按UTF-8解码路径变量。%后面不是两位十六进制数字时不解码，原样返回，find()不能因为客户端发来的uri格式不对而抛出异常
+         */
+        private static String decode(String value) {
+            if (value.indexOf('%') == -1) {
+                return value;
+            }
+            try {
+                // 路径中的+就是+，不是空格
+                return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.caichongjian.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>把任务按提交的顺序一个一个交给另一个Executor(通常是线程池)执行，前一个任务执行完才执行下一个。</p>
+ * <p>同一个连接上的事件(Server-Sent Events、WebSocket消息等)交给它处理，不会乱序，也不需要一直占用一个线程，
+ * 任务中访问的字段也不需要加锁。没有任务时不占用线程池中的线程。</p>
+ * 内部类，仅供adam-server-core内部使用
+ */
+public final class SerialExecutor implements Executor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Executor executor;
+    /**
+     * 等待执行的任务，tasks.size()不准确，所以另外计数
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger taskCount = new AtomicInteger();
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (taskCount.getAndIncrement() == 0) {
+            executor.execute(this::runTasks);
+        }
+    }
+
+    private void runTasks() {
+        do {
+            try {
+                tasks.poll().run();
+            } catch (RuntimeException e) {
+                // 一个任务失败了，后面的任务还是要执行的
+                LOGGER.error("an error occurs: ", e);
+            }
+        } while (taskCount.decrementAndGet() != 0);
+    }
+}
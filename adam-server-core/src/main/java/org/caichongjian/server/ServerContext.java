@@ -1,7 +1,21 @@
 package org.caichongjian.server;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.caichongjian.server.http.PreRenderedResponse;
+
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class ServerContext {
 
@@ -9,8 +23,34 @@ public class ServerContext {
         private static final ServerContext INSTANCE = new ServerContext();
     }
 
+    /**
+     * 常用的静态资源扩展名与Content-Type的对应关系，其他的交给URLConnection.guessContentTypeFromName()
+     */
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "html", Constants.ContentType.TEXT_HTML,
+            "htm", Constants.ContentType.TEXT_HTML,
+            "css", "text/css",
+            "js", "application/javascript",
+            "json", Constants.ContentType.APPLICATION_JSON,
+            "svg", "image/svg+xml",
+            "png", "image/png",
+            "jpg", "image/jpeg",
+            "ico", "image/x-icon",
+            "woff2", "font/woff2");
+
     private Class<?> primarySource;
 
+    /**
+     * 静态资源缓存，key为静态资源的相对路径，value为预先渲染好的完整响应。
+     * 按占用的字节数而不是条目数限制大小，超过上限时淘汰最近最少使用的
+     */
+    private final Cache<String, PreRenderedResponse> staticResponseCache = CacheBuilder.newBuilder()
+            .maximumWeight(Constants.Server.STATIC_RESOURCE_CACHE_MAX_BYTES)
+            .weigher((String uri, PreRenderedResponse response) -> response.size())
+            .expireAfterWrite(Constants.Server.STATIC_RESOURCE_CACHE_EXPIRE_SECONDS, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+
     private ServerContext() {
     }
 
@@ -29,9 +69,85 @@ public class ServerContext {
         return ServerContextHolder.INSTANCE;
     }
 
-    public byte[] getStaticResource(String uri) throws IOException {
-        // TODO 存在客户端能通过HTTP请求拿到class文件的安全隐患(经初步测试发现浏览器不允许URL中出现.. 但直接通过socket发送的请求只能在服务端进行限制)
-        InputStream inputStream = primarySource.getResourceAsStream("/static" + uri);
-        return inputStream == null ? null : inputStream.readAllBytes();
+    /**
+     * 获取静态资源。优先从Constants.Server.STATIC_RESOURCE_DIR中查找，找不到再从classpath的/static目录中查找
+     *
+     * @param uri 静态资源的相对路径
+     * @return 静态资源，找不到时返回null
+     */
+    public StaticResource getStaticResource(String uri) throws IOException {
+        // 经初步测试发现浏览器不允许URL中出现.. 但直接通过socket发送的请求只能在服务端进行限制，否则客户端能通过HTTP请求拿到class文件等
+        if (uri.contains("..")) {
+            return null;
+        }
+
+        final String staticResourceDir = Constants.Server.STATIC_RESOURCE_DIR;
+        if (staticResourceDir != null) {
+            final Path file = Paths.get(staticResourceDir, uri);
+            if (Files.isRegularFile(file)) {
+                return StaticResource.ofFile(file);
+            }
+        }
+
+        final URL url = primarySource.getResource("/static" + uri);
+        if (url == null) {
+            return null;
+        }
+        if ("file".equals(url.getProtocol())) {
+            // 在IDE中启动或者classpath是目录时，静态资源就是普通的文件
+            try {
+                final Path file = Paths.get(url.toURI());
+                return Files.isRegularFile(file) ? StaticResource.ofFile(file) : null;
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        return StaticResource.ofUrl(url);
+    }
+
+    /**
+     * 从缓存中获取预先渲染好的静态资源响应
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @param uri 静态资源的相对路径
+     * @return 预先渲染好的响应，没有缓存时返回null
+     */
+    public PreRenderedResponse getCachedStaticResponse(String uri) {
+        return staticResponseCache.getIfPresent(uri);
+    }
+
+    /**
+     * 缓存预先渲染好的静态资源响应
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @param uri      静态资源的相对路径
+     * @param response 预先渲染好的响应
+     */
+    public void cacheStaticResponse(String uri, PreRenderedResponse response) {
+        staticResponseCache.put(uri, response);
+    }
+
+    /**
+     * 获取静态资源缓存的统计信息，如命中次数(hitCount)、未命中次数(missCount)、淘汰次数(evictionCount)等等
+     *
+     * @return 静态资源缓存的统计信息
+     */
+    public CacheStats getStaticResourceCacheStats() {
+        return staticResponseCache.stats();
+    }
+
+    /**
+     * 根据静态资源的扩展名获取Content-Type
+     *
+     * @param uri 静态资源的相对路径
+     * @return Content-Type
+     */
+    public String getContentType(String uri) {
+        final String extension = StringUtils.substringAfterLast(uri, ".").toLowerCase();
+        final String contentType = CONTENT_TYPES.get(extension);
+        if (contentType != null) {
+            return contentType;
+        }
+        return ObjectUtils.defaultIfNull(URLConnection.guessContentTypeFromName(uri), Constants.ContentType.APPLICATION_OCTET_STREAM);
     }
 }
@@ -0,0 +1,75 @@
+package org.caichongjian.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <p>静态资源。</p>
+ * <p>以前获取静态资源时会把整个文件读到byte数组中，文件越大占用的堆内存越多。
+ * 现在先只获取静态资源的位置、长度等信息，由Response根据文件大小决定是读到内存中发送还是直接从磁盘发送。</p>
+ */
+public final class StaticResource {
+
+    private final URL url;
+    /**
+     * 静态资源在文件系统中的路径。静态资源在jar包中时为null
+     */
+    private final Path file;
+    private final long length;
+    private final long lastModified;
+
+    private StaticResource(URL url, Path file, long length, long lastModified) {
+        this.url = url;
+        this.file = file;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    static StaticResource ofFile(Path file) throws IOException {
+        return new StaticResource(file.toUri().toURL(), file, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+    }
+
+    static StaticResource ofUrl(URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        return new StaticResource(url, null, connection.getContentLengthLong(), connection.getLastModified());
+    }
+
+    public InputStream openStream() throws IOException {
+        return file != null ? Files.newInputStream(file) : url.openStream();
+    }
+
+    public byte[] readAllBytes() throws IOException {
+        try (InputStream inputStream = openStream()) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    /**
+     * 静态资源是否在文件系统中。在文件系统中的静态资源才能通过FileChannel.transferTo发送
+     */
+    public boolean isFile() {
+        return file != null;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return 静态资源的长度，未知时返回-1
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return 静态资源的最后修改时间，未知时返回0
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
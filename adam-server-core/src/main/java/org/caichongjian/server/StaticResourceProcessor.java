@@ -15,6 +15,6 @@ public class StaticResourceProcessor {
      * @throws IOException if an I/O error occurs
      */
     public void process(Request request, Response response) throws IOException {
-        response.sendStaticResource(request.getRequestURI());
+        response.sendStaticResource(request);
     }
 }
@@ -0,0 +1,46 @@
+package org.caichongjian.server.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * <p>请求体、响应体的编解码器。@MiniRequestBody参数按请求的Content-Type选择编解码器，controller的返回值按请求的Accept选择。</p>
+ * <p>内置了JSON(默认)和MessagePack两种，需要其他格式的话实现这个接口，
+ * 再通过META-INF/services/org.caichongjian.server.codec.BodyCodec(ServiceLoader)注册即可，和内置的媒体类型相同时覆盖内置的。</p>
+ */
+public interface BodyCodec {
+
+    /**
+     * @return 编码后的响应体的Content-Type，如"application/json"
+     */
+    String getContentType();
+
+    /**
+     * @return 能解码的媒体类型(小写，不带参数)，默认只有getContentType()
+     */
+    default Set<String> getMediaTypes() {
+        return Set.of(getContentType());
+    }
+
+    /**
+     * 从输入流中解码出对象，输入流不需要关闭
+     *
+     * @param inputStream 请求体的输入流
+     * @param type        类对象
+     * @param <T>         类型
+     * @return 对象
+     * @throws IOException 读取请求体时出错
+     */
+    <T> T decode(InputStream inputStream, Class<T> type) throws IOException;
+
+    /**
+     * 将对象编码后写到输出流中，输出流不需要关闭
+     *
+     * @param value        对象，可能为null
+     * @param outputStream 输出流
+     * @throws IOException IO异常
+     */
+    void encode(Object value, OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,110 @@
+package org.caichongjian.server.codec;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * 根据Content-Type、Accept选择BodyCodec。启动时注册内置的JSON、MessagePack和通过ServiceLoader找到的编解码器
+ */
+public final class BodyCodecs {
+
+    private static final BodyCodec DEFAULT = new JsonBodyCodec();
+
+    /**
+     * 媒体类型(小写，不带参数) -> 编解码器
+     */
+    private static final Map<String, BodyCodec> CODECS = new HashMap<>();
+
+    static {
+        register(DEFAULT);
+        register(new MessagePackBodyCodec());
+        for (BodyCodec codec : ServiceLoader.load(BodyCodec.class)) {
+            register(codec);
+        }
+    }
+
+    private BodyCodecs() {
+    }
+
+    private static void register(BodyCodec codec) {
+        for (String mediaType : codec.getMediaTypes()) {
+            CODECS.put(mediaType.toLowerCase(Locale.ROOT), codec);
+        }
+    }
+
+    /**
+     * @return 默认的编解码器(JSON)
+     */
+    public static BodyCodec getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 按请求的Content-Type选择解码器
+     *
+     * @param contentType 请求的Content-Type，如"application/json;charset=UTF-8"
+     * @return 解码器，不支持这种Content-Type时返回null
+     */
+    public static BodyCodec forContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        return CODECS.get(mediaTypeOf(contentType));
+    }
+
+    /**
+     * <p>按请求的Accept选择编码器，选q值最大的，q值相同时选写在前面的。</p>
+     * <p>没有Accept、Accept中有&#42;/&#42;或者支持的类型一个都没有时使用默认的JSON，
+     * 严格来说后一种情况应该返回406，但是浏览器等客户端一般能接受JSON，没必要让请求失败。</p>
+     *
+     * @param accept 请求的Accept，如"application/msgpack, application/json;q=0.5"
+     * @return 编码器
+     */
+    public static BodyCodec forAccept(String accept) {
+        if (StringUtils.isBlank(accept)) {
+            return DEFAULT;
+        }
+        BodyCodec best = DEFAULT;
+        double bestQuality = 0;
+        for (String range : StringUtils.split(accept, ',')) {
+            final String mediaType = mediaTypeOf(range);
+            final BodyCodec codec = "*/*".equals(mediaType) || "application/*".equals(mediaType) ? DEFAULT : CODECS.get(mediaType);
+            if (codec == null) {
+                continue;
+            }
+            final double quality = qualityOf(range);
+            if (quality > bestQuality) {
+                best = codec;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static String mediaTypeOf(String value) {
+        final int semicolonIndex = value.indexOf(';');
+        final String mediaType = semicolonIndex == -1 ? value : value.substring(0, semicolonIndex);
+        return mediaType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 解析"application/json;q=0.5"中的q值，没有时为1，格式不对时当作0(不接受)
+     */
+    private static double qualityOf(String range) {
+        for (String parameter : StringUtils.split(range, ';')) {
+            final String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,31 @@
+package org.caichongjian.server.codec;
+
+import com.alibaba.fastjson.JSON;
+import org.caichongjian.server.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 默认的编解码器，使用fastjson。可以换成Jackson、Gson等任意一个你喜欢的类库
+ */
+final class JsonBodyCodec implements BodyCodec {
+
+    @Override
+    public String getContentType() {
+        return Constants.ContentType.APPLICATION_JSON;
+    }
+
+    @Override
+    public <T> T decode(InputStream inputStream, Class<T> type) throws IOException {
+        // 直接从输入流中反序列化，不需要先把整个请求体转成字符串
+        return JSON.parseObject(inputStream, Constants.Server.DEFAULT_CHARSET, type);
+    }
+
+    @Override
+    public void encode(Object value, OutputStream outputStream) throws IOException {
+        // 直接写成UTF-8的字节，不需要先生成String再编码一次
+        JSON.writeJSONString(outputStream, Constants.Server.DEFAULT_CHARSET, value);
+    }
+}
@@ -0,0 +1,506 @@
+package org.caichongjian.server.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.parser.deserializer.JavaBeanDeserializer;
+import com.alibaba.fastjson.serializer.JavaBeanSerializer;
+import com.alibaba.fastjson.serializer.SerializeConfig;
+import com.alibaba.fastjson.util.FieldInfo;
+import com.alibaba.fastjson.util.JavaBeanInfo;
+import com.alibaba.fastjson.util.TypeUtils;
+import com.google.common.base.Preconditions;
+import org.caichongjian.server.Constants;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>MessagePack格式的编解码器，集群内部服务之间调用时使用，比JSON更紧凑，解析也更快。</p>
+ * <p>POJO直接按属性读写，不先转成JSONObject、JSONArray：每个类的属性(getter、setter、字段名)第一次用到时从fastjson的
+ * TypeUtils.computeGetters()、JavaBeanInfo中取出来缓存，所以@JSONField等注解、字段名和JSON的规则一样。
+ * 解码时按目标类型(包括属性、List、Map的泛型参数)边读边创建对象，目标类型是Object时才读成JSONObject、JSONArray。
+ * 数字、字符串转成目标类型(如Long转Date、String转BigDecimal)借用TypeUtils.cast()。</p>
+ * <p>不支持MessagePack的ext类型。BigDecimal按字符串编码，避免丢失精度。</p>
+ */
+final class MessagePackBodyCodec implements BodyCodec {
+
+    /**
+     * 解码时数组、map最多能嵌套多少层，可根据实际情况调整
+     */
+    private static final int MAX_DEPTH = 64;
+    private static final String INVALID_REQUEST = "Invalid request.";
+    /**
+     * 不是JavaBean的类(fastjson不按属性序列化的类，如LocalDate)，按JSON.toJSON()的结果编码
+     */
+    private static final FieldInfo[] NOT_BEAN = new FieldInfo[0];
+    /**
+     * 编码时用到的每个类的getter
+     */
+    private static final ClassValue<FieldInfo[]> GETTERS = new ClassValue<>() {
+        @Override
+        protected FieldInfo[] computeValue(Class<?> clazz) {
+            if (!(SerializeConfig.getGlobalInstance().getObjectWriter(clazz) instanceof JavaBeanSerializer)) {
+                return NOT_BEAN;
+            }
+            return TypeUtils.computeGetters(clazz, null).stream()
+                    .filter(getter -> !getter.fieldTransient)
+                    .toArray(FieldInfo[]::new);
+        }
+    };
+    /**
+     * 解码时用到的每个类的无参构造方法和setter
+     */
+    private static final ClassValue<BeanSetters> SETTERS = new ClassValue<>() {
+        @Override
+        protected BeanSetters computeValue(Class<?> clazz) {
+            return BeanSetters.of(clazz);
+        }
+    };
+
+    @Override
+    public String getContentType() {
+        return Constants.ContentType.APPLICATION_MSGPACK;
+    }
+
+    @Override
+    public Set<String> getMediaTypes() {
+        return Set.of(Constants.ContentType.APPLICATION_MSGPACK, "application/x-msgpack", "application/vnd.msgpack");
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(InputStream inputStream, Class<T> type) throws IOException {
+        return (T) read(new DataInputStream(inputStream), type, 0);
+    }
+
+    @Override
+    public void encode(Object value, OutputStream outputStream) throws IOException {
+        final DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        write(dataOutputStream, value);
+        dataOutputStream.flush();
+    }
+
+    private void write(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(0xc0);
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? 0xc3 : 0xc2);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeInteger(out, ((Number) value).longValue());
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            writeInteger(out, ((BigInteger) value).longValue());
+        } else if (value instanceof Float) {
+            out.writeByte(0xca);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(0xcb);
+            out.writeDouble((Double) value);
+        } else if (value instanceof BigDecimal) {
+            writeString(out, ((BigDecimal) value).toPlainString());
+        } else if (value instanceof Date) {
+            writeInteger(out, ((Date) value).getTime()); // 和fastjson默认的JSON格式一样，使用毫秒数
+        } else if (value instanceof byte[]) {
+            writeBinary(out, (byte[]) value);
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            writeHeader(out, map.size(), 0x80, 0xde, 0xdf);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, String.valueOf(entry.getKey()));
+                write(out, entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) value;
+            writeHeader(out, collection.size(), 0x90, 0xdc, 0xdd);
+            for (Object element : collection) {
+                write(out, element);
+            }
+        } else if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            writeHeader(out, length, 0x90, 0xdc, 0xdd);
+            for (int i = 0; i < length; i++) {
+                write(out, Array.get(value, i));
+            }
+        } else if (value instanceof Enum) {
+            writeString(out, ((Enum<?>) value).name());
+        } else if (value instanceof CharSequence || value instanceof Character || value instanceof BigInteger) {
+            writeString(out, value.toString()); // BigInteger超出long的范围时也按字符串编码
+        } else {
+            writeObject(out, value);
+        }
+    }
+
+    /**
+     * JavaBean按属性逐个写成map，其他类型(如LocalDate)和JSON一样先JSON.toJSON()
+     */
+    private void writeObject(DataOutputStream out, Object value) throws IOException {
+        final FieldInfo[] getters = GETTERS.get(value.getClass());
+        if (getters == NOT_BEAN) {
+            final Object json = JSON.toJSON(value);
+            if (json == value) {
+                writeString(out, value.toString());
+            } else {
+                write(out, json);
+            }
+            return;
+        }
+        writeHeader(out, getters.length, 0x80, 0xde, 0xdf);
+        for (FieldInfo getter : getters) {
+            writeString(out, getter.name);
+            try {
+                write(out, getter.get(value));
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("读取" + getter.name + "失败", e);
+            }
+        }
+    }
+
+    private void writeInteger(DataOutputStream out, long value) throws IOException {
+        if (value >= 0) {
+            if (value < 0x80) {
+                out.writeByte((int) value); // positive fixint
+            } else if (value <= 0xff) {
+                out.writeByte(0xcc);
+                out.writeByte((int) value);
+            } else if (value <= 0xffff) {
+                out.writeByte(0xcd);
+                out.writeShort((int) value);
+            } else if (value <= 0xffffffffL) {
+                out.writeByte(0xce);
+                out.writeInt((int) value);
+            } else {
+                out.writeByte(0xcf);
+                out.writeLong(value);
+            }
+        } else {
+            if (value >= -32) {
+                out.writeByte((int) value); // negative fixint
+            } else if (value >= Byte.MIN_VALUE) {
+                out.writeByte(0xd0);
+                out.writeByte((int) value);
+            } else if (value >= Short.MIN_VALUE) {
+                out.writeByte(0xd1);
+                out.writeShort((int) value);
+            } else if (value >= Integer.MIN_VALUE) {
+                out.writeByte(0xd2);
+                out.writeInt((int) value);
+            } else {
+                out.writeByte(0xd3);
+                out.writeLong(value);
+            }
+        }
+    }
+
+    private void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(Constants.Server.DEFAULT_CHARSET);
+        if (bytes.length < 32) {
+            out.writeByte(0xa0 | bytes.length); // fixstr
+        } else if (bytes.length <= 0xff) {
+            out.writeByte(0xd9);
+            out.writeByte(bytes.length);
+        } else if (bytes.length <= 0xffff) {
+            out.writeByte(0xda);
+            out.writeShort(bytes.length);
+        } else {
+            out.writeByte(0xdb);
+            out.writeInt(bytes.length);
+        }
+        out.write(bytes);
+    }
+
+    private void writeBinary(DataOutputStream out, byte[] value) throws IOException {
+        if (value.length <= 0xff) {
+            out.writeByte(0xc4);
+            out.writeByte(value.length);
+        } else if (value.length <= 0xffff) {
+            out.writeByte(0xc5);
+            out.writeShort(value.length);
+        } else {
+            out.writeByte(0xc6);
+            out.writeInt(value.length);
+        }
+        out.write(value);
+    }
+
+    /**
+     * 写数组、map的长度，不超过15时和类型写在同一个字节中
+     */
+    private void writeHeader(DataOutputStream out, int size, int fixType, int type16, int type32) throws IOException {
+        if (size < 16) {
+            out.writeByte(fixType | size);
+        } else if (size <= 0xffff) {
+            out.writeByte(type16);
+            out.writeShort(size);
+        } else {
+            out.writeByte(type32);
+            out.writeInt(size);
+        }
+    }
+
+    /**
+     * 读一个值并转换成type类型
+     */
+    private Object read(DataInputStream in, Type type, int depth) throws IOException {
+        final int b = in.readUnsignedByte(); // 请求体不完整时抛出EOFException
+        if (b >= 0x80 && b <= 0x8f) {
+            return readMap(in, b & 0x0f, type, depth);
+        } else if (b >= 0x90 && b <= 0x9f) {
+            return readArray(in, b & 0x0f, type, depth);
+        }
+        switch (b) {
+            case 0xdc:
+                return readArray(in, in.readUnsignedShort(), type, depth);
+            case 0xdd:
+                return readArray(in, readLength(in), type, depth);
+            case 0xde:
+                return readMap(in, in.readUnsignedShort(), type, depth);
+            case 0xdf:
+                return readMap(in, readLength(in), type, depth);
+            default:
+                final Object value = readScalar(in, b);
+                return value == null || type == Object.class ? value : TypeUtils.cast(value, type, ParserConfig.getGlobalInstance());
+        }
+    }
+
+    private Object readScalar(DataInputStream in, int b) throws IOException {
+        if (b <= 0x7f) {
+            return b; // positive fixint
+        } else if (b >= 0xa0 && b <= 0xbf) {
+            return readString(in, b & 0x1f);
+        } else if (b >= 0xe0) {
+            return (int) (byte) b; // negative fixint
+        }
+        switch (b) {
+            case 0xc0:
+                return null;
+            case 0xc2:
+                return false;
+            case 0xc3:
+                return true;
+            case 0xc4:
+                return readBytes(in, in.readUnsignedByte());
+            case 0xc5:
+                return readBytes(in, in.readUnsignedShort());
+            case 0xc6:
+                return readBytes(in, readLength(in));
+            case 0xca:
+                return in.readFloat();
+            case 0xcb:
+                return in.readDouble();
+            case 0xcc:
+                return in.readUnsignedByte();
+            case 0xcd:
+                return in.readUnsignedShort();
+            case 0xce:
+                return in.readInt() & 0xffffffffL;
+            case 0xcf:
+                final long uint64 = in.readLong();
+                return uint64 >= 0 ? uint64 : new BigInteger(Long.toUnsignedString(uint64));
+            case 0xd0:
+                return (int) in.readByte();
+            case 0xd1:
+                return (int) in.readShort();
+            case 0xd2:
+                return in.readInt();
+            case 0xd3:
+                return in.readLong();
+            case 0xd9:
+                return readString(in, in.readUnsignedByte());
+            case 0xda:
+                return readString(in, in.readUnsignedShort());
+            case 0xdb:
+                return readString(in, readLength(in));
+            default:
+                throw new IllegalStateException(INVALID_REQUEST); // ext类型和保留的0xc1
+        }
+    }
+
+    /**
+     * 读一个map。目标类型是Object、Map时读成map，是JavaBean时直接创建对象并调用setter，其他类型先读成JSONObject再转换
+     */
+    @SuppressWarnings("unchecked")
+    private Object readMap(DataInputStream in, int size, Type type, int depth) throws IOException {
+        Preconditions.checkState(depth < MAX_DEPTH, INVALID_REQUEST);
+        final Class<?> clazz = TypeUtils.getClass(type);
+        // 长度是客户端发来的，不能按它预先分配空间
+        final Map<Object, Object> map;
+        if (clazz == Object.class || clazz == JSONObject.class) {
+            map = (Map<Object, Object>) (Map<?, ?>) new JSONObject(new LinkedHashMap<>(Math.min(size, 16)));
+        } else if (clazz.isAssignableFrom(LinkedHashMap.class)) {
+            map = new LinkedHashMap<>(Math.min(size, 16));
+        } else {
+            final BeanSetters setters = SETTERS.get(clazz);
+            if (setters.constructor != null) {
+                return readBean(in, size, setters, depth);
+            }
+            return TypeUtils.cast(readMap(in, size, Object.class, depth), type, ParserConfig.getGlobalInstance());
+        }
+        final Type keyType = typeArgument(type, 0, String.class);
+        final Type valueType = typeArgument(type, 1, Object.class);
+        for (int i = 0; i < size; i++) {
+            map.put(read(in, keyType, depth + 1), read(in, valueType, depth + 1));
+        }
+        return map;
+    }
+
+    private Object readBean(DataInputStream in, int size, BeanSetters setters, int depth) throws IOException {
+        try {
+            final Object bean = setters.constructor.newInstance();
+            for (int i = 0; i < size; i++) {
+                final FieldInfo setter = setters.setters.get(String.valueOf(read(in, Object.class, depth + 1)));
+                if (setter == null) {
+                    read(in, Object.class, depth + 1); // 没有对应属性的值直接丢弃
+                    continue;
+                }
+                final Object value = read(in, setter.fieldType, depth + 1);
+                if (value != null || !setter.fieldClass.isPrimitive()) {
+                    setter.set(bean, value);
+                }
+            }
+            return bean;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("创建" + setters.constructor.getDeclaringClass().getName() + "失败", e);
+        }
+    }
+
+    /**
+     * 读一个数组。目标类型是Object时读成JSONArray，是数组、List、Set时按元素的类型逐个读，其他类型先读成JSONArray再转换
+     */
+    private Object readArray(DataInputStream in, int size, Type type, int depth) throws IOException {
+        Preconditions.checkState(depth < MAX_DEPTH, INVALID_REQUEST);
+        final Class<?> clazz = TypeUtils.getClass(type);
+        final Collection<Object> collection;
+        final Type elementType;
+        if (clazz == Object.class || clazz == JSONArray.class) {
+            collection = new JSONArray(new ArrayList<>(Math.min(size, 16)));
+            elementType = Object.class;
+        } else if (clazz.isArray()) {
+            collection = new ArrayList<>(Math.min(size, 16));
+            elementType = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType() : clazz.getComponentType();
+        } else if (clazz.isAssignableFrom(ArrayList.class)) {
+            collection = new ArrayList<>(Math.min(size, 16));
+            elementType = typeArgument(type, 0, Object.class);
+        } else if (clazz.isAssignableFrom(LinkedHashSet.class)) {
+            collection = new LinkedHashSet<>(Math.min(size, 16));
+            elementType = typeArgument(type, 0, Object.class);
+        } else {
+            return TypeUtils.cast(readArray(in, size, Object.class, depth), type, ParserConfig.getGlobalInstance());
+        }
+        for (int i = 0; i < size; i++) {
+            collection.add(read(in, elementType, depth + 1));
+        }
+        if (!clazz.isArray()) {
+            return collection;
+        }
+        final Class<?> componentType = clazz.getComponentType();
+        final Object array = Array.newInstance(componentType, collection.size());
+        int i = 0;
+        for (Object element : collection) {
+            if (element != null || !componentType.isPrimitive()) {
+                Array.set(array, i, element);
+            }
+            i++;
+        }
+        return array;
+    }
+
+    /**
+     * @return List、Map等泛型参数的实际类型，没有泛型参数或者是通配符等时返回defaultType
+     */
+    private static Type typeArgument(Type type, int index, Type defaultType) {
+        if (type instanceof ParameterizedType) {
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (arguments.length > index && (arguments[index] instanceof Class || arguments[index] instanceof ParameterizedType
+                    || arguments[index] instanceof GenericArrayType)) {
+                return arguments[index];
+            }
+        }
+        return defaultType;
+    }
+
+    private String readString(DataInputStream in, int length) throws IOException {
+        return new String(readBytes(in, length), Constants.Server.DEFAULT_CHARSET);
+    }
+
+    private byte[] readBytes(DataInputStream in, int length) throws IOException {
+        // readNBytes()边读边扩容，不会按客户端发来的长度一次性分配
+        final byte[] bytes = in.readNBytes(length);
+        Preconditions.checkState(bytes.length == length, INVALID_REQUEST);
+        return bytes;
+    }
+
+    private int readLength(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        Preconditions.checkState(length >= 0, INVALID_REQUEST); // 超过2GB的不支持
+        return length;
+    }
+
+    /**
+     * 一个JavaBean的无参构造方法和各个属性的setter(或者public字段)，fastjson按属性反序列化的类才有
+     */
+    private static final class BeanSetters {
+
+        private static final BeanSetters NOT_BEAN = new BeanSetters(null, Map.of());
+
+        /**
+         * 为null时不是JavaBean(没有无参构造方法、使用@JSONCreator等)，交给TypeUtils.cast()处理
+         */
+        private final Constructor<?> constructor;
+        private final Map<String, FieldInfo> setters;
+
+        private BeanSetters(Constructor<?> constructor, Map<String, FieldInfo> setters) {
+            this.constructor = constructor;
+            this.setters = setters;
+        }
+
+        static BeanSetters of(Class<?> clazz) {
+            if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())
+                    || !(ParserConfig.getGlobalInstance().getDeserializer(clazz) instanceof JavaBeanDeserializer)) {
+                return NOT_BEAN;
+            }
+            final JavaBeanInfo beanInfo = JavaBeanInfo.build(clazz, clazz, null);
+            if (beanInfo.defaultConstructor == null || beanInfo.defaultConstructorParameterSize != 0
+                    || beanInfo.creatorConstructor != null || beanInfo.factoryMethod != null || beanInfo.builderClass != null) {
+                return NOT_BEAN;
+            }
+            beanInfo.defaultConstructor.setAccessible(true);
+            final Map<String, FieldInfo> setters = new HashMap<>();
+            for (FieldInfo setter : beanInfo.fields) {
+                if (setter.getOnly) {
+                    continue;
+                }
+                setter.setAccessible();
+                setters.put(setter.name, setter);
+                if (setter.alternateNames != null) {
+                    for (String alternateName : setter.alternateNames) {
+                        setters.putIfAbsent(alternateName, setter);
+                    }
+                }
+            }
+            return new BeanSetters(beanInfo.defaultConstructor, setters);
+        }
+    }
+}
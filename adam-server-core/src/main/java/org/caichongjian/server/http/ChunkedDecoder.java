@@ -0,0 +1,222 @@
+package org.caichongjian.server.http;
+
+import com.google.common.base.Preconditions;
+import org.caichongjian.server.Constants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>Transfer-Encoding: chunked请求体的解码器，和HttpRequestParser一样按字节解析，支持分多次喂数据。</p>
+ * <p/>
+ * <p>解码器只解析chunk的长度行、chunk后面的\r\n和最后的trailer，不复制chunk中的数据：
+ * decode()停在数据的开头，调用方自己处理getChunkRemaining()个字节的数据后调用consumeData()，
+ * 数据可以直接从缓冲区复制到调用方的数组中，也可以直接从socket读到调用方的数组中，整个请求体不需要放在内存中。</p>
+ * <p>格式样例：</p>
+ * <pre>
+ * 5;name=value\r\n
+ * hello\r\n
+ * 0\r\n
+ * Trailer-Name: value\r\n
+ * \r\n
+ * </pre>
+ */
+public class ChunkedDecoder {
+
+    private static final int SIZE = 0;
+    private static final int SIZE_EXTENSION = 1;
+    private static final int DATA = 2;
+    private static final int DATA_END = 3;
+    private static final int TRAILER_LINE_START = 4;
+    private static final int TRAILER_LINE = 5;
+    private static final int TRAILERS_END = 6;
+    private static final int DONE = 7;
+
+    private static final String INVALID_REQUEST = "Invalid request.";
+
+    /**
+     * chunk长度行(包括chunk extension)的最大长度，可根据实际情况调整
+     */
+    private static final int MAX_SIZE_LINE_LENGTH = 1024;
+
+    private int state = SIZE;
+    private long chunkSize;
+    private int sizeDigits;
+    private int lineLength;
+    /**
+     * 当前chunk还有多少字节的数据没有处理
+     */
+    private long chunkRemaining;
+
+    /**
+     * 正在解析的trailer行，trailer很少用到，用到时才分配
+     */
+    private byte[] trailerLine;
+    private int trailerLength;
+    private int trailersSize;
+    private Map<String, String> trailers = Collections.emptyMap();
+
+    /**
+     * 从buffer[offset, end)中解析chunk的长度行、chunk后面的\r\n和trailer，遇到chunk中的数据、数据不够或者解析完了时停下来
+     *
+     * @param buffer 数据
+     * @param offset 从这里开始解析
+     * @param end    数据的结束位置(不包含)
+     * @return 解析到了哪里，getChunkRemaining()大于0时数据从这里开始
+     * @throws IllegalStateException 请求格式错误或者chunk太大
+     */
+    public int decode(byte[] buffer, int offset, int end) {
+        int i = offset;
+        for (; i < end && state != DATA && state != DONE; i++) {
+            final byte b = buffer[i];
+            switch (state) {
+                case SIZE:
+                    final int digit = Character.digit(b, 16);
+                    if (digit != -1) {
+                        Preconditions.checkState(++sizeDigits <= 15, INVALID_REQUEST);
+                        chunkSize = chunkSize * 16 + digit;
+                    } else {
+                        Preconditions.checkState(sizeDigits > 0, INVALID_REQUEST);
+                        if (b == '\n') {
+                            endSizeLine();
+                        } else {
+                            state = SIZE_EXTENSION; // chunk extension(;name=value)和空白一概忽略
+                        }
+                    }
+                    lineLength++;
+                    break;
+                case SIZE_EXTENSION:
+                    if (b == '\n') {
+                        endSizeLine();
+                    }
+                    Preconditions.checkState(++lineLength <= MAX_SIZE_LINE_LENGTH, INVALID_REQUEST);
+                    break;
+                case DATA_END:
+                    // chunk数据后面必须紧跟着\r\n(或者\n)
+                    if (b == '\n') {
+                        state = SIZE;
+                    } else {
+                        Preconditions.checkState(b == '\r' && lineLength++ == 0, INVALID_REQUEST);
+                    }
+                    break;
+                case TRAILER_LINE_START:
+                    if (b == '\n') {
+                        state = DONE;
+                    } else if (b == '\r') {
+                        state = TRAILERS_END;
+                    } else {
+                        trailerLength = 0;
+                        appendTrailer(b);
+                        state = TRAILER_LINE;
+                    }
+                    break;
+                case TRAILER_LINE:
+                    if (b == '\n') {
+                        addTrailer();
+                        state = TRAILER_LINE_START;
+                    } else {
+                        appendTrailer(b);
+                    }
+                    break;
+                case TRAILERS_END:
+                    Preconditions.checkState(b == '\n', INVALID_REQUEST);
+                    state = DONE;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * 跳过buffer[offset, end)中的请求体(包括chunk中的数据)，用于找出请求体在哪里结束
+     *
+     * @param buffer 数据
+     * @param offset 从这里开始解析
+     * @param end    数据的结束位置(不包含)
+     * @return 解析到了哪里，isDone()为true时就是请求体的结束位置
+     */
+    public int skip(byte[] buffer, int offset, int end) {
+        int position = offset;
+        while (true) {
+            position = decode(buffer, position, end);
+            if (chunkRemaining == 0 || position == end) {
+                return position;
+            }
+            final int length = (int) Math.min(chunkRemaining, end - position);
+            consumeData(length);
+            position += length;
+        }
+    }
+
+    /**
+     * @return 当前chunk还有多少字节的数据没有处理，不在chunk数据中时为0
+     */
+    public long getChunkRemaining() {
+        return chunkRemaining;
+    }
+
+    /**
+     * 调用方处理了当前chunk中的length个字节的数据
+     *
+     * @param length 数据的长度，不能超过getChunkRemaining()
+     */
+    public void consumeData(int length) {
+        chunkRemaining -= length;
+        if (chunkRemaining == 0) {
+            state = DATA_END;
+            lineLength = 0;
+        }
+    }
+
+    /**
+     * @return 请求体(包括trailer)是否已经解析完了
+     */
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * @return 请求体后面的trailer，名称都转成了小写，没有时返回空Map
+     */
+    public Map<String, String> getTrailers() {
+        return trailers;
+    }
+
+    private void endSizeLine() {
+        Preconditions.checkState(chunkSize <= Constants.Server.MAX_CHUNK_SIZE, "Chunk too large.");
+        if (chunkSize == 0) {
+            state = TRAILER_LINE_START; // 最后一个chunk，后面是trailer
+        } else {
+            state = DATA;
+            chunkRemaining = chunkSize;
+        }
+        chunkSize = 0;
+        sizeDigits = 0;
+        lineLength = 0;
+    }
+
+    private void appendTrailer(byte b) {
+        Preconditions.checkState(++trailersSize <= Constants.Server.MAX_REQUEST_HEADER_SIZE, "Request header too large.");
+        if (trailerLine == null) {
+            trailerLine = new byte[128];
+        } else if (trailerLength == trailerLine.length) {
+            trailerLine = Arrays.copyOf(trailerLine, trailerLine.length * 2);
+        }
+        trailerLine[trailerLength++] = b;
+    }
+
+    private void addTrailer() {
+        final String line = new String(trailerLine, 0, trailerLength, Constants.Server.DEFAULT_CHARSET);
+        final int colonIndex = line.indexOf(':');
+        Preconditions.checkState(colonIndex > 0, INVALID_REQUEST);
+        if (trailers.isEmpty()) {
+            trailers = new LinkedHashMap<>();
+        }
+        trailers.put(line.substring(0, colonIndex).trim().toLowerCase(Locale.ROOT), line.substring(colonIndex + 1).trim());
+    }
+}
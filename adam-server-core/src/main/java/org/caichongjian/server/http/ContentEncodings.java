@@ -0,0 +1,86 @@
+package org.caichongjian.server.http;
+
+import org.apache.commons.lang3.StringUtils;
+import org.caichongjian.server.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 响应体的压缩(Content-Encoding)。目前支持gzip和deflate(zlib格式)，压缩级别由Constants.Server.COMPRESSION_LEVEL指定
+ */
+final class ContentEncodings {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private ContentEncodings() {
+    }
+
+    /**
+     * 判断这种类型的内容值不值得压缩。图片、视频、字体、zip等本身已经压缩过了，再压缩只会浪费CPU
+     *
+     * @param contentType 内容类型
+     * @return 是否值得压缩
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        return StringUtils.startsWithIgnoreCase(contentType, "text/")
+                || StringUtils.startsWithIgnoreCase(contentType, Constants.ContentType.APPLICATION_JSON)
+                || StringUtils.startsWithIgnoreCase(contentType, "application/javascript")
+                || StringUtils.startsWithIgnoreCase(contentType, "application/xml")
+                || StringUtils.startsWithIgnoreCase(contentType, "image/svg+xml");
+    }
+
+    /**
+     * 按指定的Content-Encoding压缩
+     *
+     * @param bytes    需要压缩的内容
+     * @param encoding gzip或deflate
+     * @return 压缩后的内容
+     */
+    static byte[] compress(byte[] bytes, String encoding) {
+        return compress(bytes, bytes.length, encoding);
+    }
+
+    /**
+     * 按指定的Content-Encoding压缩bytes的前length个字节
+     *
+     * @param bytes    需要压缩的内容
+     * @param length   内容的长度
+     * @param encoding gzip或deflate
+     * @return 压缩后的内容
+     */
+    static byte[] compress(byte[] bytes, int length, String encoding) {
+        final int level = Constants.Server.COMPRESSION_LEVEL;
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(Math.max(64, length / 4)); // 可根据实际情况调整
+        try {
+            if (GZIP.equals(encoding)) {
+                try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream) {
+                    {
+                        def.setLevel(level);
+                    }
+                }) {
+                    gzipOutputStream.write(bytes, 0, length);
+                }
+            } else {
+                final Deflater deflater = new Deflater(level);
+                try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(byteArrayOutputStream, deflater)) {
+                    deflaterOutputStream.write(bytes, 0, length);
+                } finally {
+                    deflater.end();
+                }
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出IOException
+            throw new UncheckedIOException(e);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+}
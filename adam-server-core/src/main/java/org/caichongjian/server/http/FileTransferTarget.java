@@ -0,0 +1,21 @@
+package org.caichongjian.server.http;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <p>支持零拷贝发送文件的输出流。</p>
+ * <p>Response发送较大的静态资源时，如果输出流实现了这个接口，就直接通过FileChannel.transferTo(Linux下是sendfile)把文件发送到socket，
+ * 文件内容不需要经过堆内存，由内核完成复制。</p>
+ */
+public interface FileTransferTarget {
+
+    /**
+     * 发送文件。调用前写入输出流的数据会先于文件发送出去
+     *
+     * @param file  文件
+     * @param count 需要发送的长度
+     * @throws IOException IO异常
+     */
+    void transferFile(Path file, long count) throws IOException;
+}
@@ -0,0 +1,140 @@
+package org.caichongjian.server.http;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HttpHeaders;
+import org.caichongjian.server.BufferPool;
+import org.caichongjian.server.Constants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * <p>拼接响应行和响应头用的缓冲区，底层的byte数组从BufferPool借，用完后调用release()还回去。</p>
+ * <p>以前拼接响应头要经过StringBuilder、String、byte[]三次分配，现在直接把字符写成字节。
+ * 响应头基本上都是ASCII字符，遇到非ASCII字符时才按默认字符集编码。</p>
+ * <p>常用的响应头名称(连同后面的": ")和常用的值预先编码好，拼接时直接复制字节。</p>
+ */
+final class HeaderBuffer {
+
+    private static final int INITIAL_SIZE = 512; // 可根据实际情况调整
+
+    private static final byte[] COLON_SPACE = {':', ' '};
+
+    /**
+     * 响应头名称 -> "名称: "，可根据实际情况增加
+     */
+    private static final Map<String, byte[]> HEADER_NAMES = encode(": ",
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_ENCODING, HttpHeaders.TRANSFER_ENCODING,
+            HttpHeaders.CONNECTION, HttpHeaders.SET_COOKIE, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED, HttpHeaders.VARY);
+
+    /**
+     * 常用的响应头值，可根据实际情况增加
+     */
+    private static final Map<String, byte[]> HEADER_VALUES = encode("",
+            Constants.ContentType.APPLICATION_JSON, Constants.ContentType.TEXT_HTML, Constants.ContentType.APPLICATION_OCTET_STREAM,
+            Constants.ContentType.APPLICATION_MSGPACK, "close", "keep-alive", "chunked", ContentEncodings.GZIP, ContentEncodings.DEFLATE,
+            HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING, Response.VARY_ACCEPT_AND_ENCODING);
+
+    private byte[] buffer = BufferPool.allocate(INITIAL_SIZE);
+    private int count;
+
+    HeaderBuffer append(String str) {
+        final int length = str.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            final char c = str.charAt(i);
+            if (c >= 0x80) {
+                // 有非ASCII字符时，剩下的部分按默认字符集编码
+                return append(str.substring(i).getBytes(Constants.Server.DEFAULT_CHARSET));
+            }
+            buffer[count++] = (byte) c;
+        }
+        return this;
+    }
+
+    HeaderBuffer append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+        return this;
+    }
+
+    /**
+     * 追加一个"名称: 值\r\n"形式的响应头，名称和值是常用的话直接复制预先编码好的字节
+     */
+    HeaderBuffer appendHeader(String name, String value) {
+        appendName(name);
+        final byte[] valueBytes = HEADER_VALUES.get(value);
+        if (valueBytes != null) {
+            append(valueBytes);
+        } else {
+            append(value);
+        }
+        return appendCrlf();
+    }
+
+    /**
+     * 追加一个"名称: 数字\r\n"形式的响应头，如Content-Length，数字直接写成字节，不需要先转成字符串
+     */
+    HeaderBuffer appendHeader(String name, long value) {
+        return appendName(name).append(value).appendCrlf();
+    }
+
+    /**
+     * 追加响应头的名称和后面的": "
+     */
+    HeaderBuffer appendName(String name) {
+        final byte[] nameBytes = HEADER_NAMES.get(name);
+        if (nameBytes != null) {
+            return append(nameBytes);
+        }
+        return append(name).append(COLON_SPACE);
+    }
+
+    HeaderBuffer append(long value) {
+        if (value < 0) {
+            return append(Long.toString(value));
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        long v = value;
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    HeaderBuffer appendCrlf() {
+        ensureCapacity(2);
+        buffer[count++] = '\r';
+        buffer[count++] = '\n';
+        return this;
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(buffer, 0, count);
+    }
+
+    void release() {
+        BufferPool.release(buffer);
+        buffer = null;
+    }
+
+    private static Map<String, byte[]> encode(String suffix, String... strings) {
+        return Stream.of(strings).collect(ImmutableMap.toImmutableMap(str -> str,
+                str -> (str + suffix).getBytes(Constants.Server.DEFAULT_CHARSET)));
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = BufferPool.grow(buffer, count, Math.max(buffer.length * 2, count + extra));
+        }
+    }
+}
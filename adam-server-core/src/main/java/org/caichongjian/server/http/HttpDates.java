@@ -0,0 +1,43 @@
+package org.caichongjian.server.http;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * HTTP请求头和响应头中日期(如Last-Modified、If-Modified-Since)的格式化和解析，格式样例为Sun, 06 Nov 1994 08:49:37 GMT
+ */
+final class HttpDates {
+
+    /**
+     * DateTimeFormatter.RFC_1123_DATE_TIME格式化时日期不补0，不完全符合HTTP-date的格式，所以格式化时用这个
+     */
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH)
+            .withZone(ZoneOffset.UTC);
+
+    private HttpDates() {
+    }
+
+    /**
+     * @param millis 时间戳，单位为毫秒
+     * @return HTTP-date格式的字符串
+     */
+    static String format(long millis) {
+        return FORMATTER.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * @param date HTTP-date格式的字符串
+     * @return 时间戳，单位为毫秒。格式不正确时返回-1
+     */
+    static long parse(String date) {
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
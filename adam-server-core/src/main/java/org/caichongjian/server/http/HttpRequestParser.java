@@ -0,0 +1,333 @@
+package org.caichongjian.server.http;
+
+import com.google.common.base.Preconditions;
+import org.caichongjian.server.Constants;
+
+import java.util.Arrays;
+
+/**
+ * <p>基于状态机的请求行和请求头解析器，按字节解析，支持分多次喂数据。</p>
+ * <p/>
+ * <p>以前的做法是每读一次数据就从头查找一遍\r\n\r\n，找到后把整个请求头转成String，再用lines()、split()、substring()拆开，
+ * 请求头越大(比如Cookie很长的时候)越慢。</p>
+ * <p>现在每个字节只看一次：数据没读完整时记住解析到了哪里，下次从这里接着解析。
+ * 解析过程中只记录method、uri、queryString、protocol和每个请求头的名称、值在buffer中的位置，
+ * 需要的时候才转成String，不会生成中间的大String。</p>
+ * <p/>
+ * <p>解析出来的位置都是相对于请求行开头的，buffer扩容或者挪动位置后，只要把新的buffer和请求行开头的位置传进来就可以接着用。</p>
+ */
+public class HttpRequestParser {
+
+    private static final int METHOD = 0;
+    private static final int URI = 1;
+    private static final int PROTOCOL = 2;
+    private static final int HEADER_LINE_START = 3;
+    private static final int HEADER_NAME = 4;
+    private static final int HEADER_VALUE_START = 5;
+    private static final int HEADER_VALUE = 6;
+    private static final int HEADERS_END = 7;
+    private static final int DONE = 8;
+
+    private static final String INVALID_REQUEST = "Invalid request.";
+
+    private byte[] buffer;
+    private int offset;
+
+    private int state = METHOD;
+    /**
+     * 下次从这里接着解析，相对于offset
+     */
+    private int position;
+
+    private int methodStart;
+    private int methodEnd;
+    private int uriEnd;
+    /**
+     * '?'在请求行中的位置，没有queryString时为-1
+     */
+    private int queryIndex = -1;
+    private int protocolStart = -1;
+    private int protocolEnd = -1;
+
+    /**
+     * 每个请求头占4个int：名称的起止位置、值的起止位置
+     */
+    private int[] headerSlices = new int[16 * 4]; // 可根据实际情况调整
+    private int headerCount;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+
+    /**
+     * 接着上次的位置解析buffer[offset, end)中的数据
+     *
+     * @param buffer 数据
+     * @param offset 请求行开头在buffer中的位置，同一个请求多次调用时，buffer中的数据挪动位置后需要传入新的位置
+     * @param end    数据的结束位置(不包含)
+     * @return 请求行和请求头是否已经完整
+     * @throws IllegalStateException 请求格式错误或者请求头太大
+     */
+    public boolean parse(byte[] buffer, int offset, int end) {
+        this.buffer = buffer;
+        this.offset = offset;
+        final int length = end - offset;
+        int i = position;
+        int currentState = state;
+        for (; i < length && currentState != DONE; i++) {
+            final byte b = buffer[offset + i];
+            switch (currentState) {
+                case METHOD:
+                    if (b == ' ') {
+                        methodEnd = i;
+                        currentState = URI;
+                    } else if ((b == '\r' || b == '\n') && i == methodStart) {
+                        methodStart++; // 请求行前面的空行忽略掉
+                    } else {
+                        Preconditions.checkState(b != '\r' && b != '\n', INVALID_REQUEST);
+                    }
+                    break;
+                case URI:
+                    if (b == ' ') {
+                        uriEnd = i;
+                        protocolStart = i + 1;
+                        currentState = PROTOCOL;
+                    } else if (b == '?') {
+                        if (queryIndex == -1) {
+                            queryIndex = i;
+                        }
+                    } else if (b == '\n') {
+                        // 没写protocol的请求行
+                        uriEnd = lineEnd(i, methodEnd + 1);
+                        currentState = HEADER_LINE_START;
+                    }
+                    break;
+                case PROTOCOL:
+                    if (b == '\n') {
+                        protocolEnd = lineEnd(i, protocolStart);
+                        currentState = HEADER_LINE_START;
+                    }
+                    break;
+                case HEADER_LINE_START:
+                    if (b == '\n') {
+                        currentState = DONE;
+                    } else if (b == '\r') {
+                        currentState = HEADERS_END;
+                    } else {
+                        Preconditions.checkState(b != ' ' && b != '\t' && b != ':', INVALID_REQUEST);
+                        nameStart = i;
+                        currentState = HEADER_NAME;
+                    }
+                    break;
+                case HEADER_NAME:
+                    if (b == ':') {
+                        nameEnd = i;
+                        valueStart = -1;
+                        currentState = HEADER_VALUE_START;
+                    } else {
+                        Preconditions.checkState(b != '\n', INVALID_REQUEST);
+                    }
+                    break;
+                case HEADER_VALUE_START:
+                    if (b == '\n') {
+                        addHeader(i, i);
+                        currentState = HEADER_LINE_START;
+                    } else if (b != ' ' && b != '\t' && b != '\r') {
+                        valueStart = i;
+                        valueEnd = i + 1;
+                        currentState = HEADER_VALUE;
+                    }
+                    break;
+                case HEADER_VALUE:
+                    if (b == '\n') {
+                        addHeader(valueStart, valueEnd);
+                        currentState = HEADER_LINE_START;
+                    } else if (b != ' ' && b != '\t' && b != '\r') {
+                        valueEnd = i + 1; // 顺便去掉了值后面的空白
+                    }
+                    break;
+                case HEADERS_END:
+                    Preconditions.checkState(b == '\n', INVALID_REQUEST);
+                    currentState = DONE;
+                    break;
+                default:
+                    break;
+            }
+        }
+        position = i;
+        state = currentState;
+        Preconditions.checkState(position <= Constants.Server.MAX_REQUEST_HEADER_SIZE, "Request header too large.");
+        return currentState == DONE;
+    }
+
+    /**
+     * 请求行和请求头已经挪到了另一个buffer中(比如NIO模式下复制出来交给线程池处理)
+     *
+     * @param buffer 新的buffer
+     * @param offset 请求行开头在新的buffer中的位置
+     */
+    public void rebase(byte[] buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    /**
+     * 把请求行和请求头复制到单独的数组中，之后原来的buffer被覆盖了也不影响getHeader()等方法
+     */
+    public void detach() {
+        rebase(Arrays.copyOfRange(buffer, offset, offset + position), 0);
+    }
+
+    /**
+     * 重置状态，用于解析KeepAlive连接上的下一个请求
+     */
+    public void reset() {
+        state = METHOD;
+        position = 0;
+        methodStart = methodEnd = uriEnd = 0;
+        queryIndex = protocolStart = protocolEnd = -1;
+        headerCount = 0;
+    }
+
+    /**
+     * @return 请求行和请求头(包括最后的空行)的长度，请求体从这里开始
+     */
+    public int getHeadLength() {
+        return position;
+    }
+
+    public String getMethod() {
+        return slice(methodStart, methodEnd);
+    }
+
+    /**
+     * @return 不包含queryString的uri
+     */
+    public String getRequestURI() {
+        return slice(methodEnd + 1, queryIndex == -1 ? uriEnd : queryIndex);
+    }
+
+    /**
+     * @return queryString，没有时返回null
+     */
+    public String getQueryString() {
+        return queryIndex == -1 ? null : slice(queryIndex + 1, uriEnd);
+    }
+
+    /**
+     * @return 请求行中的protocol，没写时返回null
+     */
+    public String getProtocol() {
+        return protocolEnd == -1 ? null : slice(protocolStart, protocolEnd);
+    }
+
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    public String getHeaderName(int index) {
+        return slice(headerSlices[index * 4], headerSlices[index * 4 + 1]);
+    }
+
+    public String getHeaderValue(int index) {
+        return slice(headerSlices[index * 4 + 2], headerSlices[index * 4 + 3]);
+    }
+
+    /**
+     * 直接在buffer中按字节查找请求头，名称不区分大小写，不需要先把所有请求头转成String
+     *
+     * @param name 请求头的名称，只能是ASCII字符
+     * @return 请求头的值，没有时返回null
+     */
+    public String getHeader(String name) {
+        final int index = indexOfHeader(name);
+        return index == -1 ? null : getHeaderValue(index);
+    }
+
+    /**
+     * @return 请求头中的Content-Length，没有时返回-1
+     * @throws IllegalStateException Content-Length格式错误
+     */
+    public long getContentLength() {
+        final int index = indexOfHeader("Content-Length");
+        if (index == -1) {
+            return -1;
+        }
+        final int start = headerSlices[index * 4 + 2];
+        final int end = headerSlices[index * 4 + 3];
+        Preconditions.checkState(start < end && end - start <= 18, INVALID_REQUEST);
+        long contentLength = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = buffer[offset + i];
+            Preconditions.checkState(b >= '0' && b <= '9', INVALID_REQUEST);
+            contentLength = contentLength * 10 + (b - '0');
+        }
+        return contentLength;
+    }
+
+    /**
+     * 请求体是否使用了chunked编码。Transfer-Encoding中最后一个编码必须是chunked，否则无法确定请求体的长度
+     *
+     * @return 有Transfer-Encoding请求头时返回true，此时忽略Content-Length
+     * @throws IllegalStateException Transfer-Encoding中最后一个编码不是chunked
+     */
+    public boolean isChunked() {
+        final String transferEncoding = getHeader("Transfer-Encoding");
+        if (transferEncoding == null) {
+            return false;
+        }
+        final int commaIndex = transferEncoding.lastIndexOf(',');
+        final String lastCoding = transferEncoding.substring(commaIndex + 1).trim();
+        Preconditions.checkState("chunked".equalsIgnoreCase(lastCoding), INVALID_REQUEST);
+        return true;
+    }
+
+    private int indexOfHeader(String name) {
+        for (int index = 0; index < headerCount; index++) {
+            final int start = headerSlices[index * 4];
+            final int end = headerSlices[index * 4 + 1];
+            if (end - start == name.length() && equalsIgnoreCase(start, name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equalsIgnoreCase(int start, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            final int b = buffer[offset + start + i];
+            final int c = name.charAt(i);
+            if (b != c) {
+                // 只有字母才忽略大小写
+                final int lowerCase = c | 0x20;
+                if (lowerCase < 'a' || lowerCase > 'z' || (b | 0x20) != lowerCase) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void addHeader(int start, int end) {
+        if ((headerCount + 1) * 4 > headerSlices.length) {
+            headerSlices = Arrays.copyOf(headerSlices, headerSlices.length * 2);
+        }
+        final int base = headerCount * 4;
+        headerSlices[base] = nameStart;
+        headerSlices[base + 1] = nameEnd;
+        headerSlices[base + 2] = start;
+        headerSlices[base + 3] = end;
+        headerCount++;
+    }
+
+    /**
+     * 在\n的位置计算这一行的结束位置，去掉\n前面的\r
+     */
+    private int lineEnd(int newlineIndex, int lineStart) {
+        return newlineIndex > lineStart && buffer[offset + newlineIndex - 1] == '\r' ? newlineIndex - 1 : newlineIndex;
+    }
+
+    private String slice(int start, int end) {
+        return new String(buffer, offset + start, end - start, Constants.Server.DEFAULT_CHARSET);
+    }
+}
@@ -0,0 +1,58 @@
+package org.caichongjian.server.http;
+
+import org.caichongjian.server.BufferPool;
+
+import java.io.OutputStream;
+
+/**
+ * <p>底层的byte数组从BufferPool借的ByteArrayOutputStream，用完后调用release()还回去。</p>
+ * <p>序列化JSON时直接写到这里，写完就知道Content-Length了，不需要先生成String再编码成byte[]。</p>
+ */
+final class PooledByteArrayOutputStream extends OutputStream {
+
+    private static final int MIN_SIZE = 256; // 可根据实际情况调整
+
+    /**
+     * 第一次写入时才借，fastjson一般一次就把整个JSON写进来，借到的数组刚好够用
+     */
+    private byte[] buffer;
+    private int count;
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * @return 底层的数组，有效的数据是[0, size())，release()之后不能再使用
+     */
+    byte[] array() {
+        return buffer == null ? new byte[0] : buffer;
+    }
+
+    int size() {
+        return count;
+    }
+
+    void release() {
+        BufferPool.release(buffer);
+        buffer = null;
+        count = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer == null) {
+            buffer = BufferPool.allocate(Math.max(MIN_SIZE, extra));
+        } else if (count + extra > buffer.length) {
+            buffer = BufferPool.grow(buffer, count, Math.max(buffer.length * 2, count + extra));
+        }
+    }
+}
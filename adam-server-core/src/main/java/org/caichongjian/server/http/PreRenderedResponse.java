@@ -0,0 +1,71 @@
+package org.caichongjian.server.http;
+
+/**
+ * <p>预先渲染好的完整响应，由ServerContext缓存，用于发送小的静态资源。</p>
+ * <p>响应行、Content-Type、Content-Length、ETag、Last-Modified和响应体保存在同一个byte数组中，
+ * 命中缓存时不需要再拼接响应头，大多数情况下直接write一次就发送完了。对应的304响应和gzip压缩后的响应也一起渲染好了。</p>
+ * <p>缓存中的响应不包含Connection、Set-Cookie等每个请求可能不一样的响应头，
+ * 需要时由Response插入到headersEnd的位置。</p>
+ */
+public final class PreRenderedResponse {
+
+    private final byte[] bytes;
+    /**
+     * 响应头结束处的空行(\r\n)在bytes中的位置，额外的响应头插入到这里
+     */
+    private final int headersEnd;
+    private final String etag;
+    private final long lastModified;
+    /**
+     * 客户端缓存仍然有效时发送的304响应，304响应本身的这个字段为null
+     */
+    private final PreRenderedResponse notModified;
+    /**
+     * gzip压缩后的响应，内容不值得压缩时为null
+     */
+    private final PreRenderedResponse gzipped;
+
+    PreRenderedResponse(byte[] bytes, int headersEnd, String etag, long lastModified,
+                        PreRenderedResponse notModified, PreRenderedResponse gzipped) {
+        this.bytes = bytes;
+        this.headersEnd = headersEnd;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.notModified = notModified;
+        this.gzipped = gzipped;
+    }
+
+    /**
+     * 注意：返回的是内部数组，多个线程共享，不能修改
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    int getHeadersEnd() {
+        return headersEnd;
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    PreRenderedResponse getNotModified() {
+        return notModified;
+    }
+
+    PreRenderedResponse getGzipped() {
+        return gzipped;
+    }
+
+    /**
+     * @return 占用的字节数，用于计算缓存的大小
+     */
+    public int size() {
+        return bytes.length + (notModified == null ? 0 : notModified.size()) + (gzipped == null ? 0 : gzipped.size());
+    }
+}
@@ -1,41 +1,65 @@
 package org.caichongjian.server.http;
 
-import com.alibaba.fastjson.JSON;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.net.HttpHeaders;
-import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.caichongjian.api.MiniHttpServletRequest;
 import org.caichongjian.server.Constants;
+import org.caichongjian.server.codec.BodyCodec;
+import org.caichongjian.server.codec.BodyCodecs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.servlet.http.Cookie;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.URLDecoder;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * <p>http请求</p>
+ * <p/>
+ * <p>请求行在parseRequestLineAndHeaders()中就转成了String，分发请求时要用。
+ * 请求头、Cookie、请求参数则保留在HttpRequestParser解析出的原始数据中，第一次调用getHeader()、getCookies()、
+ * getParameter()等方法时才解析，静态资源请求基本用不到这些，不需要为它们付出解析的开销。</p>
+ * <p>注意：原始数据保存在RequestStream的缓冲区中，交出请求体之前会被复制出来(读取请求体时缓冲区会被覆盖)，只在finishRequest()之前有效。</p>
+ */
 public class Request implements MiniHttpServletRequest {
 
     private final RequestStream requestStream;
-    private final Map<String, String> headers = new LinkedHashMap<>();
-    private final ListMultimap<String, String> parameters = ArrayListMultimap.create();
+    /**
+     * 请求行和请求头的原始数据，finishRequest()之后不能再使用
+     */
+    private HttpRequestParser head;
+    private Map<String, String> headers; // getHeaderNames()时才生成
+    private ListMultimap<String, String> parameters; // 第一次获取请求参数时才解析
+    private Map<String, String> pathVariables = Collections.emptyMap(); // 路由时从uri中取出的路径变量，已经解码了
     private String requestURI;
     private String method;
+    private String protocol;
     private Cookie[] cookies;
+    private boolean cookiesParsed;
     private String queryString;
-    private String requestBodyString; // 请求体里的字符串。传json参数全靠它了
+    private boolean queryStringParsed;
+    private long contentLength = -1;
+    private boolean chunked;
+    private String requestBodyString; // application/x-www-form-urlencoded请求体里的字符串。json请求体直接从输入流中反序列化，不再转成字符串
     private static final Logger LOGGER = LoggerFactory.getLogger(Request.class);
     private static final Splitter AMP_SPLITTER = Splitter.on("&").omitEmptyStrings();
+    private static final Splitter COMMA_SPLITTER = Splitter.on(",").trimResults().omitEmptyStrings();
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final String HTTP_1_1 = "HTTP/1.1";
 
     public Request(RequestStream requestStream) {
         this.requestStream = requestStream;
@@ -46,37 +70,30 @@ public class Request implements MiniHttpServletRequest {
      * 内部方法，在一次请求中只能调用一次，仅供adam-server-core内部调用
      */
     public void parseRequestLineAndHeaders() throws IOException {
-        String requestLineAndHeadersString = requestStream.readRequestLineAndHeaders();
+        final HttpRequestParser parser = requestStream.readRequestLineAndHeaders();
 
-        if (StringUtils.isBlank(requestLineAndHeadersString)) {
+        if (parser == null) {
             LOGGER.debug("empty request");
             return;
         }
 
-        // 解析method、requestURI、queryString，暂时不支持解析请求行的protocol
-        String firstLine = requestLineAndHeadersString.lines().findFirst().orElseThrow(); // 可以换成其他方式
-        String[] firstLineProperties = firstLine.split(" ");
-        method = firstLineProperties[0];
-        requestURI = firstLineProperties[1];
-        // TODO 在 adam-server 中出现了很多类似的用于轻量级拆分字符串的代码，可以将这些代码抽取出来。但在HTTP服务器代码中加个字符串工具类我又感觉有点奇怪，先做个标记吧。
-        int uriSplitIndex = requestURI.indexOf('?');
-        if (uriSplitIndex != -1) {
-            queryString = requestURI.substring(uriSplitIndex + 1);
-            requestURI = requestURI.substring(0, uriSplitIndex);
-        }
+        // 请求行和请求头已经由parser按字节解析好了，这里只需要把用得到的部分转成String
+        // 请求头、Cookie和请求参数用到的时候再解析
+        head = parser;
+        method = parser.getMethod();
+        requestURI = parser.getRequestURI();
+        protocol = ObjectUtils.defaultIfNull(parser.getProtocol(), HTTP_1_0); // 没写protocol的当作HTTP/1.0处理
+        // 请求体使用chunked编码时长度未知，Content-Length视为-1
+        chunked = requestStream.isChunked();
+        contentLength = chunked ? -1 : parser.getContentLength();
+    }
 
-        // 解析http请求的header
-        requestLineAndHeadersString.lines().skip(1)
-                .takeWhile(StringUtils::isNotBlank)
-                .forEachOrdered(line -> {
-                    int separationIndex = line.indexOf(": ");
-                    String propertyName = line.substring(0, separationIndex);
-                    String propertyValue = line.substring(separationIndex + 2);
-                    headers.put(propertyName, propertyValue);
-                });
-
-        // 解析http请求header中的Cookie
-        String cookieHeader = headers.get("Cookie");
+    /**
+     * 解析http请求header中的Cookie
+     */
+    private void parseCookies() {
+        cookiesParsed = true;
+        String cookieHeader = getHeader("Cookie");
         if (StringUtils.isNotBlank(cookieHeader)) {
 
             final List<Cookie> cookieList = Splitter.on(";").trimResults().splitToList(cookieHeader).stream()
@@ -88,34 +105,145 @@ public class Request implements MiniHttpServletRequest {
                     }).collect(Collectors.toList());
             cookies = Iterables.toArray(cookieList, Cookie.class);
         }
+    }
 
-        // 解析url的参数
-        Optional.ofNullable(queryString)
-                .map(str -> URLDecoder.decode(str, Constants.Server.DEFAULT_CHARSET))
-                .ifPresent(this::parseParameter);
+    /**
+     * 解析url的参数和application/x-www-form-urlencoded请求体里的参数
+     *
+     * @return 请求参数
+     */
+    private ListMultimap<String, String> parameters() {
+        if (parameters == null) {
+            parameters = ArrayListMultimap.create();
+            Optional.ofNullable(getQueryString())
+                    .map(str -> URLDecoder.decode(str, Constants.Server.DEFAULT_CHARSET))
+                    .ifPresent(this::parseParameter);
+            if (requestBodyString != null && contentTypeEquals(getContentType(), Constants.ContentType.APPLICATION_FORM_URLENCODED)) {
+                parseParameter(requestBodyString);
+            }
+        }
+        return parameters;
     }
 
     /**
-     * 解析请求体
+     * 解析请求体。只有application/x-www-form-urlencoded的请求体会在这里读出来解析成请求参数，
+     * 其他请求体留在输入流中，由getInputStream()或者getObjectFromBody()边读边处理
      * 内部方法，在一次请求中只能调用一次，仅供adam-server-core内部调用
      *
      * @throws IOException IOException
      */
     public void parseRequestBody() throws IOException {
 
-        int contentLength = getContentLength();
-        final String contentType = getContentType();
-        if (contentLength > 0 && shouldReadBodyAsString(contentType)) {
+        if (hasRequestBody() && contentTypeEquals(getContentType(), Constants.ContentType.APPLICATION_FORM_URLENCODED)) {
 
-            final byte[] bytes = requestStream.readRequestBody(contentLength);
             // java 11的new String()貌似会按照System.getProperty("file.encoding")指定的字符集来解码，在Ubuntu下直接使用new String(bytes)没有问题
             // Windows 10中文版System.getProperty("file.encoding")拿到的是GBK，客户端(浏览器)发送的请求是UTF-8，直接new String(bytes)会乱码
             // 考虑到字符集兼容性问题，将客户端(浏览器)请求、源代码文件、服务端响应的字符集统一成UTF-8
-            requestBodyString = new String(bytes, Constants.Server.DEFAULT_CHARSET);
-            if (contentTypeEquals(contentType, Constants.ContentType.APPLICATION_FORM_URLENCODED)) {
-                parseParameter(requestBodyString);
+            requestBodyString = requestStream.readRequestBody(Constants.Server.DEFAULT_CHARSET);
+            parameters = null; // 之前已经解析过url参数的话，重新解析一遍，把请求体里的参数也加进去
+        }
+    }
+
+    /**
+     * 结束当前请求，跳过没有读取的请求体，使得KeepAlive连接上的下一个请求能从正确的位置开始读取
+     * 内部方法，在一次请求中只能调用一次，仅供adam-server-core内部调用
+     *
+     * @throws IOException IOException
+     */
+    public void finishRequest() throws IOException {
+        head = null; // 跳过请求体时会覆盖缓冲区中的数据
+        requestStream.skipRequestBody();
+    }
+
+    /**
+     * 判断客户端是否希望保持连接。HTTP/1.1默认保持连接，除非请求头中有Connection: close；HTTP/1.0则需要请求头中有Connection: keep-alive
+     *
+     * @return 是否保持连接
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader(HttpHeaders.CONNECTION);
+        if (HTTP_1_1.equals(protocol)) {
+            return !StringUtils.containsIgnoreCase(connection, "close");
+        }
+        return StringUtils.containsIgnoreCase(connection, "keep-alive");
+    }
+
+    /**
+     * <p>判断客户端缓存的资源是否仍然有效，有效时可以直接响应304。</p>
+     * <p>只处理GET、HEAD请求。请求头中有If-None-Match时只比较ETag，忽略If-Modified-Since；
+     * 否则比较If-Modified-Since和资源的最后修改时间(精确到秒)。</p>
+     *
+     * @param etag         资源当前的ETag，没有时传null
+     * @param lastModified 资源的最后修改时间，单位为毫秒，未知时传0
+     * @return 客户端缓存的资源是否仍然有效
+     */
+    public boolean isNotModified(String etag, long lastModified) {
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+
+        final String ifNoneMatch = getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (etag == null) {
+                return false;
+            }
+            for (String tag : COMMA_SPLITTER.split(ifNoneMatch)) {
+                // GET、HEAD请求按弱比较处理，W/开头的也算匹配
+                if ("*".equals(tag) || StringUtils.removeStart(tag, "W/").equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final String ifModifiedSince = getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        if (ifModifiedSince == null || lastModified <= 0) {
+            return false;
+        }
+        final long since = HttpDates.parse(ifModifiedSince);
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * 根据请求头中的Accept-Encoding判断客户端是否接受某种压缩方式，q=0表示不接受
+     *
+     * @param encoding 压缩方式，如gzip、deflate
+     * @return 是否接受
+     */
+    public boolean acceptsEncoding(String encoding) {
+        final String acceptEncoding = getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        float wildcardQuality = 0;
+        for (String coding : COMMA_SPLITTER.split(acceptEncoding)) {
+            final int semicolonIndex = coding.indexOf(';');
+            final String name = semicolonIndex == -1 ? coding : coding.substring(0, semicolonIndex).trim();
+            final float quality = semicolonIndex == -1 ? 1 : parseQuality(coding.substring(semicolonIndex + 1));
+            if (name.equalsIgnoreCase(encoding)) {
+                return quality > 0;
+            }
+            if ("*".equals(name)) {
+                wildcardQuality = quality;
+            }
+        }
+        return wildcardQuality > 0;
+    }
+
+    /**
+     * 解析Accept-Encoding中的q值，格式样例为q=0.5，没有q值时为1
+     */
+    private static float parseQuality(String parameters) {
+        for (String parameter : Splitter.on(';').trimResults().split(parameters)) {
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
             }
         }
+        return 1;
     }
 
     /**
@@ -141,49 +269,46 @@ public class Request implements MiniHttpServletRequest {
      * <p>参数转换函数,用于将String类型的http请求参数转换成指定的类型</p>
      * <p>客户端(浏览器)传递的参数经过初次解析后是String类型，而controller参数列表中
      * 则可能是Integer, Long, BigDecimal类型，因此需要有个函数进行参数类型的转换</p>
-     * <p></p>
+     * <p>RestMethodInvoker启动时为每个参数选好转换函数，处理请求时直接调用，不需要每次都逐个判断类型。
+     * 内部方法，仅供adam-server-core内部调用</p>
      *
-     * @param str   String类型的http请求参数
      * @param clazz 需要转换成的类型,如Integer.class, Long.class等等
+     * @return 转换函数，不支持的类型转换结果为null
      */
-    @SuppressWarnings("unchecked")
-    private <T> T castParameterType(String str, Class<T> clazz) {
-        Object parameter = null;
+    public static Function<String, ?> parameterConverter(Class<?> clazz) {
         if (clazz == String.class) {
-            parameter = str;
+            return Function.identity();
         } else if (clazz == Integer.class || clazz == int.class) {
-            parameter = Integer.valueOf(str);
+            return Integer::valueOf;
         } else if (clazz == Long.class || clazz == long.class) {
-            parameter = Long.valueOf(str);
+            return Long::valueOf;
         } else if (clazz == Byte.class || clazz == byte.class) {
-            parameter = Byte.valueOf(str);
+            return Byte::valueOf;
         } else if (clazz == Boolean.class || clazz == boolean.class) {
-            parameter = Boolean.valueOf(str);
+            return Boolean::valueOf;
         } else if (clazz == Double.class || clazz == double.class) {
-            parameter = Double.valueOf(str);
+            return Double::valueOf;
         } else if (clazz == Float.class || clazz == float.class) {
-            parameter = Float.valueOf(str);
+            return Float::valueOf;
         } else if (clazz == Short.class || clazz == short.class) {
-            parameter = Short.valueOf(str);
+            return Short::valueOf;
         } else if (clazz == Character.class || clazz == char.class) {
-            parameter = str.charAt(0);
+            return str -> str.charAt(0);
         } else if (clazz == BigDecimal.class) {
-            parameter = new BigDecimal(str);
+            return BigDecimal::new;
         } else if (clazz == BigInteger.class) {
-            parameter = new BigInteger(str);
+            return BigInteger::new;
         }
-        return (T) parameter;
+        return str -> null;
     }
 
-    /**
-     * 判断是否需要以字符串读取请求体
-     *
-     * @param contentType 请求头的contentType
-     * @return 是否需要以字符串读取请求体
-     */
-    private boolean shouldReadBodyAsString(String contentType) {
-        return contentTypeEquals(contentType, Constants.ContentType.APPLICATION_FORM_URLENCODED) ||
-                contentTypeEquals(contentType, Constants.ContentType.APPLICATION_JSON);
+    @SuppressWarnings("unchecked")
+    private <T> T castParameterType(String str, Class<T> clazz) {
+        return (T) parameterConverter(clazz).apply(str);
+    }
+
+    private boolean hasRequestBody() {
+        return contentLength > 0 || chunked;
     }
 
     private boolean contentTypeEquals(String contentType, String expected) {
@@ -192,17 +317,26 @@ public class Request implements MiniHttpServletRequest {
 
     @Override
     public Cookie[] getCookies() {
+        if (!cookiesParsed) {
+            parseCookies();
+        }
         return cookies;
     }
 
     @Override
     public String getHeader(String name) {
-        // TODO 处理逻辑与另外两个地方不太一致。。。
-        return ObjectUtils.defaultIfNull(headers.get(name), headers.get(name.toLowerCase()));
+        // 直接在原始数据中按字节查找，名称不区分大小写
+        return head == null ? null : head.getHeader(name);
     }
 
     @Override
     public Enumeration<String> getHeaderNames() {
+        if (headers == null) {
+            headers = new LinkedHashMap<>();
+            for (int i = 0; head != null && i < head.getHeaderCount(); i++) {
+                headers.put(head.getHeaderName(i), head.getHeaderValue(i));
+            }
+        }
         return Collections.enumeration(headers.keySet());
     }
 
@@ -211,8 +345,16 @@ public class Request implements MiniHttpServletRequest {
         return method;
     }
 
+    public String getProtocol() {
+        return protocol;
+    }
+
     @Override
     public String getQueryString() {
+        if (!queryStringParsed && head != null) {
+            queryString = head.getQueryString();
+            queryStringParsed = true;
+        }
         return queryString;
     }
 
@@ -223,7 +365,7 @@ public class Request implements MiniHttpServletRequest {
 
     @Override
     public int getContentLength() {
-        return MapUtils.getIntValue(headers, HttpHeaders.CONTENT_LENGTH, -1);
+        return contentLength > Integer.MAX_VALUE ? -1 : (int) contentLength;
     }
 
     @Override
@@ -231,9 +373,25 @@ public class Request implements MiniHttpServletRequest {
         return getHeader(HttpHeaders.CONTENT_TYPE);
     }
 
+    @Override
+    public InputStream getInputStream() {
+        return requestStream.getRequestBody();
+    }
+
+    @Override
+    public Map<String, String> getTrailerFields() {
+        Preconditions.checkState(isTrailerFieldsReady(), "Request body has not been fully read.");
+        return new LinkedHashMap<>(requestStream.getTrailers());
+    }
+
+    @Override
+    public boolean isTrailerFieldsReady() {
+        return !chunked || requestStream.isRequestBodyFinished();
+    }
+
     @Override
     public String getParameter(String name) {
-        return Optional.ofNullable(parameters.get(name))
+        return Optional.ofNullable(parameters().get(name))
                 .flatMap(values -> values.stream().findFirst())
                 .orElse(null);
     }
@@ -256,12 +414,12 @@ public class Request implements MiniHttpServletRequest {
 
     @Override
     public Enumeration<String> getParameterNames() {
-        return Collections.enumeration(parameters.keySet());
+        return Collections.enumeration(parameters().keySet());
     }
 
     @Override
     public String[] getParameterValues(String name) {
-        return Optional.ofNullable(parameters.get(name))
+        return Optional.ofNullable(parameters().get(name))
                 .map(list -> Iterables.toArray(list, String.class))
                 .orElse(new String[0]);
     }
@@ -293,24 +451,60 @@ public class Request implements MiniHttpServletRequest {
     @Override
     public Map<String, String[]> getParameterMap() {
         Map<String, String[]> result = new HashMap<>();
-        parameters.asMap()
+        parameters().asMap()
                 .forEach((key, collection) -> result.put(key, Iterables.toArray(collection, String.class)));
         return result;
     }
 
     /**
-     * 获取请求体里的json格式(或者其他任意你喜欢的数据传输格式)传递的对象
+     * 设置路由时从uri中取出的路径变量
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @param pathVariables 变量名 -> 解码后的值
+     */
+    public void setPathVariables(Map<String, String> pathVariables) {
+        this.pathVariables = pathVariables;
+    }
+
+    /**
+     * 获取uri中的路径变量，如@MiniRequestMapping("/users/{id}")中的id
+     *
+     * @param name 路径变量的名称
+     * @return 路径变量的值，没有这个路径变量时返回null
+     */
+    public String getPathVariable(String name) {
+        return pathVariables.get(name);
+    }
+
+    /**
+     * 获取指定类型的路径变量
+     *
+     * @param name 路径变量的名称
+     * @param type 路径变量的类型,如Integer.class, Long.class等等
+     * @return 转换后的对象
+     */
+    public <T> T getPathVariable(String name, Class<T> type) {
+        String pathVariable = getPathVariable(name);
+        return pathVariable == null ? null : castParameterType(pathVariable, type);
+    }
+
+    /**
+     * 获取请求体里的json格式(或者其他任意你喜欢的数据传输格式)传递的对象，按Content-Type选择BodyCodec解码
      *
      * @param type 类对象
      * @param <T>  类型
      * @return 对象
+     * @throws IOException 读取请求体时出错
      */
-    public <T> T getObjectFromBody(Class<T> type) {
-        if (!contentTypeEquals(getContentType(), Constants.ContentType.APPLICATION_JSON)) {
+    public <T> T getObjectFromBody(Class<T> type) throws IOException {
+        if (!hasRequestBody()) {
             return null;
         }
-        return Optional.ofNullable(requestBodyString)
-                .map(s -> JSON.parseObject(s, type))  // 可以换成Jackson、Gson等任意一个你喜欢的类库或者自己实现一个其他格式的序列化类库
-                .orElse(null);
+        final BodyCodec codec = BodyCodecs.forContentType(getContentType());
+        if (codec == null) {
+            return null;
+        }
+        // 直接从输入流中解码，不需要先把整个请求体读到内存中
+        return codec.decode(getInputStream(), type);
     }
 }
@@ -1,11 +1,14 @@
 package org.caichongjian.server.http;
 
-import com.alibaba.fastjson.asm.ByteVector;
 import com.google.common.base.Preconditions;
+import org.caichongjian.server.BufferPool;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * <p>封装http请求的输入流</p>
@@ -19,121 +22,371 @@ public class RequestStream implements Closeable {
 
     private final InputStream socketInputStream;
 
-    public static final int BUFFER_SIZE = 128; // 开发时方便调试，可根据实际需要调整
+    public static final int BUFFER_SIZE = 2048; // 可根据实际需要调整
 
+    private final HttpRequestParser parser;
     /**
-     * 以byte数组存储的\r\n\r\n(两个连续的CRLF)
+     * NIO模式下请求头已经由NioEventLoop解析好了，不需要再解析一遍
      */
-    private static final byte[] DOUBLE_CRLF_AS_BYTE_ARRAY = new byte[]{'\r', '\n', '\r', '\n'};
+    private boolean headParsed;
+    /**
+     * NIO模式下整个请求都已经在buffer中了，读取请求体时不会再往buffer中填充数据
+     */
+    private final boolean requestInMemory;
+    /**
+     * 当前请求的请求头是否已经从buffer中复制出来了
+     */
+    private boolean headDetached;
 
     /**
-     * 读取请求行和请求头时，如果读取过量(将请求体的一小部分也从socketInputStream中读出来了)，将过量的部分缓存到这里
+     * 从socketInputStream中读取但还没使用的数据存放在buffer[start, end)中。
+     * 读取请求行和请求头时，可能会读取过量(将请求体甚至下一个请求的一部分也从socketInputStream中读出来了)，
+     * KeepAlive连接上的多个请求共用一个RequestStream，当前请求没用完的数据会留给下一个请求。
+     * buffer是从BufferPool借的，close()时还回去
      */
-    private byte[] bodyBuffer;
+    private byte[] buffer;
+    private int start;
+    private int end;
+
+    /**
+     * 当前请求的请求体还剩多少字节没有读取，请求体使用chunked编码时不使用这个字段
+     */
+    private long bodyRemaining;
+    /**
+     * 请求体使用chunked编码时的解码器，其他情况下为null
+     */
+    private ChunkedDecoder chunkedDecoder;
+    private final BodyInputStream bodyInputStream = new BodyInputStream();
 
     public RequestStream(InputStream socketInputStream) {
         this.socketInputStream = socketInputStream;
+        this.parser = new HttpRequestParser();
+        this.requestInMemory = false;
+        this.buffer = BufferPool.allocate(BUFFER_SIZE);
     }
 
     /**
-     * 从socketInputStream中读取请求行和请求头，并将它们作为字符串返回
+     * 用已经读取完整的请求创建RequestStream，NIO模式下使用
+     *
+     * @param requestBytes  完整的请求(请求行+请求头+请求体)，从BufferPool借的，close()时还回去
+     * @param requestLength 请求的长度
+     * @param parser        已经解析好的请求行和请求头
+     */
+    public RequestStream(byte[] requestBytes, int requestLength, HttpRequestParser parser) {
+        this.socketInputStream = InputStream.nullInputStream();
+        this.parser = parser;
+        this.headParsed = true;
+        this.requestInMemory = true;
+        this.buffer = requestBytes;
+        this.end = requestLength;
+    }
+
+    /**
+     * 从socketInputStream中读取并解析请求行和请求头。数据不完整时接着上次解析到的位置继续解析，每个字节只解析一次
      * 在一次请求中，此方法必须调用且仅能调用一次
      * 内部方法，仅供adam-server-core内部调用
      *
-     * @return 请求行和请求头
-     */
-    public String readRequestLineAndHeaders() throws IOException {
-
-        // 说明一下为何要将StringBuilder更换成ByteVector。原来那种基于StringBuilder的方案存在一个在某些特定情况下(也许可能大概好像是网络不稳定等情况，我在开发环境上是通过客户端sleep测出来的)解析请求头失败的bug，为了解决这个bug需要修改读取过量的处理逻辑，StringBuilder在这种场景下可以用但使用起来不是很方便，而使用ByteVector需要自己实现indexOf()方法(经JMeter测试吞吐量差不多)。
-        // TODO 我测试的客户端(浏览器)都是以两个连续的CRLF(\r\n)来分隔请求头和请求体，也许我没考虑周全？
-        // 读取请求行和请求头,如果读到\r\n\r\n说明请求头读取完毕，如果read()方法返回-1说明可能是读取完毕或者请求取消，否则一直读取直到读到\r\n\r\n为止
-        ByteVector byteVector = new ByteVector(BUFFER_SIZE); // 基于byte基本数据类型的可变长数组。可以换成其他类库中的asm.ByteVector，可以换成StringBuilder，也可以自己实现一个可变长数组。
-        byte[] lineAndHeadersBuffer = new byte[BUFFER_SIZE];
-        int headersEndIndex;
-        do {
-            int bytesRead = socketInputStream.read(lineAndHeadersBuffer, 0, BUFFER_SIZE);
+     * @return 解析好的请求行和请求头，在读取下一个请求之前有效。客户端关闭了连接或者请求头不完整时返回null
+     * @throws IllegalStateException 请求格式错误或者请求头太大
+     */
+    public HttpRequestParser readRequestLineAndHeaders() throws IOException {
+
+        headDetached = false;
+        if (headParsed) {
+            headParsed = false;
+            start = parser.getHeadLength();
+            startRequestBody();
+            return parser;
+        }
+
+        parser.reset();
+        while (!parser.parse(buffer, start, end)) {
+            if (end == buffer.length) {
+                if (start > 0) {
+                    // 前面的请求用过的部分没用了，挪一下位置
+                    end -= start;
+                    System.arraycopy(buffer, start, buffer, 0, end);
+                    start = 0;
+                } else {
+                    buffer = BufferPool.grow(buffer, end, buffer.length * 2); // 请求头的长度由parser限制
+                }
+            }
+            final int bytesRead = socketInputStream.read(buffer, end, buffer.length - end);
             if (bytesRead == -1) {
-                return "";  // 因各种原因(单线程打断点在某些情况下能重现)导致请求头不完整时，返回空字符串
+                return null;  // 因各种原因(单线程打断点在某些情况下能重现)导致请求头不完整，或者KeepAlive连接被客户端关闭时，返回null
             }
-            byteVector.putByteArray(lineAndHeadersBuffer, 0, bytesRead);  // 应该不会有人在请求头里直接放非ASCII字符吧？？？
-            headersEndIndex = strStr(byteVector, DOUBLE_CRLF_AS_BYTE_ARRAY); // 如果有需要的话可以修改BUFFER_SIZE，或者修改代码使得不用每次都判断整个完整的字符串。
-        } while (headersEndIndex == -1);
+            end += bytesRead;
+        }
+
+        // 存在请求体或者客户端连续发送了多个请求时会有读取过量的情况，剩下的数据留给请求体和下一个请求
+        consume(parser.getHeadLength());
+        startRequestBody();
+        return parser;
+    }
 
-        // 存在请求体时会有读取过量的情况，需要处理一下。
-        final int bodyBytesStartIndex = headersEndIndex + 4;
-        bodyBuffer = new byte[byteVector.length - bodyBytesStartIndex]; // 即使没读取过量也生成一个空数组，防空指针并提高代码可读性
-        System.arraycopy(byteVector.data, bodyBytesStartIndex, bodyBuffer, 0, bodyBuffer.length);  // 将byteVector中\r\n\r\n之后的数据复制到bodyBuffer中
+    private void startRequestBody() {
+        if (parser.isChunked()) {
+            chunkedDecoder = new ChunkedDecoder();
+            bodyRemaining = 0;
+        } else {
+            chunkedDecoder = null;
+            bodyRemaining = Math.max(0, parser.getContentLength());
+        }
+    }
 
-        // 返回请求行和请求头
-        return new String(byteVector.data, 0, headersEndIndex);
+    /**
+     * @return 请求体是否使用了chunked编码
+     */
+    public boolean isChunked() {
+        return chunkedDecoder != null;
+    }
+
+    /**
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @return chunked请求体后面的trailer，请求体读完之前或者没有trailer时返回空Map
+     */
+    public Map<String, String> getTrailers() {
+        return chunkedDecoder == null ? Collections.emptyMap() : chunkedDecoder.getTrailers();
+    }
+
+    /**
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @return 请求体是否已经读完了
+     */
+    public boolean isRequestBodyFinished() {
+        return chunkedDecoder == null ? bodyRemaining == 0 : chunkedDecoder.isDone();
+    }
+
+    /**
+     * 以InputStream的形式读取请求体，最多能读到Content-Length个字节。
+     * 先读取buffer中剩下的数据，再直接从socketInputStream中读取，不会把整个请求体放到内存中
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @return 请求体的输入流，同一个RequestStream上的各个请求共用一个对象，不需要关闭
+     */
+    public InputStream getRequestBody() {
+        detachHead();
+        return bodyInputStream;
+    }
+
+    /**
+     * 请求体用完buffer中的数据后，会从buffer的开头重新填充，覆盖掉请求行和请求头。
+     * 交出请求体之前先把请求头复制出来，读完请求体后仍然可以获取请求头、请求参数和Cookie
+     */
+    private void detachHead() {
+        if (!requestInMemory && !headDetached) {
+            headDetached = true;
+            parser.detach();
+        }
     }
 
     /**
-     * 从socketInputStream中读取请求体，并将其作为byte数组返回
+     * 从socketInputStream中读取剩余的请求体，并将其作为字符串返回
      * 在一次请求中，此方法仅能调用一次
      * 内部方法，仅供adam-server-core内部调用
      *
+     * @param charset 字符集
      * @return 请求体内容
      */
-    public byte[] readRequestBody(int contentLength) throws IOException {
+    public String readRequestBody(Charset charset) throws IOException {
 
-        final int lengthInBodyBuffer = bodyBuffer.length;
-        final int lengthInSocketStream = contentLength - lengthInBodyBuffer;
+        if (chunkedDecoder != null) {
+            // chunked编码的请求体长度未知，只能边解码边读
+            detachHead();
+            return new String(bodyInputStream.readAllBytes(), charset);
+        }
+        Preconditions.checkState(bodyRemaining <= Integer.MAX_VALUE, "Request body too large.");
+        final int contentLength = (int) bodyRemaining;
+        bodyRemaining = 0;
+
+        // 请求体已经全部读到buffer中了，直接转成字符串，不需要再复制一次
+        if (end - start >= contentLength) {
+            final String requestBody = new String(buffer, start, contentLength, charset);
+            consume(contentLength);
+            return requestBody;
+        }
 
-        Preconditions.checkState(lengthInSocketStream >= 0, "Invalid request.");
+        final byte[] requestContentBytes = BufferPool.allocate(contentLength);
+        try {
+            final int lengthInBuffer = end - start;
+            System.arraycopy(buffer, start, requestContentBytes, 0, lengthInBuffer);
+            consume(lengthInBuffer);
 
-        if (lengthInSocketStream == 0) {
-            return bodyBuffer;  // 不是很懂System.arraycopy()和new byte[contentLength]的性能开销。如果性能开销小可以为了代码可读性删除这一判断
+            // 从socketInputStream中读取剩余的请求体
+            final int lengthInSocketStream = contentLength - lengthInBuffer;
+            final int bytesRead = socketInputStream.readNBytes(requestContentBytes, lengthInBuffer, lengthInSocketStream);
+            Preconditions.checkState(bytesRead == lengthInSocketStream, "Invalid request.");
+            return new String(requestContentBytes, 0, contentLength, charset);
+        } finally {
+            BufferPool.release(requestContentBytes);
         }
+    }
+
+    /**
+     * 跳过没有读取的请求体，使得KeepAlive连接上的下一个请求能从正确的位置开始读取
+     * 内部方法，仅供adam-server-core内部调用
+     */
+    public void skipRequestBody() throws IOException {
 
-        // 从socketInputStream中读取剩余的请求体
-        final byte[] bytesInSocketStream = socketInputStream.readNBytes(lengthInSocketStream);
-        if (lengthInBodyBuffer == 0) {
-            return bytesInSocketStream;  // 不是很懂System.arraycopy()和new byte[contentLength]的性能开销。如果性能开销小可以为了代码可读性删除这一判断
+        if (chunkedDecoder != null) {
+            skipChunkedRequestBody();
+            return;
         }
+        final long contentLength = bodyRemaining;
+        bodyRemaining = 0;
+        final int lengthInBuffer = (int) Math.min(end - start, contentLength);
+        consume(lengthInBuffer);
 
-        // 将从socketInputStream中读取剩余的请求体与bodyBuffer拼到一起
-        byte[] requestContentBytes = new byte[contentLength];
-        System.arraycopy(bodyBuffer, 0, requestContentBytes, 0, lengthInBodyBuffer);
-        System.arraycopy(bytesInSocketStream, 0, requestContentBytes, lengthInBodyBuffer, lengthInSocketStream);
-        return requestContentBytes;
+        // buffer中的数据已经用完了，直接拿来当跳过请求体时的临时空间
+        long remaining = contentLength - lengthInBuffer;
+        while (remaining > 0) {
+            int bytesRead = socketInputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (bytesRead == -1) {
+                return;
+            }
+            remaining -= bytesRead;
+        }
     }
 
-    @Override
-    public void close() throws IOException {
-        socketInputStream.close();
+    private void skipChunkedRequestBody() throws IOException {
+        while (!chunkedDecoder.isDone()) {
+            if (start == end) {
+                final int bytesRead = socketInputStream.read(buffer, 0, buffer.length);
+                if (bytesRead == -1) {
+                    return;
+                }
+                end = bytesRead;
+            }
+            consume(chunkedDecoder.skip(buffer, start, end) - start);
+        }
     }
 
     /**
-     * <p>给定一个 haystack 字符串和一个 needle 字符串，在 haystack 字符串中找出 needle 字符串出现的第一个位置 (从0开始)。</p>
-     * <p>类似于String.indexOf()，因为这里的字符串是使用ByteVector类型存储的，没法直接使用String.indexOf()，所以自己实现了一个低配的方法。</p>
-     * <p>方法命名源自C/C++的strstr()函数，方法名称与说明参考了LeetCode的一道题目并使用了LeetCode上面的测试用例</p>
-     * <p/>
-     *
-     * <p>如果needle不是haystack的子串，返回-1</p>
-     * <p>如果needle是haystack的子串，返回其在haystack中第一次出现的位置</p>
-     * <p>空串是任何串的子串，且出现位置为0</p>
+     * 连接升级为WebSocket等其他协议后，读取请求头后面的原始数据。先返回buffer中剩下的数据，没有时再从socketInputStream中读取
+     * 内部方法，仅供adam-server-core内部调用
      *
-     * @param haystack ByteVector类型存储的字符串
-     * @param needle byte[]类型存储的字符串
-     */
-    private int strStr(ByteVector haystack, byte[] needle) {
-        int len2 = needle.length;
-        if (len2 == 0)
-            return 0;
-
-        // 判断needle是不是haystack的子串
-        byte[] haystackData = haystack.data;
-        int difference = haystack.length - len2;
-        for (int i = 0; i <= difference; i++) {
-            if (haystackData[i] == needle[0]) {
-                int j = 1;
-                for (; j < len2 && haystackData[i + j] == needle[j]; j++)
-                    ;
-                if (j == len2)
-                    return i;
+     * @return 读取的字节数，连接已关闭时返回-1
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (start < end) {
+            final int length = Math.min(len, end - start);
+            System.arraycopy(buffer, start, b, off, length);
+            consume(length);
+            return length;
+        }
+        return socketInputStream.read(b, off, len);
+    }
+
+    private void consume(int length) {
+        start += length;
+        if (start == end) {
+            start = end = 0;
+        }
+    }
+
+    /**
+     * 请求体的输入流，读到Content-Length个字节后返回-1
+     */
+    private final class BodyInputStream extends InputStream {
+
+        private final byte[] singleByte = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            if (chunkedDecoder != null) {
+                return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF;
+            }
+            if (bodyRemaining <= 0) {
+                return -1;
+            }
+            if (start == end) {
+                // 单个字节读取时先填充buffer，多读出来的部分(甚至下一个请求)留在buffer中
+                final int bytesRead = socketInputStream.read(buffer, 0, buffer.length);
+                Preconditions.checkState(bytesRead != -1, "Invalid request.");
+                end = bytesRead;
+            }
+            bodyRemaining--;
+            final int b = buffer[start] & 0xFF;
+            consume(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (chunkedDecoder != null) {
+                return readChunked(b, off, len);
+            }
+            if (bodyRemaining <= 0) {
+                return -1;
             }
+            final int length = (int) Math.min(len, bodyRemaining);
+            int bytesRead;
+            if (start < end) {
+                bytesRead = Math.min(length, end - start);
+                System.arraycopy(buffer, start, b, off, bytesRead);
+                consume(bytesRead);
+            } else {
+                // buffer中没有数据时直接读到调用方的数组中，不经过buffer
+                bytesRead = socketInputStream.read(b, off, length);
+                Preconditions.checkState(bytesRead != -1, "Invalid request.");
+            }
+            bodyRemaining -= bytesRead;
+            return bytesRead;
+        }
+
+        /**
+         * 解码chunked编码的请求体：长度行等由chunkedDecoder解析，chunk中的数据直接复制到b中
+         */
+        private int readChunked(byte[] b, int off, int len) throws IOException {
+            while (true) {
+                if (start < end) {
+                    consume(chunkedDecoder.decode(buffer, start, end) - start);
+                }
+                if (chunkedDecoder.isDone()) {
+                    return -1;
+                }
+                final long chunkRemaining = chunkedDecoder.getChunkRemaining();
+                if (chunkRemaining > 0 && start < end) {
+                    final int length = (int) Math.min(Math.min(len, chunkRemaining), end - start);
+                    System.arraycopy(buffer, start, b, off, length);
+                    consume(length);
+                    chunkedDecoder.consumeData(length);
+                    return length;
+                }
+                if (start == end) {
+                    int bytesRead;
+                    if (chunkRemaining > 0) {
+                        // chunk中的数据直接读到调用方的数组中，不经过buffer
+                        bytesRead = socketInputStream.read(b, off, (int) Math.min(len, chunkRemaining));
+                        Preconditions.checkState(bytesRead != -1, "Invalid request.");
+                        chunkedDecoder.consumeData(bytesRead);
+                        return bytesRead;
+                    }
+                    bytesRead = socketInputStream.read(buffer, 0, buffer.length);
+                    Preconditions.checkState(bytesRead != -1, "Invalid request.");
+                    end = bytesRead;
+                }
+            }
+        }
+
+        @Override
+        public int available() {
+            if (chunkedDecoder != null) {
+                return (int) Math.min(end - start, chunkedDecoder.getChunkRemaining());
+            }
+            return (int) Math.min(end - start, bodyRemaining);
         }
-        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        BufferPool.release(buffer);
+        buffer = null;
+        socketInputStream.close();
     }
 }
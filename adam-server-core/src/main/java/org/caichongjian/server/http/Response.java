@@ -1,17 +1,23 @@
 package org.caichongjian.server.http;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import com.google.common.net.HttpHeaders;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.caichongjian.api.MiniHttpServletResponse;
 import org.caichongjian.server.ServerContext;
+import org.caichongjian.server.StaticResource;
 import org.caichongjian.server.Constants;
+import org.caichongjian.server.codec.BodyCodec;
+import org.caichongjian.server.codec.BodyCodecs;
 
 import jakarta.servlet.http.Cookie;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.*;
 
 public class Response implements MiniHttpServletResponse {
@@ -20,23 +26,62 @@ public class Response implements MiniHttpServletResponse {
     private final Map<String, String> headers = new LinkedHashMap<>();
     private final List<Cookie> cookies = new LinkedList<>();
     private ResponseLine responseLine = ResponseLine.OK;
+    /**
+     * 服务器自己设置的Content-Length，拼接响应头时直接把数字写成字节，-1表示没有设置
+     */
+    private long contentLength = -1;
+    /**
+     * 客户端是否支持HTTP/1.1，支持时流式输出的响应体才能使用chunked编码
+     */
+    private boolean http11;
+    /**
+     * 流式输出响应体时使用，controller调用getOutputStream()或getWriter()时才创建
+     */
+    private ResponseOutputStream bodyStream;
+    private PrintWriter writer;
+    private boolean committed;
 
     private enum ResponseLine {
         // 可以根据自己的喜好增加500、302等等
+        SWITCHING_PROTOCOLS("HTTP/1.1 101 SWITCHING PROTOCOLS"),
         OK("HTTP/1.1 200 OK"), // 这里的HTTP/1.1可以改成HTTP/1.0或者HTTP/2.0或者其他版本
-        NOT_FOUND("HTTP/1.1 404 NOT FOUND");
+        NOT_MODIFIED("HTTP/1.1 304 NOT MODIFIED"),
+        BAD_REQUEST("HTTP/1.1 400 BAD REQUEST"),
+        NOT_FOUND("HTTP/1.1 404 NOT FOUND"),
+        METHOD_NOT_ALLOWED("HTTP/1.1 405 METHOD NOT ALLOWED"),
+        PAYLOAD_TOO_LARGE("HTTP/1.1 413 PAYLOAD TOO LARGE"),
+        SERVICE_UNAVAILABLE("HTTP/1.1 503 SERVICE UNAVAILABLE");
         private final String text;
+        /**
+         * 预先编码好的响应行(包括后面的\r\n)，发送时直接复制
+         */
+        private final byte[] bytes;
 
         ResponseLine(String text) {
             this.text = text;
+            this.bytes = (text + "\r\n").getBytes(Constants.Server.DEFAULT_CHARSET);
         }
 
         public String getText() {
             return text;
         }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
     }
 
     public static final String NOT_FOUND_TEMPLATE = "<h1>Not found.</h1>"; // 可以根据自己的喜好修改相关代码，定制404页面
+    public static final String BAD_REQUEST_TEMPLATE = "<h1>Bad request.</h1>";
+    public static final String METHOD_NOT_ALLOWED_TEMPLATE = "<h1>Method not allowed.</h1>";
+    public static final String PAYLOAD_TOO_LARGE_TEMPLATE = "<h1>Payload too large.</h1>";
+    public static final String SERVICE_UNAVAILABLE_TEMPLATE = "<h1>Service unavailable.</h1>";
+    static final String VARY_ACCEPT_AND_ENCODING = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+    private static final byte[] NOT_FOUND_BYTES = NOT_FOUND_TEMPLATE.getBytes(Constants.Server.DEFAULT_CHARSET);
+    private static final byte[] BAD_REQUEST_BYTES = BAD_REQUEST_TEMPLATE.getBytes(Constants.Server.DEFAULT_CHARSET);
+    private static final byte[] METHOD_NOT_ALLOWED_BYTES = METHOD_NOT_ALLOWED_TEMPLATE.getBytes(Constants.Server.DEFAULT_CHARSET);
+    private static final byte[] PAYLOAD_TOO_LARGE_BYTES = PAYLOAD_TOO_LARGE_TEMPLATE.getBytes(Constants.Server.DEFAULT_CHARSET);
+    private static final byte[] SERVICE_UNAVAILABLE_BYTES = SERVICE_UNAVAILABLE_TEMPLATE.getBytes(Constants.Server.DEFAULT_CHARSET);
 
     public Response(OutputStream outputStream) {
         this.outputStream = outputStream;
@@ -65,63 +110,492 @@ public class Response implements MiniHttpServletResponse {
     public void sendDynamicResource(byte[] responseBody, String contentType) throws IOException {
 
         setContentType(contentType);
-        setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(responseBody.length));
+        contentLength = responseBody.length;
 
-        String responseLineAndHeader = responseLineAndHeadersToString();
-        outputStream.write(stringToBytes(responseLineAndHeader)); // 响应头指定UTF-8是否有必要?
+        writeResponseLineAndHeaders(); // 响应头指定UTF-8是否有必要?
         outputStream.write(responseBody);
     }
 
     /**
-     * 发送静态资源到浏览器
+     * 发送动态资源到浏览器，响应体是responseBody的前length个字节
+     */
+    private void sendDynamicResource(byte[] responseBody, int length, String contentType) throws IOException {
+
+        setContentType(contentType);
+        contentLength = length;
+
+        writeResponseLineAndHeaders();
+        outputStream.write(responseBody, 0, length);
+    }
+
+    /**
+     * 将controller的返回值按请求的Accept选择BodyCodec编码后发送到浏览器，默认是JSON。
+     * 响应体不小于Constants.Server.COMPRESSION_MIN_SIZE并且值得压缩、客户端支持时，按gzip或deflate压缩后发送
+     * <p>编码时直接写成字节放到从BufferPool借的数组中，不需要先生成String再编码一次</p>
+     *
+     * @param returnValue controller的返回值
+     * @param request     请求，用于获取Accept、Accept-Encoding、If-None-Match
+     * @param etag        是否根据编码后的响应体计算ETag。开启后客户端缓存的响应体仍然有效时只发送304
+     * @throws IOException IO异常
+     */
+    public void sendReturnValue(Object returnValue, Request request, boolean etag) throws IOException {
+        final BodyCodec codec = BodyCodecs.forAccept(request.getHeader(HttpHeaders.ACCEPT));
+        final PooledByteArrayOutputStream responseBody = new PooledByteArrayOutputStream();
+        try {
+            codec.encode(returnValue, responseBody);
+            sendEncodedResource(responseBody.array(), responseBody.size(), codec.getContentType(), request, etag);
+        } finally {
+            responseBody.release();
+        }
+    }
+
+    /**
+     * 发送已经编码好的响应体，压缩和ETag的处理和sendReturnValue()一样。@MiniCacheable命中缓存时直接调用这个方法
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @param responseBody 编码好的响应体，只读取不修改
+     * @param length       响应体的长度
+     * @param contentType  编码时使用的BodyCodec的Content-Type
+     * @param request      请求，用于获取Accept-Encoding、If-None-Match
+     * @param etag         是否根据响应体计算ETag
+     * @throws IOException IO异常
+     */
+    public void sendEncodedResource(byte[] responseBody, int length, String contentType, Request request, boolean etag) throws IOException {
+        final boolean compressible = length >= Constants.Server.COMPRESSION_MIN_SIZE && Constants.Server.COMPRESSION_LEVEL > 0
+                && ContentEncodings.isCompressible(contentType);
+        // 响应体的格式由Accept决定，代理服务器缓存时需要区分
+        setHeader(HttpHeaders.VARY, compressible ? VARY_ACCEPT_AND_ENCODING : HttpHeaders.ACCEPT);
+        String contentEncoding = null;
+        if (compressible) {
+            if (request.acceptsEncoding(ContentEncodings.GZIP)) {
+                contentEncoding = ContentEncodings.GZIP;
+            } else if (request.acceptsEncoding(ContentEncodings.DEFLATE)) {
+                contentEncoding = ContentEncodings.DEFLATE;
+            }
+        }
+
+        if (etag) {
+            // 先比较ETag再压缩，304时不需要压缩
+            final String etagValue = computeETag(responseBody, length, contentEncoding);
+            setHeader(HttpHeaders.ETAG, etagValue);
+            if (request.isNotModified(etagValue, 0)) {
+                sendNotModified();
+                return;
+            }
+        }
+
+        if (contentEncoding == null) {
+            sendDynamicResource(responseBody, length, contentType);
+            return;
+        }
+        setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        sendDynamicResource(ContentEncodings.compress(responseBody, length, contentEncoding), contentType);
+    }
+
+    /**
+     * <p>发送静态资源到浏览器。响应头中带上ETag和Last-Modified，客户端缓存的静态资源仍然有效时只发送304。</p>
+     * <p>客户端支持gzip时，优先发送static目录中预先压缩好的同名.gz文件，没有的话小文件压缩一次后和原文件一起缓存。</p>
+     *
+     * @param request 请求
+     * @throws IOException IO异常
+     */
+    public void sendStaticResource(Request request) throws IOException {
+
+        final String requestURI = request.getRequestURI();
+        final String uri = (StringUtils.isBlank(requestURI) || "/".equals(requestURI)) ? "/index.html" : requestURI;
+
+        final ServerContext serverContext = ServerContext.getInstance();
+        PreRenderedResponse preRenderedResponse = serverContext.getCachedStaticResponse(uri);
+        if (preRenderedResponse == null) {
+            final StaticResource staticResource = serverContext.getStaticResource(uri);
+            if (staticResource == null) {
+                responseLine = ResponseLine.NOT_FOUND;
+                sendDynamicResource(NOT_FOUND_BYTES, Constants.ContentType.TEXT_HTML);
+                return;
+            }
+
+            final String contentType = serverContext.getContentType(uri);
+            final long length = staticResource.getLength();
+            if (length >= Constants.Server.STATIC_RESOURCE_TRANSFER_THRESHOLD) {
+                sendLargeStaticResource(request, uri, staticResource, contentType);
+                return;
+            }
+
+            // 小文件直接读到内存中，连同响应头一起渲染好放到缓存里(长度未知的也只能这样了)
+            final byte[] responseBody = staticResource.readAllBytes();
+            final byte[] gzippedBody = gzipStaticResource(uri, contentType, responseBody);
+            preRenderedResponse = preRender(responseBody, gzippedBody, contentType, staticResource.getLastModified());
+            if (responseBody.length < Constants.Server.STATIC_RESOURCE_TRANSFER_THRESHOLD) {
+                serverContext.cacheStaticResponse(uri, preRenderedResponse);
+            }
+        }
+
+        if (preRenderedResponse.getGzipped() != null && request.acceptsEncoding(ContentEncodings.GZIP)) {
+            preRenderedResponse = preRenderedResponse.getGzipped();
+        }
+        if (request.isNotModified(preRenderedResponse.getEtag(), preRenderedResponse.getLastModified())) {
+            preRenderedResponse = preRenderedResponse.getNotModified();
+        }
+        sendPreRenderedResponse(preRenderedResponse);
+    }
+
+    /**
+     * 获取小的静态资源gzip压缩后的内容。有预先压缩好的同名.gz文件时直接使用，没有的话现场压缩
+     *
+     * @return gzip压缩后的内容，不值得压缩时返回null
+     */
+    private byte[] gzipStaticResource(String uri, String contentType, byte[] responseBody) throws IOException {
+        if (!ContentEncodings.isCompressible(contentType)) {
+            return null;
+        }
+        final StaticResource precompressed = ServerContext.getInstance().getStaticResource(uri + ".gz");
+        if (precompressed != null) {
+            return precompressed.readAllBytes();
+        }
+        if (responseBody.length < Constants.Server.COMPRESSION_MIN_SIZE || Constants.Server.COMPRESSION_LEVEL <= 0) {
+            return null;
+        }
+        final byte[] gzippedBody = ContentEncodings.compress(responseBody, ContentEncodings.GZIP);
+        return gzippedBody.length < responseBody.length ? gzippedBody : null;
+    }
+
+    /**
+     * 大文件直接从磁盘发送，堆内存的占用不会随着文件大小增长。大文件不现场压缩，只发送预先压缩好的同名.gz文件。
+     * 大文件不计算内容的hash，参考nginx使用"最后修改时间-长度"作为ETag
+     */
+    private void sendLargeStaticResource(Request request, String uri, StaticResource staticResource, String contentType) throws IOException {
+
+        StaticResource resource = staticResource;
+        String contentEncoding = null;
+        if (ContentEncodings.isCompressible(contentType)) {
+            final StaticResource precompressed = ServerContext.getInstance().getStaticResource(uri + ".gz");
+            if (precompressed != null) {
+                setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                if (request.acceptsEncoding(ContentEncodings.GZIP)) {
+                    resource = precompressed;
+                    contentEncoding = ContentEncodings.GZIP;
+                }
+            }
+        }
+
+        final long length = resource.getLength();
+        final long lastModified = resource.getLastModified();
+        final String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+        setHeader(HttpHeaders.ETAG, etag);
+        if (lastModified > 0) {
+            setHeader(HttpHeaders.LAST_MODIFIED, HttpDates.format(lastModified));
+        }
+        if (request.isNotModified(etag, lastModified)) {
+            sendNotModified();
+            return;
+        }
+
+        setContentType(contentType);
+        if (contentEncoding != null) {
+            setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        contentLength = length;
+        writeResponseLineAndHeaders();
+        if (resource.isFile() && outputStream instanceof FileTransferTarget) {
+            ((FileTransferTarget) outputStream).transferFile(resource.getFile(), length);
+        } else {
+            try (InputStream inputStream = resource.openStream()) {
+                inputStream.transferTo(outputStream);
+            }
+        }
+    }
+
+    /**
+     * 发送没有响应体的304响应，调用前需要先设置好ETag等响应头
+     *
+     * @throws IOException IO异常
+     */
+    private void sendNotModified() throws IOException {
+        responseLine = ResponseLine.NOT_MODIFIED;
+        writeResponseLineAndHeaders();
+    }
+
+    /**
+     * 将静态资源连同响应行、Content-Type、Content-Length、ETag、Last-Modified渲染成一个完整的响应，
+     * 对应的304响应和gzip压缩后的响应也一起渲染好
+     *
+     * @param responseBody 响应体
+     * @param gzippedBody  gzip压缩后的响应体，不值得压缩时为null
+     * @param contentType  内容类型
+     * @param lastModified 最后修改时间，未知时为0
+     * @return 预先渲染好的响应
+     */
+    private PreRenderedResponse preRender(byte[] responseBody, byte[] gzippedBody, String contentType, long lastModified) {
+        // 有压缩后的版本时，两个版本的响应都要带上Vary，避免代理服务器把压缩后的内容发给不支持gzip的客户端
+        final String vary = gzippedBody == null ? "" : HttpHeaders.VARY + ": " + HttpHeaders.ACCEPT_ENCODING + "\r\n";
+        final PreRenderedResponse gzipped = gzippedBody == null ? null
+                : preRender(gzippedBody, ContentEncodings.GZIP, computeETag(responseBody, ContentEncodings.GZIP), contentType, lastModified, vary, null);
+        return preRender(responseBody, null, computeETag(responseBody, null), contentType, lastModified, vary, gzipped);
+    }
+
+    private PreRenderedResponse preRender(byte[] responseBody, String contentEncoding, String etag, String contentType,
+                                          long lastModified, String vary, PreRenderedResponse gzipped) {
+        String validators = vary + HttpHeaders.ETAG + ": " + etag + "\r\n";
+        if (lastModified > 0) {
+            validators += HttpHeaders.LAST_MODIFIED + ": " + HttpDates.format(lastModified) + "\r\n";
+        }
+        final String head = ResponseLine.OK.getText() + "\r\n"
+                + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                + (contentEncoding == null ? "" : HttpHeaders.CONTENT_ENCODING + ": " + contentEncoding + "\r\n")
+                + HttpHeaders.CONTENT_LENGTH + ": " + responseBody.length + "\r\n"
+                + validators;
+        final PreRenderedResponse notModified = preRender(ResponseLine.NOT_MODIFIED.getText() + "\r\n" + validators,
+                new byte[0], etag, lastModified, null, null);
+        return preRender(head, responseBody, etag, lastModified, notModified, gzipped);
+    }
+
+    private PreRenderedResponse preRender(String head, byte[] responseBody, String etag, long lastModified,
+                                          PreRenderedResponse notModified, PreRenderedResponse gzipped) {
+        final byte[] headBytes = stringToBytes(head);
+        final byte[] bytes = new byte[headBytes.length + 2 + responseBody.length];
+        System.arraycopy(headBytes, 0, bytes, 0, headBytes.length);
+        bytes[headBytes.length] = '\r';
+        bytes[headBytes.length + 1] = '\n';
+        System.arraycopy(responseBody, 0, bytes, headBytes.length + 2, responseBody.length);
+        return new PreRenderedResponse(bytes, headBytes.length, etag, lastModified, notModified, gzipped);
+    }
+
+    /**
+     * 根据响应体的内容计算强ETag，内容不变ETag就不变。压缩后的内容与原内容是不同的表示，ETag后面加上压缩方式加以区分
+     *
+     * @param responseBody    压缩前的响应体
+     * @param contentEncoding 压缩方式，不压缩时为null
+     */
+    private static String computeETag(byte[] responseBody, String contentEncoding) {
+        return computeETag(responseBody, responseBody.length, contentEncoding);
+    }
+
+    private static String computeETag(byte[] responseBody, int length, String contentEncoding) {
+        final String hash = Hashing.murmur3_128().hashBytes(responseBody, 0, length).toString();
+        return "\"" + (contentEncoding == null ? hash : hash + "-" + contentEncoding) + "\"";
+    }
+
+    /**
+     * 发送预先渲染好的响应。没有额外的响应头时(如HTTP/1.1的KeepAlive请求)只需要write一次
+     *
+     * @param preRenderedResponse 预先渲染好的响应
+     * @throws IOException IO异常
+     */
+    private void sendPreRenderedResponse(PreRenderedResponse preRenderedResponse) throws IOException {
+        final byte[] bytes = preRenderedResponse.getBytes();
+        if (headers.isEmpty() && cookies.isEmpty()) {
+            outputStream.write(bytes);
+            return;
+        }
+        // 有额外的响应头(如Connection: close)时，插入到响应头结束处的空行之前
+        final int headersEnd = preRenderedResponse.getHeadersEnd();
+        final HeaderBuffer headerBuffer = new HeaderBuffer();
+        try {
+            appendHeaders(headerBuffer);
+            outputStream.write(bytes, 0, headersEnd);
+            headerBuffer.writeTo(outputStream);
+            outputStream.write(bytes, headersEnd, bytes.length - headersEnd);
+        } finally {
+            headerBuffer.release();
+        }
+    }
+
+    /**
+     * uri匹配到了rest方法，但是请求方式不对时，发送405到浏览器并通过Allow告知浏览器支持哪些请求方式
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @param allowedMethods 这个uri支持的请求方式
+     * @throws IOException IO异常
+     */
+    public void sendMethodNotAllowed(Collection<String> allowedMethods) throws IOException {
+        responseLine = ResponseLine.METHOD_NOT_ALLOWED;
+        setHeader(HttpHeaders.ALLOW, String.join(", ", allowedMethods));
+        sendDynamicResource(METHOD_NOT_ALLOWED_BYTES, Constants.ContentType.TEXT_HTML);
+    }
+
+    /**
+     * 请求不合法(如WebSocket握手请求缺少必要的请求头)时，发送400到浏览器并告知浏览器将要关闭连接
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @throws IOException IO异常
+     */
+    public void sendBadRequest() throws IOException {
+        responseLine = ResponseLine.BAD_REQUEST;
+        setHeader(HttpHeaders.CONNECTION, "close");
+        sendDynamicResource(BAD_REQUEST_BYTES, Constants.ContentType.TEXT_HTML);
+    }
+
+    /**
+     * 同意切换协议(如WebSocket握手成功)时，只发送101的响应行和响应头，Upgrade等响应头由调用方设置。之后这个连接不再是HTTP连接了
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @throws IOException IO异常
+     */
+    public void sendSwitchingProtocols() throws IOException {
+        responseLine = ResponseLine.SWITCHING_PROTOCOLS;
+        writeResponseLineAndHeaders();
+    }
+
+    /**
+     * 请求体太大时，发送413到浏览器并告知浏览器将要关闭连接。请求体没有读完，连接不能再用了
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @throws IOException IO异常
+     */
+    public void sendPayloadTooLarge() throws IOException {
+        responseLine = ResponseLine.PAYLOAD_TOO_LARGE;
+        setHeader(HttpHeaders.CONNECTION, "close");
+        sendDynamicResource(PAYLOAD_TOO_LARGE_BYTES, Constants.ContentType.TEXT_HTML);
+    }
+
+    /**
+     * 服务器太忙(排队的工作太多)时，发送503到浏览器并告知浏览器将要关闭连接
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @throws IOException IO异常
+     */
+    public void sendServiceUnavailable() throws IOException {
+        responseLine = ResponseLine.SERVICE_UNAVAILABLE;
+        setHeader(HttpHeaders.CONNECTION, "close");
+        sendDynamicResource(SERVICE_UNAVAILABLE_BYTES, Constants.ContentType.TEXT_HTML);
+    }
+
+    /**
+     * 根据是否保持连接设置响应头中的Connection。只在与请求的protocol的默认行为不一致时才设置，HTTP/1.1保持连接时不需要设置
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @param keepAlive 处理完这个请求后是否保持连接
+     * @param protocol  请求行中的protocol，如HTTP/1.1
+     */
+    public void setKeepAlive(boolean keepAlive, String protocol) {
+        http11 = Request.HTTP_1_1.equals(protocol);
+        if (!keepAlive && http11) {
+            setHeader(HttpHeaders.CONNECTION, "close");
+        } else if (keepAlive && !http11) {
+            setHeader(HttpHeaders.CONNECTION, "keep-alive");
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        Preconditions.checkState(writer == null, "getWriter() has already been called.");
+        if (bodyStream == null) {
+            bodyStream = new ResponseOutputStream(this, outputStream, http11);
+        }
+        return bodyStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        if (writer == null) {
+            Preconditions.checkState(bodyStream == null, "getOutputStream() has already been called.");
+            bodyStream = new ResponseOutputStream(this, outputStream, http11);
+            writer = new PrintWriter(new OutputStreamWriter(bodyStream, Constants.Server.DEFAULT_CHARSET));
+        }
+        return writer;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @return controller是否通过getOutputStream()或getWriter()自己输出了响应体
+     */
+    public boolean isStreaming() {
+        return bodyStream != null;
+    }
+
+    /**
+     * 流式输出的响应体写完了，发送缓冲区中剩下的数据(chunked编码时还有最后一个chunk)
+     * 内部方法，仅供adam-server-core内部调用
      *
-     * @param uri 静态资源的相对路径
      * @throws IOException IO异常
      */
-    public void sendStaticResource(String uri) throws IOException {
+    public void finishStreaming() throws IOException {
+        bodyStream.finish(writer);
+    }
 
-        uri = (StringUtils.isBlank(uri) || "/".equals(uri)) ? "/index.html" : uri;
+    /**
+     * 丢弃流式输出时还没发送的数据，出错后改为发送错误信息时使用。响应头已经发送出去时抛出IllegalStateException
+     * 内部方法，仅供adam-server-core内部调用
+     */
+    public void resetBuffer() {
+        Preconditions.checkState(!committed, "Response already committed.");
+        if (bodyStream != null) {
+            bodyStream.release();
+            bodyStream = null;
+            writer = null;
+        }
+    }
 
-        byte[] responseBody = ServerContext.getInstance().getStaticResource(uri);
-        if (ArrayUtils.isEmpty(responseBody)) {
-            responseBody = stringToBytes(NOT_FOUND_TEMPLATE);
-            responseLine = ResponseLine.NOT_FOUND;
+    /**
+     * 流式输出时发送响应行和响应头
+     *
+     * @param contentLength 响应体的长度，-1表示长度未知，使用chunked编码
+     * @throws IOException IO异常
+     */
+    void commit(long contentLength) throws IOException {
+        if (contentLength >= 0) {
+            this.contentLength = contentLength;
+        } else {
+            setHeader(HttpHeaders.TRANSFER_ENCODING, "chunked");
         }
-        // TODO 感兴趣的朋友可以改造代码，使其支持js、css、图片等静态资源
-        String contentType = Constants.ContentType.TEXT_HTML;
-        sendDynamicResource(responseBody, contentType); // 也可以将sendDynamicResource方法中的代码复制到这里
+        writeResponseLineAndHeaders();
     }
 
     /**
-     * 将响应行和响应头从内部格式转成字符串
+     * 将响应行和响应头写到输出流中，拼接用的缓冲区从BufferPool借
      *
-     * @return 字符串格式的响应行和响应头
+     * @throws IOException IO异常
      */
-    private String responseLineAndHeadersToString() {
+    private void writeResponseLineAndHeaders() throws IOException {
+        committed = true;
+        final HeaderBuffer headerBuffer = new HeaderBuffer();
+        try {
+            headerBuffer.append(responseLine.getBytes());
+            appendHeaders(headerBuffer);
+            headerBuffer.appendCrlf();
+            headerBuffer.writeTo(outputStream);
+        } finally {
+            headerBuffer.release();
+        }
+    }
 
-        StringBuilder sb = new StringBuilder(128);  // 可根据实际情况调整
-        sb.append(responseLine.getText()).append("\r\n");
+    /**
+     * 将响应头(包括Content-Length、Set-Cookie)追加到HeaderBuffer中，不包括响应头结束处的空行
+     *
+     * @param headerBuffer HeaderBuffer
+     */
+    private void appendHeaders(HeaderBuffer headerBuffer) {
         for (Map.Entry<String, String> entry : headers.entrySet()) {
-            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+            headerBuffer.appendHeader(entry.getKey(), entry.getValue());
+        }
+        if (contentLength >= 0) {
+            headerBuffer.appendHeader(HttpHeaders.CONTENT_LENGTH, contentLength);
         }
         for (Cookie cookie : cookies) {
-            sb.append("Set-Cookie: ").append(cookie.getName()).append("=").append(cookie.getValue()).append("; ");
+            headerBuffer.appendName(HttpHeaders.SET_COOKIE).append(cookie.getName()).append("=").append(cookie.getValue());
             if (cookie.getMaxAge() != -1) {
-                sb.append("Max-Age=").append(cookie.getMaxAge()).append("; "); // 不考虑兼容Expires了
+                headerBuffer.append("; Max-Age=").append(cookie.getMaxAge()); // 不考虑兼容Expires了
+            }
+            if (cookie.getDomain() != null) {
+                headerBuffer.append("; Domain=").append(cookie.getDomain());
+            }
+            if (cookie.getPath() != null) {
+                headerBuffer.append("; Path=").append(cookie.getPath());
             }
-            Optional.ofNullable(cookie.getDomain()).ifPresent(domain -> sb.append("Domain=").append(domain).append("; "));
-            Optional.ofNullable(cookie.getPath()).ifPresent(path -> sb.append("Path=").append(path).append("; "));
             if (cookie.getSecure()) {
-                sb.append("Secure; ");
+                headerBuffer.append("; Secure");
             }
             if (cookie.isHttpOnly()) {
-                sb.append("HttpOnly; ");
+                headerBuffer.append("; HttpOnly");
             }
-            sb.delete(sb.length() - 2, sb.length());
-            sb.append("\r\n");
+            headerBuffer.appendCrlf();
         }
-        sb.append("\r\n");
-        return sb.toString();
     }
 
     private byte[] stringToBytes(String str) {
@@ -0,0 +1,166 @@
+package org.caichongjian.server.http;
+
+import com.google.common.base.Preconditions;
+import org.caichongjian.server.BufferPool;
+import org.caichongjian.server.Constants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * <p>流式输出响应体时使用的输出流，由Response.getOutputStream()、Response.getWriter()创建。</p>
+ * <p/>
+ * <ul>
+ *     <li>写入的数据先放到缓冲区中。直到close()时缓冲区都没写满的话，按Content-Length一次性发送，和普通的响应没有区别</li>
+ *     <li>缓冲区写满了或者调用了flush()，说明响应体较大或者需要边生成边发送，此时先发送带Transfer-Encoding: chunked的响应头，
+ *     之后每次把缓冲区中的数据作为一个chunk发送，close()时发送最后一个长度为0的chunk。响应体再大也只占用一个缓冲区的内存</li>
+ *     <li>HTTP/1.0不支持chunked，只能把整个响应体缓存下来，close()时按Content-Length发送</li>
+ * </ul>
+ */
+final class ResponseOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8 * 1024; // 可根据实际情况调整
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(Constants.Server.DEFAULT_CHARSET);
+
+    private final Response response;
+    private final OutputStream outputStream;
+    private final boolean chunkedAllowed;
+    private byte[] buffer = BufferPool.allocate(BUFFER_SIZE);
+    private int count;
+    private boolean committed;
+    private boolean closed;
+    /**
+     * 服务器正在结束响应，这时的flush()来自writer，不需要立即发送
+     */
+    private boolean finishing;
+
+    /**
+     * @param response       响应，发送响应头时使用
+     * @param outputStream   socket的输出流
+     * @param chunkedAllowed 客户端是否支持chunked(HTTP/1.1)
+     */
+    ResponseOutputStream(Response response, OutputStream outputStream, boolean chunkedAllowed) {
+        this.response = response;
+        this.outputStream = outputStream;
+        this.chunkedAllowed = chunkedAllowed;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        Preconditions.checkState(!closed, "Stream closed.");
+        if (count == buffer.length) {
+            makeRoom(1);
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Preconditions.checkState(!closed, "Stream closed.");
+        if (count + len > buffer.length) {
+            makeRoom(len);
+            if (chunkedAllowed && len >= buffer.length) {
+                // 比缓冲区还大的数据直接作为一个chunk发送，不经过缓冲区
+                writeChunk(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * 立即发送已经写入的数据。发送后响应头就不能再修改了
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed || finishing || !chunkedAllowed) {
+            return;
+        }
+        flushChunk();
+        outputStream.flush();
+    }
+
+    /**
+     * 响应体写完了。由服务器在controller返回后调用，controller自己调用也没关系
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (committed) {
+                flushChunk();
+                outputStream.write(LAST_CHUNK);
+            } else {
+                response.commit(count);
+                outputStream.write(buffer, 0, count);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * controller返回后由服务器调用：先把writer中还没编码的字符写进来，再close()。
+     * writer.flush()会调用到这里的flush()，如果照常发送的话，再小的响应也只能用chunked编码了
+     *
+     * @param writer getWriter()返回的writer，没有调用过getWriter()时为null
+     */
+    void finish(Writer writer) throws IOException {
+        finishing = true;
+        if (writer != null) {
+            writer.flush();
+        }
+        close();
+    }
+
+    boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * 丢弃还没发送的数据并释放缓冲区，出错时使用
+     */
+    void release() {
+        closed = true;
+        BufferPool.release(buffer);
+        buffer = null;
+    }
+
+    private void makeRoom(int length) throws IOException {
+        if (chunkedAllowed) {
+            flushChunk();
+        } else {
+            buffer = BufferPool.grow(buffer, count, Math.max(buffer.length * 2, count + length));
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        if (count > 0) {
+            writeChunk(buffer, 0, count);
+            count = 0;
+        } else if (!committed) {
+            commitChunked();
+        }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        if (!committed) {
+            commitChunked();
+        }
+        outputStream.write(Integer.toHexString(len).getBytes(Constants.Server.DEFAULT_CHARSET));
+        outputStream.write(CRLF);
+        outputStream.write(b, off, len);
+        outputStream.write(CRLF);
+    }
+
+    private void commitChunked() throws IOException {
+        response.commit(-1);
+        committed = true;
+    }
+}
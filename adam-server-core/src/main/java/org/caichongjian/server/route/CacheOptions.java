@@ -0,0 +1,41 @@
+package org.caichongjian.server.route;
+
+/**
+ * rest方法的@MiniCacheable配置，编译时生成的路由表和启动时扫描的controller都转换成这个类
+ */
+public final class CacheOptions {
+
+    private final long expireSeconds;
+    private final String[] keyParameters;
+    private final int maximumSize;
+    private final long maximumBytes;
+
+    /**
+     * @param expireSeconds @MiniCacheable.expireSeconds()
+     * @param keyParameters @MiniCacheable.keyParameters()
+     * @param maximumSize   @MiniCacheable.maximumSize()
+     * @param maximumBytes  @MiniCacheable.maximumBytes()
+     */
+    public CacheOptions(long expireSeconds, String[] keyParameters, int maximumSize, long maximumBytes) {
+        this.expireSeconds = expireSeconds;
+        this.keyParameters = keyParameters;
+        this.maximumSize = maximumSize;
+        this.maximumBytes = maximumBytes;
+    }
+
+    public long getExpireSeconds() {
+        return expireSeconds;
+    }
+
+    public String[] getKeyParameters() {
+        return keyParameters;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+}
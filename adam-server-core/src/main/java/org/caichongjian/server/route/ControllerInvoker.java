@@ -0,0 +1,15 @@
+package org.caichongjian.server.route;
+
+/**
+ * 调用controller的一个方法。编译时生成的是直接调用方法的lambda，没有生成路由表时是包装了MethodHandle的lambda
+ */
+@FunctionalInterface
+public interface ControllerInvoker {
+
+    /**
+     * @param arguments 已经从请求中获取好的各个参数
+     * @return 方法的返回值，方法的返回值为void时返回null
+     * @throws Throwable 方法抛出的异常
+     */
+    Object invoke(Object[] arguments) throws Throwable;
+}
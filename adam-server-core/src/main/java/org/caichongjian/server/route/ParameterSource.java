@@ -0,0 +1,22 @@
+package org.caichongjian.server.route;
+
+/**
+ * rest方法的参数从请求的哪里获取
+ */
+public enum ParameterSource {
+
+    /**
+     * 请求参数(query string或者表单)，按参数名获取
+     */
+    REQUEST_PARAMETER,
+
+    /**
+     * 请求体，参数上有@MiniRequestBody注解
+     */
+    REQUEST_BODY,
+
+    /**
+     * uri中的路径变量，参数上有@MiniPathVariable注解
+     */
+    PATH_VARIABLE
+}
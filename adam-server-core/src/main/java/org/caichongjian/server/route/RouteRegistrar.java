@@ -0,0 +1,34 @@
+package org.caichongjian.server.route;
+
+import org.caichongjian.api.MiniWebSocketHandler;
+
+/**
+ * 供编译时生成的RouteTable注册路由
+ */
+public interface RouteRegistrar {
+
+    /**
+     * 注册一个rest方法
+     *
+     * @param uri              类上和方法上的@MiniRequestMapping拼起来的uri，可以包含{name}、*和**
+     * @param methods          @MiniRequestMapping.method()，为空时不限制请求方式
+     * @param invoker          直接调用controller方法的lambda
+     * @param parameterNames   各个参数的名称，路径变量参数是变量的名称
+     * @param parameterTypes   各个参数的类型(泛型擦除后的)
+     * @param parameterSources 各个参数从请求的哪里获取
+     * @param etag             @MiniRequestMapping.etag()
+     * @param cacheOptions     @MiniCacheable的配置，没有这个注解时为null
+     * @param asyncTimeout     @MiniRequestMapping.asyncTimeout()
+     */
+    void register(String uri, String[] methods, ControllerInvoker invoker, String[] parameterNames, Class<?>[] parameterTypes,
+                  ParameterSource[] parameterSources, boolean etag, CacheOptions cacheOptions,
+                  long asyncTimeout);
+
+    /**
+     * 注册一个@MiniWebSocket的handler
+     *
+     * @param uri     @MiniWebSocket.value()，可以包含{name}、*和**
+     * @param handler handler实例
+     */
+    void registerWebSocket(String uri, MiniWebSocketHandler handler);
+}
@@ -0,0 +1,21 @@
+package org.caichongjian.server.route;
+
+/**
+ * <p>一个MiniRestController(或@MiniWebSocket的handler)的路由表，由adam-server-processor在编译时生成，
+ * 并写到META-INF/services/org.caichongjian.server.route.RouteTable中。</p>
+ * <p>服务器启动时通过ServiceLoader加载，不需要扫描classpath，也不需要通过反射调用controller的方法。</p>
+ */
+public interface RouteTable {
+
+    /**
+     * @return controller的类型，用于判断是否在@MiniControllerScan.basePackages中
+     */
+    Class<?> getControllerType();
+
+    /**
+     * 创建controller实例，并把它的每个@MiniRequestMapping方法注册到registrar中。有@MiniWebSocket时把它自己注册为WebSocket的handler
+     *
+     * @param registrar 路由注册器
+     */
+    void registerRoutes(RouteRegistrar registrar);
+}
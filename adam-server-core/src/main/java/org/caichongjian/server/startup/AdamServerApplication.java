@@ -4,11 +4,18 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.reflect.ClassPath;
 import org.caichongjian.annotations.MiniControllerScan;
 import org.caichongjian.annotations.MiniRestController;
+import org.caichongjian.annotations.MiniWebSocket;
 import org.caichongjian.server.RestProcessor;
 import org.caichongjian.server.ServerContext;
+import org.caichongjian.server.route.RouteTable;
+import org.caichongjian.server.websocket.WebSocketProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashSet;
+import java.util.ServiceLoader;
+import java.util.Set;
+
 /**
  * 负责校验配置，并扫描Controller
  * <p/>
@@ -24,7 +31,7 @@ public class AdamServerApplication {
 
         LOGGER.info("开始启动服务器....");
 
-        LOGGER.info("开始扫描RestController注解....");
+        LOGGER.info("开始加载RestController....");
 
         // 根据启动类上注解提供的信息，扫描Controller
         final MiniControllerScan annotation = primarySource.getAnnotation(MiniControllerScan.class);
@@ -37,25 +44,67 @@ public class AdamServerApplication {
         // 解决引入Jigsaw后在IDE中启动，主页404的问题。实现方式我不太满意，有机会再考虑优化
         ServerContext.getInstance().setPrimarySource(primarySource);
 
-        // 扫描RestController
         final String[] basePackages = annotation.basePackages();
+        final Set<String> loadedPackages = loadRouteTables(basePackages);
         for (String basePackage : basePackages) {
-            try {
-                // TODO ClassPath类上有@Beta注解，它标识此API是not "API-frozen"的，即未来版本中它可能修改或删除。也就是提醒使用者使用它要慎重。这个需要慎重使用的类目前貌似暂时和Jigsaw不太兼容
-                final ImmutableSet<ClassPath.ClassInfo> classInfos = ClassPath.from(Thread.currentThread().getContextClassLoader()).getTopLevelClassesRecursive(basePackage);
-                for (ClassPath.ClassInfo classInfo : classInfos) {
-                    final Class<?> clazz = classInfo.load();
-                    final MiniRestController miniRestController = clazz.getAnnotation(MiniRestController.class);
-                    if (miniRestController != null) {
-                        RestProcessor.addUriMapping(clazz);
-                    }
-                }
-            } catch (Exception | NoClassDefFoundError e) {
-                LOGGER.error("扫描MiniController失败", e);
-                System.exit(1);
+            if (!loadedPackages.contains(basePackage)) {
+                // 没有配置adam-server-processor时(比如controller来自另一个jar包)，只能在启动时扫描classpath了
+                LOGGER.warn("{} 中没有找到编译时生成的路由表，开始扫描classpath....", basePackage);
+                scanControllers(basePackage);
             }
         }
 
         HttpServer.start();
     }
+
+    /**
+     * 通过ServiceLoader加载adam-server-processor在编译时生成的路由表，不需要扫描classpath，也不需要反射
+     *
+     * @param basePackages @MiniControllerScan.basePackages
+     * @return 找到了路由表的basePackage，其他的basePackage还需要扫描classpath
+     */
+    private static Set<String> loadRouteTables(String[] basePackages) {
+        final Set<String> loadedPackages = new HashSet<>();
+        for (RouteTable routeTable : ServiceLoader.load(RouteTable.class, Thread.currentThread().getContextClassLoader())) {
+            final String packageName = routeTable.getControllerType().getPackageName();
+            boolean matched = false;
+            for (String basePackage : basePackages) {
+                if (packageName.equals(basePackage) || packageName.startsWith(basePackage + ".")) {
+                    loadedPackages.add(basePackage);
+                    matched = true;
+                }
+            }
+            // basePackages有重叠时也只注册一次
+            if (matched) {
+                RestProcessor.addUriMapping(routeTable);
+            }
+        }
+        return loadedPackages;
+    }
+
+    private static void scanControllers(String basePackage) {
+        int found = 0;
+        try {
+            // TODO ClassPath类上有@Beta注解，它标识此API是not "API-frozen"的，即未来版本中它可能修改或删除。也就是提醒使用者使用它要慎重。这个需要慎重使用的类目前貌似暂时和Jigsaw不太兼容
+            final ImmutableSet<ClassPath.ClassInfo> classInfos = ClassPath.from(Thread.currentThread().getContextClassLoader()).getTopLevelClassesRecursive(basePackage);
+            for (ClassPath.ClassInfo classInfo : classInfos) {
+                final Class<?> clazz = classInfo.load();
+                final MiniRestController miniRestController = clazz.getAnnotation(MiniRestController.class);
+                if (miniRestController != null) {
+                    RestProcessor.addUriMapping(clazz);
+                    found++;
+                }
+                if (clazz.getAnnotation(MiniWebSocket.class) != null) {
+                    WebSocketProcessor.addEndpoint(clazz);
+                    found++;
+                }
+            }
+        } catch (Exception | NoClassDefFoundError e) {
+            LOGGER.error("扫描MiniController失败", e);
+            System.exit(1);
+        }
+        if (found == 0) {
+            LOGGER.warn("{} 中没有找到任何controller，请检查@MiniControllerScan.basePackages", basePackage);
+        }
+    }
 }
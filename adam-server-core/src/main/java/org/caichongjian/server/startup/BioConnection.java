@@ -0,0 +1,289 @@
+package org.caichongjian.server.startup;
+
+import org.apache.commons.lang3.StringUtils;
+import org.caichongjian.api.MiniWebSocketHandler;
+import org.caichongjian.server.BufferPool;
+import org.caichongjian.server.Constants;
+import org.caichongjian.server.Router;
+import org.caichongjian.server.http.Request;
+import org.caichongjian.server.http.RequestStream;
+import org.caichongjian.server.http.Response;
+import org.caichongjian.server.websocket.WebSocketProcessor;
+import org.caichongjian.server.websocket.WebSocketSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>BIO模式下的一个连接。KeepAlive连接上的多个请求会在这里依次处理。</p>
+ * <p>rest方法返回CompletionStage或者Flow.Publisher(Server-Sent Events)时，处理这个连接的线程不再等待，直接回到线程池；
+ * CompletionStage完成后由线程池中的线程发送响应，并接着处理这个连接上的后续请求。
+ * 同一时刻只有一个线程在处理这个连接，所以不需要加锁。</p>
+ * <p>升级为WebSocket后，交给一个单独的线程一直读取客户端发来的帧，直到连接关闭，不占用线程池中的线程。
+ * 这样的线程最多有Constants.Server.BIO_WEBSOCKET_MAX_CONNECTIONS个，超过后握手请求响应503。</p>
+ */
+class BioConnection implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BioConnection.class);
+
+    private static final int WEBSOCKET_READ_BUFFER_SIZE = 8 * 1024; // 可根据实际需要调整
+    private static final Semaphore WEBSOCKET_PERMITS = new Semaphore(Constants.Server.BIO_WEBSOCKET_MAX_CONNECTIONS);
+    private static final AtomicInteger WEBSOCKET_THREAD_ID = new AtomicInteger();
+    /**
+     * 读取WebSocket帧的线程，数量由WEBSOCKET_PERMITS限制
+     */
+    private static final ExecutorService WEBSOCKET_THREADS = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "BioWebSocket-" + WEBSOCKET_THREAD_ID.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SocketChannel socketChannel;
+    private final Socket socket;
+    private RequestStream requestStream;
+    private OutputStream outputStream;
+    private int requestCount;
+
+    BioConnection(SocketChannel socketChannel) {
+        this.socketChannel = socketChannel;
+        this.socket = socketChannel.socket();
+    }
+
+    @Override
+    public void run() {
+        boolean pending = false;
+        try {
+            requestStream = new RequestStream(socket.getInputStream());
+            outputStream = new BioSocketOutputStream(socket.getOutputStream(), socketChannel);
+
+            LOGGER.debug("客户端: {} 已连接到服务器", socket.getInetAddress().getHostAddress());
+
+            // 设置连接超时时间
+            Integer connectionTimeoutMillis = Constants.Server.CONNECTION_TIMEOUT_MILLIS;
+            if (connectionTimeoutMillis == null || connectionTimeoutMillis < 0) {
+                connectionTimeoutMillis = 0;
+            }
+            socket.setSoTimeout(connectionTimeoutMillis);
+
+            pending = processRequests();
+        } catch (Exception e) {
+            LOGGER.error("an error occurs: ", e);
+        } finally {
+            if (!pending) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * 依次处理连接上的请求
+     *
+     * @return 连接是否已经交给其他线程(等待异步的rest方法完成，或者升级为WebSocket)。返回true时不能关闭连接
+     */
+    private boolean processRequests() throws IOException {
+        while (true) {
+
+            Request request = new Request(requestStream);
+            try {
+                request.parseRequestLineAndHeaders();
+            } catch (SocketTimeoutException e) {
+                LOGGER.debug("连接空闲超时，关闭连接");
+                return false;
+            } catch (IllegalStateException e) {
+                // 请求行、请求头格式不对或者太大，是客户端的问题。找不到下一个请求从哪里开始，发送完400后关闭连接
+                LOGGER.debug("Invalid request.", e);
+                new Response(outputStream).sendBadRequest();
+                outputStream.flush();
+                return false;
+            }
+            if (StringUtils.isBlank(request.getMethod())) {
+                // 客户端关闭了连接，或者请求头因各种原因没发送完整
+                return false;
+            }
+            requestCount++;
+            // 线程池忙不过来时不再保持连接，空闲的KeepAlive连接会一直占着当前线程
+            final boolean keepAlive = request.isKeepAlive() && requestCount < Constants.Server.MAX_KEEP_ALIVE_REQUESTS
+                    && !HttpServer.isBusy();
+
+            Response response = new Response(outputStream);
+            response.setKeepAlive(keepAlive, request.getProtocol());
+
+            final Router.Match<MiniWebSocketHandler> webSocketEndpoint = WebSocketProcessor.route(request);
+            if (webSocketEndpoint != null) {
+                // 握手之后这个连接上不会再有HTTP请求了
+                return upgradeToWebSocket(request, response, webSocketEndpoint);
+            }
+
+            final CompletionStage<Void> pending = HttpServer.dispatch(request, response);
+            if (pending != null) {
+                pending.whenComplete((result, error) -> resume(request, keepAlive, error));
+                return true;
+            }
+            if (!finishRequest(request, keepAlive)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 异步的rest方法的响应生成完毕后调用，这时已经在线程池中的线程里了
+     */
+    private void resume(Request request, boolean keepAlive, Throwable error) {
+        boolean pending = false;
+        try {
+            if (error instanceof IOException) {
+                // 通常是Server-Sent Events的客户端断开了
+                LOGGER.debug("an error occurs: ", error);
+            } else if (error != null) {
+                LOGGER.error("an error occurs: ", error);
+            } else if (finishRequest(request, keepAlive)) {
+                pending = processRequests();
+            }
+        } catch (Exception e) {
+            LOGGER.error("an error occurs: ", e);
+        } finally {
+            if (!pending) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * 结束当前请求并发送响应
+     *
+     * @return 是否继续处理下一个请求
+     */
+    private boolean finishRequest(Request request, boolean keepAlive) throws IOException {
+        request.finishRequest();
+        outputStream.flush();
+
+        // 等待下一个请求时使用KeepAlive的空闲超时时间
+        if (keepAlive && requestCount == 1) {
+            socket.setSoTimeout(Constants.Server.KEEP_ALIVE_TIMEOUT_MILLIS);
+        }
+        // 发送完响应后线程池已经忙不过来了，就不等下一个请求了，把线程让给排队的连接。HTTP/1.1允许服务器关闭空闲的连接，客户端会重新连接
+        return keepAlive && !HttpServer.isBusy();
+    }
+
+    /**
+     * 完成WebSocket握手，然后把连接交给WEBSOCKET_THREADS中的一个线程，当前线程回到线程池
+     *
+     * @return 握手成功时返回true，连接由读取帧的线程关闭
+     */
+    private boolean upgradeToWebSocket(Request request, Response response, Router.Match<MiniWebSocketHandler> endpoint) throws IOException {
+        if (!WEBSOCKET_PERMITS.tryAcquire()) {
+            LOGGER.warn("WebSocket连接太多，拒绝握手");
+            response.sendServiceUnavailable();
+            outputStream.flush();
+            return false;
+        }
+        boolean upgraded = false;
+        try {
+            final BioWebSocketTransport transport = new BioWebSocketTransport();
+            final WebSocketSession session = WebSocketProcessor.handshake(request, response, endpoint, transport, Runnable::run);
+            outputStream.flush();
+            if (session == null) {
+                return false;
+            }
+            WEBSOCKET_THREADS.execute(() -> serveWebSocket(session, transport));
+            upgraded = true;
+            return true;
+        } finally {
+            if (!upgraded) {
+                WEBSOCKET_PERMITS.release();
+            }
+        }
+    }
+
+    /**
+     * 读取并解码客户端发来的帧，直到连接关闭。handler的方法也在当前线程中调用
+     */
+    private void serveWebSocket(WebSocketSession session, BioWebSocketTransport transport) {
+        final byte[] buffer = BufferPool.allocate(WEBSOCKET_READ_BUFFER_SIZE);
+        try {
+            session.open();
+            // 空闲一个间隔后发送ping，再过一个间隔还没收到数据时关闭连接
+            socket.setSoTimeout(Math.max(0, Constants.Server.WEBSOCKET_PING_INTERVAL_MILLIS));
+            while (true) {
+                final int bytesRead;
+                try {
+                    bytesRead = requestStream.read(buffer, 0, buffer.length);
+                } catch (SocketTimeoutException e) {
+                    if (session.ping()) {
+                        continue;
+                    }
+                    LOGGER.debug("WebSocket连接空闲超时，关闭连接");
+                    break;
+                }
+                if (bytesRead == -1) {
+                    break;
+                }
+                session.onData(buffer, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+        } finally {
+            BufferPool.release(buffer);
+            transport.disconnect();
+            session.onDisconnect();
+            WEBSOCKET_PERMITS.release();
+            close();
+        }
+    }
+
+    private void close() {
+        try (SocketChannel channel = socketChannel;
+             RequestStream in = requestStream;
+             OutputStream out = outputStream) {
+            LOGGER.debug("关闭连接");
+        } catch (Exception e) {
+            LOGGER.error("an error occurs: ", e);
+        }
+    }
+
+    /**
+     * BIO模式下发送WebSocket的帧。多个线程可能同时发送(比如广播消息)，加锁保证一个帧不会被其他帧打断
+     */
+    private final class BioWebSocketTransport implements WebSocketSession.Transport {
+
+        private boolean disconnected;
+
+        @Override
+        public synchronized void write(byte[] frame) throws IOException {
+            if (disconnected) {
+                throw new IOException("Connection closed.");
+            }
+            outputStream.write(frame);
+            outputStream.flush();
+        }
+
+        /**
+         * 关闭输入流，读取帧的线程读到-1后结束循环并关闭连接
+         */
+        @Override
+        public void close() {
+            try {
+                socketChannel.shutdownInput();
+            } catch (IOException e) {
+                LOGGER.debug("an error occurs: ", e);
+            }
+        }
+
+        /**
+         * 读取帧的线程结束循环后调用，之后其他线程不能再发送，输出流可以放心关闭了
+         */
+        synchronized void disconnect() {
+            disconnected = true;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.caichongjian.server.startup;
+
+import org.caichongjian.server.BufferPool;
+import org.caichongjian.server.http.FileTransferTarget;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>BIO模式下socket的输出流。发送文件时直接通过FileChannel.transferTo写到SocketChannel，由内核完成复制</p>
+ * <p>小块的数据(如响应头和较小的响应体)先攒到写缓冲区中，flush()时一起发送，减少系统调用的次数。
+ * 写缓冲区从BufferPool借，连接关闭时还回去。</p>
+ */
+class BioSocketOutputStream extends FilterOutputStream implements FileTransferTarget {
+
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024; // 可根据实际需要调整
+
+    private final SocketChannel socketChannel;
+    private byte[] buffer = BufferPool.allocate(WRITE_BUFFER_SIZE);
+    private int count;
+
+    BioSocketOutputStream(OutputStream socketOutputStream, SocketChannel socketChannel) {
+        super(socketOutputStream);
+        this.socketChannel = socketChannel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            // 大块的数据不经过写缓冲区，直接交给socket的输出流
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void transferFile(Path file, long count) throws IOException {
+        flush();
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            while (position < count) {
+                // SocketChannel是阻塞模式的，transferTo一次不一定能发送完
+                final long bytesWritten = fileChannel.transferTo(position, count - position, socketChannel);
+                if (bytesWritten == 0 && position >= fileChannel.size()) {
+                    // 文件在发送过程中变小了，Content-Length已经发出去了，只能中断响应并关闭连接
+                    throw new EOFException("File shrank while being sent: " + file);
+                }
+                position += bytesWritten;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            // 先清空，发送失败(客户端已断开)时close()不会再发送一次
+            final int length = count;
+            count = 0;
+            out.write(buffer, 0, length);
+        }
+    }
+}
@@ -1,49 +1,75 @@
 package org.caichongjian.server.startup;
 
-import org.apache.commons.lang3.StringUtils;
 import org.caichongjian.server.Constants;
+import org.caichongjian.server.RestMethodInvoker;
 import org.caichongjian.server.RestProcessor;
+import org.caichongjian.server.Router;
 import org.caichongjian.server.StaticResourceProcessor;
 import org.caichongjian.server.http.Request;
-import org.caichongjian.server.http.RequestStream;
 import org.caichongjian.server.http.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 class HttpServer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpServer.class);
 
-    private static ThreadPool threadPool;
+    private static JobExecutor jobExecutor;
+    private static volatile boolean stopping;
+    /**
+     * 线程池排队满了时，替NioEventLoop线程、完成CompletionStage的线程等着把工作交给线程池
+     */
+    private static final ExecutorService JOB_SUBMITTER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "JobSubmitter");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private HttpServer() {
     }
 
     static void start() {
 
-        // 初始化线程池
-        threadPool = new ThreadPool(Constants.Server.THREAD_POOL_SIZE);
+        // 初始化线程池(或者虚拟线程等其他执行请求的方式)
+        jobExecutor = JobExecutor.create();
         // 程序退出前(kill -9和其他强制结束进程方式除外)通知所有工作线程，并等待其正常终止
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-                threadPool.drop();
+                stopping = true;
+                jobExecutor.drop();
             } catch (InterruptedException e) {
                 LOGGER.error("InterruptedException: ", e);
                 Thread.currentThread().interrupt();
             }
         }, "ShutdownHookThread"));
 
-        // 监听并处理连接
-        try (ServerSocket ss = new ServerSocket(Constants.Server.PORT)) {
+        if (Constants.Server.NIO_ENABLED) {
+            new NioHttpServer(jobExecutor).start();
+            return;
+        }
+
+        // 监听并处理连接。使用阻塞模式的ServerSocketChannel而不是ServerSocket，这样每个连接都有对应的SocketChannel，发送文件时才能零拷贝
+        try (ServerSocketChannel ss = ServerSocketChannel.open()) {
 
+            ss.bind(new InetSocketAddress(Constants.Server.PORT));
             LOGGER.info("服务器已启动，请访问http://localhost:{}", Constants.Server.PORT);
             while (true) {
-                final Socket socket = ss.accept();
-                threadPool.execute(() -> handleConnection(socket));
+                final SocketChannel socketChannel = ss.accept();
+                try {
+                    jobExecutor.execute(new BioConnection(socketChannel));
+                } catch (RejectedExecutionException e) {
+                    rejectConnection(socketChannel);
+                }
             }
         } catch (InterruptedException e) {
             LOGGER.error("InterruptedException: ", e);
@@ -54,39 +80,72 @@ class HttpServer {
     }
 
     /**
-     * 处理 http 连接
+     * 服务器太忙时直接响应503并关闭连接
      */
-    private static void handleConnection(Socket socket) {
-
-        try (Socket s = socket;
-             RequestStream requestStream = new RequestStream(s.getInputStream());
-             OutputStream outputStream = s.getOutputStream()) {
-
-            LOGGER.debug("客户端: {} 已连接到服务器", s.getInetAddress().getHostAddress());
+    private static void rejectConnection(SocketChannel socketChannel) {
+        LOGGER.warn("服务器太忙，拒绝处理新的连接");
+        try (SocketChannel channel = socketChannel) {
+            new Response(channel.socket().getOutputStream()).sendServiceUnavailable();
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+        }
+    }
 
-            // 设置连接超时时间
-            Integer connectionTimeoutMillis = Constants.Server.CONNECTION_TIMEOUT_MILLIS;
-            if (connectionTimeoutMillis != null && connectionTimeoutMillis > 0) {
-                s.setSoTimeout(connectionTimeoutMillis);
-            }
+    /**
+     * 将解析好请求行和请求头的请求交给对应的Processor处理。BIO和NIO共用
+     *
+     * @return rest方法返回CompletionStage或者Flow.Publisher时，返回响应生成完毕时完成的CompletionStage，在这之前不能结束请求；其他情况返回null
+     */
+    static CompletionStage<Void> dispatch(Request request, Response response) throws IOException {
 
-            Request request = new Request(requestStream);
-            request.parseRequestLineAndHeaders();
+        final Router.Match<RestMethodInvoker> match = RestProcessor.route(request);
+        if (match != null) {
+            RestProcessor processor = new RestProcessor();
+            return processor.process(request, response, match, HttpServer::resume);
+        }
+        StaticResourceProcessor processor = new StaticResourceProcessor();
+        processor.process(request, response);
+        return null;
+    }
 
-            Response response = new Response(outputStream);
+    /**
+     * 线程池中是否有工作在排队，或者服务器正在关闭。BIO模式下这时不再保持KeepAlive连接，免得空闲的连接占着线程，排队的连接却迟迟得不到处理
+     */
+    static boolean isBusy() {
+        return stopping || jobExecutor.isBusy();
+    }
 
-            if (RestProcessor.containsUriMapping(request.getRequestURI())) {
-                RestProcessor processor = new RestProcessor();
-                processor.process(request, response);
-            } else if (StringUtils.isBlank(request.getMethod())) {
-                // TODO 此种情况下说明请求头因各种原因没发送完整，处理逻辑还没想好
-            } else {
-                StaticResourceProcessor processor = new StaticResourceProcessor();
-                processor.process(request, response);
+    /**
+     * 异步的rest方法完成后、Server-Sent Events和WebSocket有新的事件时，回到线程池中接着处理(BIO模式下还要接着处理这个连接上的后续请求)。
+     * 调用方通常是完成CompletionStage的线程(超时时是JDK全局的CompletableFuture.delayedExecutor线程)、Publisher的线程或者NioEventLoop线程，
+     * 所以这里不会阻塞，也不会在调用方的线程中执行工作。线程池排队满了时交给JOB_SUBMITTER等着。
+     * 这些工作都属于已经接收的请求，不能像新的请求一样响应503，并且都经过SerialExecutor或者CompletionStage，每个连接同时最多只有一个工作在等，等待的工作数量不会超过连接数
+     */
+    static void resume(Runnable job) {
+        try {
+            if (jobExecutor.tryExecute(job)) {
+                return;
             }
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("an error occurs: ", e);
+        }
+        JOB_SUBMITTER.execute(() -> submit(job));
+    }
 
-        } catch (Exception e) {
-            LOGGER.error("an error occurs: ", e);
+    /**
+     * 在JOB_SUBMITTER线程中等到线程池有空位再提交。不使用jobExecutor.execute()，因为WorkStealingThreadPool排队满了时会抛出异常或者在调用方执行。
+     * 线程池不再接收新的工作时(服务器正在关闭)，只能在JOB_SUBMITTER线程中执行了，这时isBusy()返回true，BIO连接发送完响应就会关闭，不会占着这个线程等下一个请求
+     */
+    private static void submit(Runnable job) {
+        try {
+            while (!jobExecutor.tryExecute(job)) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+        } catch (RejectedExecutionException e) {
+            job.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.run();
         }
     }
 }
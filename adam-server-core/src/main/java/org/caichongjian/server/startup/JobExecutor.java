@@ -0,0 +1,81 @@
+package org.caichongjian.server.startup;
+
+import org.caichongjian.server.Constants;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>执行处理请求的工作(BIO模式下是处理一个连接，NIO模式下是处理一个完整的请求)。</p>
+ * <p>adam-server提供了多种实现，启动时根据Constants.Server.EXECUTOR选择其中一种：</p>
+ * <ul>
+ *     <li>pool: 固定大小的线程池ThreadPool，默认值</li>
+ *     <li>workstealing: 基于work stealing的线程池WorkStealingThreadPool，排队的工作数量有上限，超过上限时拒绝执行</li>
+ *     <li>virtual: 每个工作使用一个虚拟线程，适合controller中有大量阻塞操作(JDBC、调用下游服务等)的场景。JDK不支持虚拟线程时改为使用pool</li>
+ * </ul>
+ */
+public interface JobExecutor {
+
+    String POOL = "pool";
+    String WORK_STEALING = "workstealing";
+    String VIRTUAL = "virtual";
+
+    /**
+     * 执行一个工作
+     *
+     * @param job 工作
+     * @throws InterruptedException       等待执行的过程中被打断
+     * @throws RejectedExecutionException 已经调用过drop()，或者排队的工作太多
+     */
+    void execute(Runnable job) throws InterruptedException;
+
+    /**
+     * 不等待地执行一个工作。NIO模式下在NioEventLoop线程中调用，不能阻塞，否则这个线程上的所有连接都会卡住
+     *
+     * @param job 工作
+     * @return 排队的工作太多时不执行，返回false，由调用方处理(如响应503)
+     * @throws RejectedExecutionException 已经调用过drop()
+     */
+    boolean tryExecute(Runnable job);
+
+    /**
+     * 是否有工作在排队等待空闲的线程。BIO模式下用来决定要不要保持KeepAlive连接，不需要很精确
+     *
+     * @return 线程都在忙并且还有工作在排队时返回true
+     */
+    default boolean isBusy() {
+        return false;
+    }
+
+    /**
+     * 不再接收新的工作，并等待已经提交的工作执行完毕
+     *
+     * @throws InterruptedException 等待的过程中被打断
+     */
+    void drop() throws InterruptedException;
+
+    /**
+     * 根据Constants.Server.EXECUTOR创建JobExecutor
+     *
+     * @return JobExecutor
+     */
+    static JobExecutor create() {
+        final String executor = Constants.Server.EXECUTOR;
+        if (VIRTUAL.equalsIgnoreCase(executor)) {
+            if (VirtualThreadExecutor.isSupported()) {
+                return new VirtualThreadExecutor();
+            }
+            LoggerFactory.getLogger(JobExecutor.class).warn("当前JDK不支持虚拟线程，改为使用大小为{}的线程池", Constants.Server.THREAD_POOL_SIZE);
+            return new ThreadPool(Constants.Server.THREAD_POOL_SIZE);
+        }
+        if (WORK_STEALING.equalsIgnoreCase(executor)) {
+            final WorkStealingThreadPool.RejectionPolicy rejectionPolicy =
+                    WorkStealingThreadPool.RejectionPolicy.valueOf(Constants.Server.REJECTION_POLICY.toUpperCase());
+            return new WorkStealingThreadPool(Constants.Server.THREAD_POOL_SIZE, Constants.Server.JOB_QUEUE_CAPACITY, rejectionPolicy);
+        }
+        if (!POOL.equalsIgnoreCase(executor)) {
+            throw new IllegalArgumentException("不支持的executor: " + executor);
+        }
+        return new ThreadPool(Constants.Server.THREAD_POOL_SIZE);
+    }
+}
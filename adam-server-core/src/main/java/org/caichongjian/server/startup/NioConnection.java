@@ -0,0 +1,719 @@
+package org.caichongjian.server.startup;
+
+import com.google.common.net.HttpHeaders;
+import org.caichongjian.api.MiniWebSocketHandler;
+import org.caichongjian.server.BufferPool;
+import org.caichongjian.server.Constants;
+import org.caichongjian.server.Router;
+import org.caichongjian.server.SerialExecutor;
+import org.caichongjian.server.http.ChunkedDecoder;
+import org.caichongjian.server.http.HttpRequestParser;
+import org.caichongjian.server.http.Request;
+import org.caichongjian.server.http.RequestStream;
+import org.caichongjian.server.http.Response;
+import org.caichongjian.server.websocket.WebSocketProcessor;
+import org.caichongjian.server.websocket.WebSocketSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>NIO模式下的一个连接。</p>
+ * <p>除了process()在线程池中执行以外，其他方法都只能在所属的NioEventLoop线程中调用。</p>
+ * <p/>
+ * <p>支持HTTP/1.1的pipelining：客户端可以不等响应就在同一个连接上连续发送多个请求，
+ * 这些请求会被依次解析出来并(尽可能并行地)交给线程池处理，响应则严格按照请求的顺序发送。</p>
+ * <p>升级为WebSocket后，帧的读取和解码都在NioEventLoop线程中进行，只把完整的消息交给线程池处理，
+ * 空闲的WebSocket连接不占用线程池中的线程。</p>
+ */
+class NioConnection {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioConnection.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 1024; // 可根据实际需要调整
+    private static final int WEBSOCKET_READ_BUFFER_SIZE = 8 * 1024; // 可根据实际需要调整
+
+    private final NioEventLoop eventLoop;
+    private final SocketChannel socketChannel;
+    private final SelectionKey key;
+
+    /**
+     * 已读取但还没解析的数据存放在buffer[start, length)中。
+     * buffer从BufferPool借，数据都解析完了就还回去，空闲的KeepAlive连接不占用缓冲区
+     */
+    private byte[] buffer;
+    private int start;
+    private int length;
+    /**
+     * 当前请求的请求行和请求头的解析器，数据不完整时记住解析到了哪里，下次读到数据后接着解析
+     */
+    private HttpRequestParser parser = new HttpRequestParser();
+    /**
+     * 当前请求(请求行+请求头+请求体)的总长度，-1表示请求头还没读完
+     */
+    private int requestLength = -1;
+    /**
+     * 当前请求的请求体使用chunked编码时，用来找出请求体在哪里结束。chunkedBodyEnd是已经解析到的位置，相对于start
+     */
+    private ChunkedDecoder chunkedBody;
+    private int chunkedBodyEnd;
+
+    /**
+     * 已解析出来但响应还没发送完的请求，按请求的顺序排列
+     */
+    private final Deque<Exchange> exchanges = new ArrayDeque<>();
+    /**
+     * 已交给线程池但还没处理完的请求数量
+     */
+    private int inFlight;
+    /**
+     * 是否有非幂等的请求(如POST)正在处理。非幂等的请求需要等前面的请求都处理完再处理，处理期间后面的请求也要等着
+     */
+    private boolean unsafeInFlight;
+    /**
+     * 网络缓冲区满了，还有响应没发送完
+     */
+    private boolean writePending;
+    /**
+     * 客户端已经不会再发请求了(关闭了输出流，或者达到了单个连接的最大请求数)
+     */
+    private boolean noMoreRequests;
+    /**
+     * 已经解析出一个WebSocket握手请求，握手完成之前不再解析后面的数据
+     */
+    private boolean upgrading;
+    /**
+     * 升级为WebSocket后不为null，之后按WebSocket的帧读写数据，不再解析HTTP请求
+     */
+    private WebSocketSession webSocket;
+    private NioWebSocketTransport webSocketTransport;
+    private long lastActiveMillis = System.currentTimeMillis();
+    private int requestCount;
+
+    NioConnection(NioEventLoop eventLoop, SocketChannel socketChannel, SelectionKey key) {
+        this.eventLoop = eventLoop;
+        this.socketChannel = socketChannel;
+        this.key = key;
+    }
+
+    void onReadable() throws IOException {
+
+        if (webSocket != null) {
+            readWebSocketFrames();
+            return;
+        }
+        if (buffer == null) {
+            buffer = BufferPool.allocate(INITIAL_BUFFER_SIZE);
+        } else if (length == buffer.length) {
+            if (start > 0) {
+                // 前面已解析的部分没用了，挪一下位置
+                length -= start;
+                System.arraycopy(buffer, start, buffer, 0, length);
+                start = 0;
+            } else {
+                // 已经知道请求的总长度时最多扩容到这个长度，请求体按实际收到的数据逐步扩容，不按Content-Length预先分配
+                final int newSize = requestLength > buffer.length ? Math.min(buffer.length * 2, requestLength) : buffer.length * 2;
+                buffer = BufferPool.grow(buffer, length, newSize);
+            }
+        }
+        final int bytesRead = socketChannel.read(ByteBuffer.wrap(buffer, length, buffer.length - length));
+        if (bytesRead == -1) {
+            // 客户端不会再发送请求了，但已经发过来的请求还是要响应的
+            noMoreRequests = true;
+            closeIfDone();
+            updateInterestOps();
+            return;
+        }
+        length += bytesRead;
+        lastActiveMillis = System.currentTimeMillis();
+
+        parseRequests();
+    }
+
+    /**
+     * 把buffer中所有完整的请求解析出来，并交给线程池处理
+     */
+    private void parseRequests() throws IOException {
+
+        while (buffer != null && !noMoreRequests && !upgrading && exchanges.size() < Constants.Server.MAX_PIPELINED_REQUESTS) {
+
+            if (requestLength == -1) {
+                final long contentLength;
+                try {
+                    if (chunkedBody == null) {
+                        if (!parser.parse(buffer, start, length)) {
+                            break;
+                        }
+                        if (parser.isChunked()) {
+                            chunkedBody = new ChunkedDecoder();
+                            chunkedBodyEnd = parser.getHeadLength();
+                        }
+                    }
+                    if (chunkedBody != null) {
+                        // chunked编码的请求体长度未知，读到多少解析多少，解析完最后一个chunk和trailer才算读完整
+                        chunkedBodyEnd = chunkedBody.skip(buffer, start + chunkedBodyEnd, length) - start;
+                        if (chunkedBodyEnd - parser.getHeadLength() > Constants.Server.MAX_REQUEST_BODY_SIZE) {
+                            payloadTooLarge();
+                            break;
+                        }
+                        if (!chunkedBody.isDone()) {
+                            break;
+                        }
+                        chunkedBody = null;
+                        contentLength = chunkedBodyEnd - parser.getHeadLength();
+                    } else {
+                        contentLength = Math.max(0, parser.getContentLength());
+                    }
+                } catch (IllegalStateException e) {
+                    LOGGER.debug("Invalid request.", e);
+                    close();
+                    return;
+                }
+                if (contentLength > Constants.Server.MAX_REQUEST_BODY_SIZE || contentLength > Integer.MAX_VALUE - parser.getHeadLength()) {
+                    payloadTooLarge();
+                    break;
+                }
+                requestLength = parser.getHeadLength() + (int) contentLength;
+            }
+
+            if (length - start < requestLength) {
+                break;
+            }
+
+            final byte[] requestBytes = takeRequestBytes();
+            final String method = parser.getMethod();
+            requestCount++;
+            final boolean lastRequest = requestCount >= Constants.Server.MAX_KEEP_ALIVE_REQUESTS;
+            // 解析好的请求头随请求一起交给线程池，下一个请求换一个新的parser
+            parser.rebase(requestBytes, 0);
+            final Exchange exchange = new Exchange(requestBytes, requestLength, parser, isSafeMethod(method), lastRequest);
+            exchange.webSocketEndpoint = WebSocketProcessor.route(method, parser.getRequestURI(), parser.getHeader(HttpHeaders.UPGRADE));
+            if (exchange.webSocketEndpoint != null) {
+                // 握手请求后面的数据(如果有)都是WebSocket的帧，等握手完成后再处理
+                upgrading = true;
+            }
+            exchanges.add(exchange);
+            parser = new HttpRequestParser();
+            requestLength = -1;
+            if (lastRequest) {
+                noMoreRequests = true;
+            }
+        }
+
+        if (start == length) {
+            BufferPool.release(buffer);
+            buffer = null;
+            start = length = 0;
+        }
+        dispatchRequests();
+        updateInterestOps();
+    }
+
+    /**
+     * 把buffer[start, start + requestLength)中完整的请求取出来，并把start挪到下一个请求的开头。
+     * 请求在buffer的开头时(放不下的请求在读取过程中一定会被挪到开头)直接把buffer交出去，较大的请求体不用再复制一遍，
+     * 后面剩下的数据(pipelining的下一个请求)挪到新的buffer中
+     *
+     * @return 完整的请求，从BufferPool借的，由处理请求的线程还回去
+     */
+    private byte[] takeRequestBytes() {
+        if (start > 0) {
+            final byte[] requestBytes = BufferPool.allocate(requestLength);
+            System.arraycopy(buffer, start, requestBytes, 0, requestLength);
+            start += requestLength;
+            return requestBytes;
+        }
+        final byte[] requestBytes = buffer;
+        length -= requestLength;
+        if (length > 0) {
+            buffer = BufferPool.allocate(Math.max(INITIAL_BUFFER_SIZE, length));
+            System.arraycopy(requestBytes, requestLength, buffer, 0, length);
+        } else {
+            buffer = null;
+        }
+        return requestBytes;
+    }
+
+    /**
+     * 请求体超过了Constants.Server.MAX_REQUEST_BODY_SIZE，不再读取这个连接上的数据，前面的响应发送完后响应413并关闭连接
+     */
+    private void payloadTooLarge() {
+        LOGGER.debug("Request body too large.");
+        final Exchange exchange = new Exchange(null, 0, parser, true, true);
+        exchanges.add(exchange);
+        exchange.dispatched = true;
+        inFlight++;
+        parser = new HttpRequestParser();
+        requestLength = -1;
+        chunkedBody = null;
+        BufferPool.release(buffer);
+        buffer = null;
+        start = length = 0;
+        respondAndClose(exchange, Response::sendPayloadTooLarge);
+    }
+
+    /**
+     * 按顺序把可以处理的请求交给线程池。GET、HEAD等安全的请求可以并行处理，
+     * 非幂等的请求要等前面的请求都处理完才能处理，以免打乱客户端预期的执行顺序
+     */
+    private void dispatchRequests() {
+        for (Exchange exchange : exchanges) {
+            if (exchange.dispatched) {
+                continue;
+            }
+            if (unsafeInFlight || (!exchange.safe && inFlight > 0)) {
+                break;
+            }
+            exchange.dispatched = true;
+            inFlight++;
+            if (!exchange.safe) {
+                unsafeInFlight = true;
+            }
+            boolean accepted;
+            try {
+                // 不能用execute()，线程池排队满了时会阻塞NioEventLoop线程，这个线程上的所有连接都会卡住
+                accepted = eventLoop.getJobExecutor().tryExecute(() -> process(exchange));
+            } catch (RejectedExecutionException e) {
+                accepted = false;
+            }
+            if (!accepted) {
+                reject(exchange);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 服务器太忙时直接在NioEventLoop线程中生成503响应，发送完后关闭连接
+     */
+    private void reject(Exchange exchange) {
+        LOGGER.warn("服务器太忙，拒绝处理新的请求");
+        respondAndClose(exchange, Response::sendServiceUnavailable);
+    }
+
+    /**
+     * 不交给线程池，直接在NioEventLoop线程中生成错误响应，发送完后关闭连接
+     */
+    private void respondAndClose(Exchange exchange, ErrorResponse errorResponse) {
+        final NioResponseBuffer responseBuffer = new NioResponseBuffer();
+        try {
+            errorResponse.send(new Response(responseBuffer));
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+        }
+        BufferPool.release(exchange.requestBytes);
+        final Deque<NioResponseBuffer.Segment> segments = responseBuffer.toSegments();
+        exchange.keepAlive = false;
+        noMoreRequests = true;
+        eventLoop.execute(this, () -> onProcessed(exchange, segments));
+    }
+
+    /**
+     * 处理完整的请求，在线程池中执行。处理完成后将响应交回NioEventLoop线程发送。
+     * rest方法返回CompletionStage或者Flow.Publisher时，线程不再等待，CompletionStage完成后再交回
+     */
+    private void process(Exchange exchange) {
+
+        // 较大的响应边生成边交给NioEventLoop线程发送
+        final NioResponseBuffer responseBuffer = new NioResponseBuffer(ready -> eventLoop.execute(this, () -> onStreamed(exchange, ready)));
+        exchange.responseBuffer = responseBuffer;
+        final RequestStream requestStream = new RequestStream(exchange.requestBytes, exchange.requestLength, exchange.head);
+        try {
+            Request request = new Request(requestStream);
+            request.parseRequestLineAndHeaders();
+            exchange.keepAlive = request.isKeepAlive() && !exchange.lastRequest;
+
+            Response response = new Response(responseBuffer);
+            response.setKeepAlive(exchange.keepAlive, request.getProtocol());
+
+            if (exchange.webSocketEndpoint != null) {
+                final NioWebSocketTransport transport = new NioWebSocketTransport();
+                exchange.webSocket = WebSocketProcessor.handshake(request, response, exchange.webSocketEndpoint, transport,
+                        new SerialExecutor(HttpServer::resume));
+                exchange.webSocketTransport = transport;
+                exchange.keepAlive = false; // 握手失败时发送完400后关闭连接
+            } else {
+                final CompletionStage<Void> pending = HttpServer.dispatch(request, response);
+                if (pending != null) {
+                    // 请求的原始数据在响应生成完之前还要用，等完成后再还回去
+                    pending.whenComplete((result, error) -> finishProcess(exchange, requestStream, error));
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            finishProcess(exchange, requestStream, e);
+            return;
+        }
+        finishProcess(exchange, requestStream, null);
+    }
+
+    private void finishProcess(Exchange exchange, RequestStream requestStream, Throwable error) {
+        if (error instanceof IOException) {
+            // 通常是Server-Sent Events的客户端断开了
+            LOGGER.debug("an error occurs: ", error);
+            exchange.keepAlive = false;
+        } else if (error != null) {
+            LOGGER.error("an error occurs: ", error);
+            exchange.keepAlive = false;
+        }
+        try {
+            requestStream.close();
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+        }
+        final Deque<NioResponseBuffer.Segment> segments = exchange.responseBuffer.toSegments();
+        eventLoop.execute(this, () -> onProcessed(exchange, segments));
+    }
+
+    /**
+     * 响应还没生成完，先把已经生成的部分发送出去
+     */
+    private void onStreamed(Exchange exchange, Deque<NioResponseBuffer.Segment> segments) {
+        if (!socketChannel.isOpen()) {
+            segments.forEach(NioResponseBuffer.Segment::release);
+            return;
+        }
+        exchange.segments.addAll(segments);
+        if (exchanges.peek() != exchange || writePending) {
+            return; // 前面的响应还没发送完，或者网络缓冲区满了，等着
+        }
+        try {
+            onWritable();
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+            close();
+        }
+    }
+
+    private void onProcessed(Exchange exchange, Deque<NioResponseBuffer.Segment> segments) {
+        if (!socketChannel.isOpen()) {
+            segments.forEach(NioResponseBuffer.Segment::release);
+            return;
+        }
+        exchange.segments.addAll(segments);
+        exchange.processed = true;
+        inFlight--;
+        if (!exchange.safe) {
+            unsafeInFlight = false;
+        }
+        try {
+            onWritable();
+            if (socketChannel.isOpen()) {
+                parseRequests();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+            close();
+        }
+    }
+
+    /**
+     * 按请求的顺序发送已经处理完的响应。排在前面的请求还没处理完时，后面的响应只能先等着
+     */
+    void onWritable() throws IOException {
+        if (webSocket != null) {
+            webSocketTransport.flush();
+            return;
+        }
+        Exchange head;
+        while ((head = exchanges.peek()) != null) {
+
+            NioResponseBuffer.Segment segment;
+            while ((segment = head.segments.peek()) != null) {
+                final boolean completed = segment.writeTo(socketChannel);
+                lastActiveMillis = System.currentTimeMillis();
+                if (!completed) {
+                    // 网络缓冲区满了，等下次可写时再接着写
+                    writePending = true;
+                    updateInterestOps();
+                    return;
+                }
+                head.segments.poll();
+            }
+            writePending = false;
+            if (!head.processed) {
+                break; // 响应还在生成中
+            }
+
+            exchanges.poll();
+            if (head.webSocket != null) {
+                startWebSocket(head);
+                return;
+            }
+            if (!head.keepAlive) {
+                close();
+                return;
+            }
+        }
+        closeIfDone();
+        if (socketChannel.isOpen()) {
+            updateInterestOps();
+        }
+    }
+
+    private void updateInterestOps() {
+        if (!key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (webSocket != null || (!noMoreRequests && !upgrading && exchanges.size() < Constants.Server.MAX_PIPELINED_REQUESTS)) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (writePending) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * 客户端不会再发送请求，且所有响应都已发送完毕时关闭连接
+     */
+    private void closeIfDone() {
+        if (noMoreRequests && exchanges.isEmpty()) {
+            close();
+        }
+    }
+
+    /**
+     * 判断连接是否空闲超时。第一个请求使用连接超时时间，之后使用KeepAlive的空闲超时时间
+     */
+    boolean isIdleTimeout(long now) {
+        if (webSocket != null) {
+            return isWebSocketIdleTimeout(now);
+        }
+        if (!exchanges.isEmpty()) {
+            return false;
+        }
+        final Integer connectionTimeoutMillis = Constants.Server.CONNECTION_TIMEOUT_MILLIS;
+        final long timeoutMillis;
+        if (requestCount > 0) {
+            timeoutMillis = Constants.Server.KEEP_ALIVE_TIMEOUT_MILLIS;
+        } else if (connectionTimeoutMillis != null && connectionTimeoutMillis > 0) {
+            timeoutMillis = connectionTimeoutMillis;
+        } else {
+            return false;
+        }
+        return now - lastActiveMillis > timeoutMillis;
+    }
+
+    void close() {
+        for (Exchange exchange : exchanges) {
+            exchange.segments.forEach(NioResponseBuffer.Segment::release);
+            if (!exchange.dispatched) {
+                BufferPool.release(exchange.requestBytes); // 已经交给线程池的请求由线程池中的线程还
+            } else if (!exchange.processed && exchange.responseBuffer != null) {
+                exchange.responseBuffer.abort(); // 正在生成响应的线程不用再等着发送了
+            }
+        }
+        exchanges.clear();
+        BufferPool.release(buffer);
+        buffer = null;
+        if (webSocket != null) {
+            webSocketTransport.frames.clear();
+            webSocket.onDisconnect();
+        }
+        key.cancel();
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+        }
+    }
+
+    /**
+     * 握手的响应发送完了，之后按WebSocket的帧读写数据
+     */
+    private void startWebSocket(Exchange exchange) {
+        webSocket = exchange.webSocket;
+        webSocketTransport = exchange.webSocketTransport;
+        upgrading = false;
+        lastActiveMillis = System.currentTimeMillis();
+        webSocket.open();
+        // 客户端在收到101之前就发过来的帧
+        if (buffer != null) {
+            webSocket.onData(buffer, start, length);
+            BufferPool.release(buffer);
+            buffer = null;
+            start = length = 0;
+        }
+        updateInterestOps();
+    }
+
+    /**
+     * 读取WebSocket的帧并解码，完整的消息交给线程池处理。缓冲区用完就还回去，空闲的WebSocket连接不占用缓冲区
+     */
+    private void readWebSocketFrames() throws IOException {
+        final byte[] readBuffer = BufferPool.allocate(WEBSOCKET_READ_BUFFER_SIZE);
+        try {
+            final int bytesRead = socketChannel.read(ByteBuffer.wrap(readBuffer));
+            if (bytesRead == -1) {
+                close();
+                return;
+            }
+            lastActiveMillis = System.currentTimeMillis();
+            webSocket.onData(readBuffer, 0, bytesRead);
+        } finally {
+            BufferPool.release(readBuffer);
+        }
+    }
+
+    /**
+     * WebSocket连接空闲了一个间隔时发送ping，发送ping后又空闲了一个间隔时认为客户端已经断开
+     */
+    private boolean isWebSocketIdleTimeout(long now) {
+        final int pingInterval = Constants.Server.WEBSOCKET_PING_INTERVAL_MILLIS;
+        if (pingInterval <= 0 || now - lastActiveMillis < pingInterval) {
+            return false;
+        }
+        lastActiveMillis = now;
+        return !webSocket.ping();
+    }
+
+    /**
+     * 判断请求的method是否是安全的(只读取数据、不修改数据)，安全的请求才能并行处理
+     */
+    private static boolean isSafeMethod(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method);
+    }
+
+    /**
+     * Response中发送错误响应的方法，如sendServiceUnavailable()
+     */
+    @FunctionalInterface
+    private interface ErrorResponse {
+        void send(Response response) throws IOException;
+    }
+
+    /**
+     * pipelining中的一次请求和它的响应
+     */
+    private static final class Exchange {
+
+        /**
+         * 完整的请求，从BufferPool借的，由处理请求的线程还回去
+         */
+        private final byte[] requestBytes;
+        private final int requestLength;
+        private final HttpRequestParser head;
+        private final boolean safe;
+        private final boolean lastRequest;
+        private boolean dispatched;
+        /**
+         * 组成响应的各个段中还没发送的部分。由线程池中的线程生成，通过NioEventLoop.execute()交回NioEventLoop线程后再放进来
+         */
+        private final Deque<NioResponseBuffer.Segment> segments = new ArrayDeque<>();
+        /**
+         * 响应是否已经全部生成完了
+         */
+        private boolean processed;
+        private boolean keepAlive;
+        private volatile NioResponseBuffer responseBuffer;
+        /**
+         * 请求是WebSocket握手请求时，NioEventLoop线程在解析完请求头后查找到的handler
+         */
+        private Router.Match<MiniWebSocketHandler> webSocketEndpoint;
+        /**
+         * 握手成功时由处理请求的线程设置，101发送完后切换为WebSocket连接
+         */
+        private WebSocketSession webSocket;
+        private NioWebSocketTransport webSocketTransport;
+
+        Exchange(byte[] requestBytes, int requestLength, HttpRequestParser head, boolean safe, boolean lastRequest) {
+            this.requestBytes = requestBytes;
+            this.requestLength = requestLength;
+            this.head = head;
+            this.safe = safe;
+            this.lastRequest = lastRequest;
+        }
+    }
+
+    /**
+     * NIO模式下发送WebSocket的帧。其他线程调用write()时只是把帧交给NioEventLoop线程，由NioEventLoop线程按顺序发送，
+     * 网络缓冲区满了就等下次可写时接着发送，不会阻塞发送消息的线程
+     */
+    private final class NioWebSocketTransport implements WebSocketSession.Transport {
+
+        /**
+         * 排队等待发送的帧，只在NioEventLoop线程中访问
+         */
+        private final Deque<ByteBuffer> frames = new ArrayDeque<>();
+        /**
+         * 已经调用write()但还没发送完的字节数，用来发现接收得太慢的客户端
+         */
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private boolean closeAfterWrite;
+
+        @Override
+        public void write(byte[] frame) throws IOException {
+            if (pendingBytes.addAndGet(frame.length) > Constants.Server.WEBSOCKET_MAX_PENDING_BYTES) {
+                // 与其让消息无限制地堆积在内存中，不如关闭连接，让客户端重新连接
+                eventLoop.execute(NioConnection.this, NioConnection.this::close);
+                throw new IOException("客户端接收得太慢，等待发送的数据太多，关闭连接");
+            }
+            eventLoop.execute(NioConnection.this, () -> {
+                frames.add(ByteBuffer.wrap(frame));
+                if (!writePending) {
+                    flushQuietly();
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            eventLoop.execute(NioConnection.this, () -> {
+                closeAfterWrite = true;
+                if (!writePending) {
+                    flushQuietly();
+                }
+            });
+        }
+
+        /**
+         * 尽可能多地发送排队的帧，多个帧通过一次gathering write发送。只能在NioEventLoop线程中调用
+         */
+        void flush() throws IOException {
+            if (!socketChannel.isOpen()) {
+                frames.clear();
+                return;
+            }
+            while (!frames.isEmpty()) {
+                socketChannel.write(frames.toArray(new ByteBuffer[0]));
+                ByteBuffer frame;
+                while ((frame = frames.peek()) != null && !frame.hasRemaining()) {
+                    frames.poll();
+                    pendingBytes.addAndGet(-frame.capacity());
+                }
+                if (frame != null) {
+                    // 网络缓冲区满了，等下次可写时再接着写
+                    writePending = true;
+                    updateInterestOps();
+                    return;
+                }
+            }
+            writePending = false;
+            if (closeAfterWrite) {
+                NioConnection.this.close();
+                return;
+            }
+            updateInterestOps();
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                LOGGER.debug("an error occurs: ", e);
+                NioConnection.this.close();
+            }
+        }
+    }
+}
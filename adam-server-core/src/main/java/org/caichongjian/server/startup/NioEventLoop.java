@@ -0,0 +1,170 @@
+package org.caichongjian.server.startup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>NIO模式下的I/O线程，一个NioEventLoop对应一个Selector，负责其上所有连接的读写。</p>
+ * <p>连接的状态只在NioEventLoop线程中读写，其他线程(accept线程、线程池中的线程)通过execute()提交任务，
+ * 由NioEventLoop线程来执行，这样NioConnection就不需要加锁了。</p>
+ */
+class NioEventLoop implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioEventLoop.class);
+
+    /**
+     * select的超时时间，单位为毫秒。每隔这么长时间检查一次是否有超时的空闲连接(包括KeepAlive连接)
+     */
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    private final JobExecutor jobExecutor;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    NioEventLoop(JobExecutor jobExecutor) throws IOException {
+        this.jobExecutor = jobExecutor;
+        this.selector = Selector.open();
+    }
+
+    JobExecutor getJobExecutor() {
+        return jobExecutor;
+    }
+
+    /**
+     * 将accept到的连接注册到当前NioEventLoop。可由任意线程调用
+     */
+    void register(SocketChannel socketChannel) {
+        execute(() -> {
+            try {
+                socketChannel.configureBlocking(false);
+                final SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(this, socketChannel, key));
+                LOGGER.debug("客户端: {} 已连接到服务器", socketChannel.getRemoteAddress());
+            } catch (IOException e) {
+                LOGGER.error("an error occurs: ", e);
+                closeQuietly(socketChannel);
+            }
+        });
+    }
+
+    /**
+     * 提交一个任务到NioEventLoop线程中执行。可由任意线程调用
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * 提交一个属于某个连接的任务，任务出错时只关闭这个连接，不影响同一个NioEventLoop上的其他连接。可由任意线程调用
+     */
+    void execute(NioConnection connection, Runnable task) {
+        execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("an error occurs: ", e);
+                connection.close();
+            }
+        });
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastIdleCheckMillis = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                runTasks();
+                processSelectedKeys();
+
+                final long now = System.currentTimeMillis();
+                if (now - lastIdleCheckMillis >= SELECT_TIMEOUT_MILLIS) {
+                    lastIdleCheckMillis = now;
+                    closeIdleConnections(now);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("an error occurs: ", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.error("an error occurs: ", e);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // 一个任务出错不能让NioEventLoop线程退出，否则这个线程上的所有连接都会被关闭
+                LOGGER.error("an error occurs: ", e);
+            }
+        }
+    }
+
+    private void processSelectedKeys() {
+        final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            final SelectionKey key = iterator.next();
+            iterator.remove();
+
+            final NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                // 客户端断开连接等情况，没必要打印错误日志
+                LOGGER.debug("an error occurs: ", e);
+                connection.close();
+            } catch (RuntimeException e) {
+                // 只关闭出错的连接，NioEventLoop线程接着处理其他连接
+                LOGGER.error("an error occurs: ", e);
+                connection.close();
+            }
+        }
+    }
+
+    private void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            final NioConnection connection = (NioConnection) key.attachment();
+            if (connection.isIdleTimeout(now)) {
+                LOGGER.debug("连接空闲超时，关闭连接");
+                connection.close();
+            }
+        }
+    }
+
+    private static void closeQuietly(SocketChannel socketChannel) {
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+        }
+    }
+}
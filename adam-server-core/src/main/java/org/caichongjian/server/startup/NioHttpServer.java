@@ -0,0 +1,60 @@
+package org.caichongjian.server.startup;
+
+import org.caichongjian.server.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>基于ServerSocketChannel和Selector的NIO服务器(Reactor模式)</p>
+ * <p/>
+ * <p>BIO模式下每个连接从读取请求到发送响应都要占用线程池中的一个线程，少量慢客户端就能把线程池占满。</p>
+ * <p>NIO模式下由主线程负责accept，accept到的连接轮流分配给少量的NioEventLoop，
+ * NioEventLoop负责读取和解析请求，只有完整的请求才会交给线程池(JobExecutor)处理。</p>
+ */
+class NioHttpServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioHttpServer.class);
+
+    private final JobExecutor jobExecutor;
+    private final NioEventLoop[] eventLoops;
+
+    NioHttpServer(JobExecutor jobExecutor) {
+        this.jobExecutor = jobExecutor;
+        this.eventLoops = new NioEventLoop[Constants.Server.IO_THREADS];
+    }
+
+    void start() {
+
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+
+            serverSocketChannel.bind(new InetSocketAddress(Constants.Server.PORT));
+
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NioEventLoop(jobExecutor);
+                new Thread(eventLoops[i], "NioEventLoop-" + (i + 1)).start();
+            }
+
+            LOGGER.info("服务器已启动(NIO)，请访问http://localhost:{}", Constants.Server.PORT);
+            // accept使用阻塞模式就够了，accept到的连接按顺序轮流分配给各个NioEventLoop
+            int next = 0;
+            while (true) {
+                final SocketChannel socketChannel = serverSocketChannel.accept();
+                eventLoops[next].register(socketChannel);
+                next = (next + 1) % eventLoops.length;
+            }
+        } catch (IOException e) {
+            LOGGER.error("an error occurs: ", e);
+        } finally {
+            for (NioEventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.shutdown();
+                }
+            }
+        }
+    }
+}
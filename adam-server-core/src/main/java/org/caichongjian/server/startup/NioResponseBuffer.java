@@ -0,0 +1,304 @@
+package org.caichongjian.server.startup;
+
+import org.caichongjian.server.BufferPool;
+import org.caichongjian.server.http.FileTransferTarget;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * <p>NIO模式下暂存线程池中生成的响应，交给NioEventLoop线程发送。</p>
+ * <p>响应由若干段(Segment)组成：普通的数据，以及需要通过FileChannel.transferTo零拷贝发送的文件。
+ * 文件不会读到内存中，而是等轮到它发送时再由NioEventLoop线程打开。</p>
+ * <p>存放数据的byte数组从BufferPool借，写满了就扩容到BufferPool中最大的一档，再写满就另起一段。
+ * 每一段发送完(或者连接关闭)后由NioEventLoop线程还回BufferPool。</p>
+ * <p>较大的或者流式输出的响应不必等全部生成完：写满一段或者调用flush()时，已经生成的段就交给NioEventLoop线程先发送。
+ * 还没发送出去的数据超过MAX_PENDING_BYTES时，生成响应的线程会等NioEventLoop线程发送一部分后再继续(背压)，
+ * 这样客户端接收得再慢，一个响应占用的内存也是有上限的。</p>
+ */
+class NioResponseBuffer extends OutputStream implements FileTransferTarget {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024; // 可根据实际需要调整
+    private static final long MAX_PENDING_BYTES = 256 * 1024; // 可根据实际需要调整
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private byte[] buf;
+    private int count;
+
+    /**
+     * 把已经生成的段交给NioEventLoop线程发送，为null时只能等响应全部生成完再一起发送
+     */
+    private final Consumer<Deque<Segment>> streamHandler;
+    /**
+     * 已经交给NioEventLoop线程但还没发送出去的字节数
+     */
+    private long pendingBytes;
+    /**
+     * 连接已经关闭，不用再生成响应了
+     */
+    private boolean aborted;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+
+    NioResponseBuffer() {
+        this(null);
+    }
+
+    NioResponseBuffer(Consumer<Deque<Segment>> streamHandler) {
+        this.streamHandler = streamHandler;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensureCapacity(len);
+            final int length = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, length);
+            count += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    @Override
+    public void transferFile(Path file, long count) {
+        addBytesSegment();
+        segments.add(new FileRegion(file, count));
+    }
+
+    /**
+     * 把已经生成的数据交给NioEventLoop线程发送，发送不过来时等待
+     */
+    @Override
+    public void flush() throws IOException {
+        if (streamHandler == null) {
+            return;
+        }
+        addBytesSegment();
+        if (segments.isEmpty()) {
+            return;
+        }
+        final Deque<Segment> ready = new ArrayDeque<>(segments);
+        segments.clear();
+        lock.lock();
+        try {
+            if (aborted) {
+                ready.forEach(Segment::release);
+                throw new IOException("Connection closed.");
+            }
+            ready.forEach(segment -> pendingBytes += segment.pendingBytes());
+            streamHandler.accept(ready);
+            while (pendingBytes > MAX_PENDING_BYTES && !aborted) {
+                drained.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 响应生成完毕，返回剩下的还没交给NioEventLoop线程的段。调用后不能再写入数据
+     */
+    Deque<Segment> toSegments() {
+        addBytesSegment();
+        if (streamHandler != null) {
+            lock.lock();
+            try {
+                segments.forEach(segment -> pendingBytes += segment.pendingBytes());
+            } finally {
+                lock.unlock();
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * 连接关闭了，唤醒等待发送的线程，之后的flush()会抛出IOException。由NioEventLoop线程调用
+     */
+    void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一段数据发送完或者被丢弃了，由NioEventLoop线程调用
+     */
+    private void onReleased(long bytes) {
+        lock.lock();
+        try {
+            pendingBytes -= bytes;
+            if (pendingBytes <= MAX_PENDING_BYTES) {
+                drained.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 保证至少还能写入1个字节，尽量能写入extra个字节
+     */
+    private void ensureCapacity(int extra) throws IOException {
+        if (buf == null) {
+            buf = BufferPool.allocate(Math.max(INITIAL_BUFFER_SIZE, Math.min(extra, BufferPool.MAX_POOLED_SIZE)));
+        } else if (count + extra > buf.length) {
+            if (buf.length < BufferPool.MAX_POOLED_SIZE) {
+                buf = BufferPool.grow(buf, count, Math.min(Math.max(buf.length * 2, count + extra), BufferPool.MAX_POOLED_SIZE));
+            } else if (count == buf.length) {
+                flush(); // 写满了一段就先发送出去
+                addBytesSegment();
+                buf = BufferPool.allocate(Math.min(extra, BufferPool.MAX_POOLED_SIZE));
+            }
+        }
+    }
+
+    private void addBytesSegment() {
+        if (count > 0) {
+            // 直接使用内部的数组，不再复制一次。之后写入的数据放到新的数组中
+            segments.add(new BytesSegment(buf, count, streamHandler == null ? null : this));
+        } else {
+            BufferPool.release(buf);
+        }
+        buf = null;
+        count = 0;
+    }
+
+    /**
+     * 响应中的一段数据。只能在NioEventLoop线程中调用
+     */
+    interface Segment {
+
+        /**
+         * 尽可能多地写到socketChannel中
+         *
+         * @return 是否已经全部写完
+         */
+        boolean writeTo(SocketChannel socketChannel) throws IOException;
+
+        /**
+         * 释放占用的资源(如打开的文件、从BufferPool借的数组)
+         */
+        void release();
+
+        /**
+         * @return 占用的内存，用于背压
+         */
+        default long pendingBytes() {
+            return 0;
+        }
+    }
+
+    private static final class BytesSegment implements Segment {
+
+        private byte[] bytes;
+        private final ByteBuffer byteBuffer;
+        /**
+         * 需要背压时，发送完后通知owner
+         */
+        private final NioResponseBuffer owner;
+
+        BytesSegment(byte[] bytes, int length, NioResponseBuffer owner) {
+            this.bytes = bytes;
+            this.byteBuffer = ByteBuffer.wrap(bytes, 0, length);
+            this.owner = owner;
+        }
+
+        @Override
+        public long pendingBytes() {
+            return byteBuffer.limit();
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel socketChannel) throws IOException {
+            socketChannel.write(byteBuffer);
+            if (byteBuffer.hasRemaining()) {
+                return false;
+            }
+            release();
+            return true;
+        }
+
+        @Override
+        public void release() {
+            if (bytes == null) {
+                return;
+            }
+            BufferPool.release(bytes);
+            bytes = null;
+            if (owner != null) {
+                owner.onReleased(byteBuffer.limit());
+            }
+        }
+    }
+
+    private static final class FileRegion implements Segment {
+
+        private final Path file;
+        private final long count;
+        private long position;
+        private FileChannel fileChannel;
+
+        FileRegion(Path file, long count) {
+            this.file = file;
+            this.count = count;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel socketChannel) throws IOException {
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            while (position < count) {
+                final long bytesWritten = fileChannel.transferTo(position, count - position, socketChannel);
+                if (bytesWritten == 0) {
+                    if (position >= fileChannel.size()) {
+                        // 文件在发送过程中变小了，再等多少次可写也发送不完，只能中断响应并关闭连接
+                        throw new EOFException("File shrank while being sent: " + file);
+                    }
+                    return false; // 网络缓冲区满了
+                }
+                position += bytesWritten;
+            }
+            release();
+            return true;
+        }
+
+        @Override
+        public void release() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    // 只读打开的文件，关闭失败也没什么影响
+                }
+                fileChannel = null;
+            }
+        }
+    }
+}
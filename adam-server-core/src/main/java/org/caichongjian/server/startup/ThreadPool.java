@@ -13,7 +13,7 @@ import java.util.concurrent.*;
  *
  * @see https://doc.rust-lang.org/book/ch20-03-graceful-shutdown-and-cleanup.html
  */
-public class ThreadPool {
+public class ThreadPool implements JobExecutor {
 
     private final ExecutorService executorService;
     private final BlockingQueue<Message> messageBlockingQueue;
@@ -32,10 +32,22 @@ public class ThreadPool {
         }
     }
 
+    @Override
     public void execute(Runnable job) throws InterruptedException {
         messageBlockingQueue.put(new JobMessage(job));
     }
 
+    @Override
+    public boolean tryExecute(Runnable job) {
+        return messageBlockingQueue.offer(new JobMessage(job));
+    }
+
+    @Override
+    public boolean isBusy() {
+        return !messageBlockingQueue.isEmpty();
+    }
+
+    @Override
     public void drop() throws InterruptedException {
         LOGGER.info("Sending terminate message to all workers.");
         for (int i = 0; i < workers.size(); i++) {
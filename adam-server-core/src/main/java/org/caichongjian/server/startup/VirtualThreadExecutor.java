@@ -0,0 +1,75 @@
+package org.caichongjian.server.startup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>每个工作使用一个虚拟线程(thread-per-request)。</p>
+ * <p>虚拟线程阻塞时不会占用平台线程，controller中的JDBC、调用下游服务等阻塞操作可以支撑大量的并发请求，
+ * 而且execute()不会像ThreadPool那样在队列满的时候阻塞，也就不会影响accept新的连接。</p>
+ * <p/>
+ * <p>虚拟线程是Java 21的正式特性，adam-server目前按Java 11编译，所以只能通过反射创建。
+ * 运行在不支持虚拟线程的JDK上时，JobExecutor.create()改为使用ThreadPool，不会退化为没有上限的平台线程。</p>
+ */
+public class VirtualThreadExecutor implements JobExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+
+    private final ExecutorService executorService;
+
+    /**
+     * @throws IllegalStateException 当前JDK不支持虚拟线程，可以先调用isSupported()判断
+     */
+    public VirtualThreadExecutor() {
+        executorService = newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * @return 当前JDK是否支持虚拟线程
+     */
+    public static boolean isSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        executorService.execute(job);
+    }
+
+    @Override
+    public boolean tryExecute(Runnable job) {
+        executorService.execute(job);
+        return true;
+    }
+
+    @Override
+    public void drop() throws InterruptedException {
+        LOGGER.info("Waiting for all running jobs to finish.");
+        executorService.shutdown();
+        executorService.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            final ExecutorService virtualThreadExecutor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            LOGGER.info("使用虚拟线程处理请求");
+            return virtualThreadExecutor;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("当前JDK不支持虚拟线程，需要Java 21+", e);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("创建虚拟线程失败", e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.caichongjian.server.startup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>基于work stealing的线程池。</p>
+ * <p/>
+ * <p>ThreadPool中所有的Worker都从同一个ArrayBlockingQueue中取工作，每取一次都要竞争同一把锁，CPU核数多的时候这把锁很容易成为瓶颈。
+ * 这里直接使用了JDK的ForkJoinPool(asyncMode=true)：每个工作线程有自己的双端队列，自己的队列空了就去"偷"别的线程的工作，全程无锁。</p>
+ * <p>与ThreadPool的不同之处：</p>
+ * <ul>
+ *     <li>排队的工作数量有上限，超过上限时按RejectionPolicy处理，而不是阻塞调用execute()的线程</li>
+ *     <li>通过shutdown状态而不是TerminateMessage来终止Worker</li>
+ *     <li>每个工作只需要创建一个Job对象，执行工作时也不打印日志</li>
+ * </ul>
+ */
+public class WorkStealingThreadPool implements JobExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkStealingThreadPool.class);
+
+    private final ForkJoinPool forkJoinPool;
+    private final RejectionPolicy rejectionPolicy;
+    /**
+     * 已经提交但还没执行完的工作数量的上限(正在执行的+排队的)
+     */
+    private final int maxPendingJobs;
+    private final int size;
+    private final AtomicInteger pendingJobs = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * 超过排队上限时的处理方式
+     */
+    public enum RejectionPolicy {
+        /**
+         * 抛出RejectedExecutionException，由调用方处理(如响应503)
+         */
+        ABORT,
+        /**
+         * 由调用execute()的线程自己执行这个工作，从而减慢提交工作的速度。NIO模式下通过tryExecute()提交，不会阻塞I/O线程，仍然响应503
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * 创建线程池
+     *
+     * @param size            线程池大小
+     * @param queueCapacity   最多有多少个工作在排队
+     * @param rejectionPolicy 超过排队上限时的处理方式
+     */
+    public WorkStealingThreadPool(int size, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+        this.size = size;
+        this.maxPendingJobs = size + queueCapacity;
+        this.forkJoinPool = new ForkJoinPool(size, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("WorkStealingWorker-" + (thread.getPoolIndex() + 1));
+            return thread;
+        }, null, true);
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        if (shutdown) {
+            throw new RejectedExecutionException("ThreadPool has been shut down.");
+        }
+        if (!tryAcquire()) {
+            if (rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+                job.run();
+                return;
+            }
+            throw new RejectedExecutionException("Too many pending jobs.");
+        }
+        try {
+            forkJoinPool.execute(new Job(job));
+        } catch (RejectedExecutionException e) {
+            pendingJobs.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean tryExecute(Runnable job) {
+        if (shutdown) {
+            throw new RejectedExecutionException("ThreadPool has been shut down.");
+        }
+        // 不管RejectionPolicy是什么，都不能由调用方自己执行
+        if (!tryAcquire()) {
+            return false;
+        }
+        try {
+            forkJoinPool.execute(new Job(job));
+        } catch (RejectedExecutionException e) {
+            pendingJobs.decrementAndGet();
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isBusy() {
+        return pendingJobs.get() > size;
+    }
+
+    @Override
+    public void drop() throws InterruptedException {
+        LOGGER.info("Shutting down, waiting for all pending jobs to finish.");
+        shutdown = true;
+        forkJoinPool.shutdown();
+        forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    /**
+     * 占用一个排队的名额，名额用完时返回false
+     */
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = pendingJobs.get();
+            if (current >= maxPendingJobs) {
+                return false;
+            }
+        } while (!pendingJobs.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * 直接继承ForkJoinTask，ForkJoinPool就不需要再用RunnableExecuteAction包装一次了
+     */
+    private final class Job extends ForkJoinTask<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Runnable runnable;
+
+        Job(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public Void getRawResult() {
+            return null;
+        }
+
+        @Override
+        protected void setRawResult(Void value) {
+            // 没有返回值
+        }
+
+        @Override
+        protected boolean exec() {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("an error occurs: ", e);
+            } finally {
+                pendingJobs.decrementAndGet();
+            }
+            return true;
+        }
+    }
+}
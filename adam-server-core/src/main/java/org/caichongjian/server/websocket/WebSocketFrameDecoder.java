@@ -0,0 +1,295 @@
+package org.caichongjian.server.websocket;
+
+import org.caichongjian.server.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>解码客户端发送的WebSocket帧(RFC 6455)。和HttpRequestParser一样，数据不完整时记住解码到了哪里，下次收到数据后接着解码，
+ * 每个字节只处理一次，BIO和NIO共用。</p>
+ * <p>客户端发送的帧必须加掩码，数据一边复制一边去掉掩码。分片的消息在这里拼接完整后才交给Listener，
+ * 分片之间可以插入ping、pong等控制帧。消息的缓冲区从BufferPool借，一条消息处理完就还回去，空闲的连接不占用缓冲区。</p>
+ * <p>只能在一个线程中使用(BIO模式下是处理这个连接的线程，NIO模式下是NioEventLoop线程)。</p>
+ */
+final class WebSocketFrameDecoder {
+
+    /**
+     * 解码出来的完整的消息和控制帧
+     */
+    interface Listener {
+
+        void onText(String message);
+
+        void onBinary(byte[] message);
+
+        void onPing(byte[] payload);
+
+        void onPong(byte[] payload);
+
+        /**
+         * @param code   关闭码，close帧中没有关闭码时为1005
+         * @param reason 关闭的原因，可能为空字符串
+         */
+        void onClose(int code, String reason);
+    }
+
+    private final Listener listener;
+    private final int maxMessageSize;
+
+    /**
+     * 当前帧的帧头，最长14个字节(2 + 8字节的长度 + 4字节的掩码)
+     */
+    private final byte[] header = new byte[14];
+    private int headerLength;
+    /**
+     * 是否已经解析完帧头，正在读取payload
+     */
+    private boolean inPayload;
+    private boolean fin;
+    private int opcode;
+    private final byte[] mask = new byte[4];
+    private int maskIndex;
+    private long payloadRemaining;
+
+    /**
+     * 正在拼接的消息的操作码(text或者binary)，-1表示没有正在拼接的消息
+     */
+    private int messageOpcode = -1;
+    private byte[] message;
+    private int messageLength;
+    private final byte[] control = new byte[WebSocketFrames.MAX_CONTROL_PAYLOAD];
+    private int controlLength;
+    /**
+     * 收到close帧后不再解码后面的数据
+     */
+    private boolean closed;
+
+    /**
+     * @param listener       接收解码出来的消息和控制帧
+     * @param maxMessageSize 一条消息(分片的消息合起来)最多多少字节
+     */
+    WebSocketFrameDecoder(Listener listener, int maxMessageSize) {
+        this.listener = listener;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * 解码buffer[offset, end)中的数据，解码出完整的消息或控制帧时调用Listener。数据会被全部处理掉，不完整的部分记在这里
+     *
+     * @throws WebSocketProtocolException 客户端发送的帧不符合协议，或者消息太长
+     */
+    void decode(byte[] buffer, int offset, int end) {
+        int position = offset;
+        while (position < end && !closed) {
+            if (!inPayload) {
+                position = readHeader(buffer, position, end);
+                if (!inPayload) {
+                    return; // 帧头还没收完整
+                }
+                if (payloadRemaining == 0) {
+                    finishFrame();
+                    continue;
+                }
+            }
+            final int length = (int) Math.min(end - position, payloadRemaining);
+            if (opcode >= WebSocketFrames.OPCODE_CLOSE) {
+                unmask(buffer, position, control, controlLength, length);
+                controlLength += length;
+            } else {
+                unmask(buffer, position, message, messageLength, length);
+                messageLength += length;
+            }
+            position += length;
+            payloadRemaining -= length;
+            if (payloadRemaining == 0) {
+                finishFrame();
+            }
+        }
+    }
+
+    /**
+     * 把帧头复制到header中，帧头完整时解析并检查
+     *
+     * @return 处理到了buffer中的哪个位置
+     */
+    private int readHeader(byte[] buffer, int position, int end) {
+        while (position < end) {
+            header[headerLength++] = buffer[position++];
+            if (headerLength >= 2 && headerLength == headerSize()) {
+                parseHeader();
+                break;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 根据帧头的前两个字节计算帧头的长度
+     */
+    private int headerSize() {
+        final int length = header[1] & 0x7F;
+        return 2 + (length == 126 ? 2 : length == 127 ? 8 : 0) + ((header[1] & 0x80) != 0 ? 4 : 0);
+    }
+
+    private void parseHeader() {
+        fin = (header[0] & 0x80) != 0;
+        opcode = header[0] & 0x0F;
+        if ((header[0] & 0x70) != 0) {
+            throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "不支持扩展，RSV必须为0");
+        }
+        if ((header[1] & 0x80) == 0) {
+            throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "客户端发送的帧必须加掩码");
+        }
+
+        final int length = header[1] & 0x7F;
+        int index = 2;
+        if (length == 126) {
+            payloadRemaining = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            index = 4;
+        } else if (length == 127) {
+            payloadRemaining = 0;
+            for (; index < 10; index++) {
+                payloadRemaining = (payloadRemaining << 8) | (header[index] & 0xFF);
+            }
+            if (payloadRemaining < 0) {
+                throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "帧的长度不合法");
+            }
+        } else {
+            payloadRemaining = length;
+        }
+        System.arraycopy(header, index, mask, 0, 4);
+        maskIndex = 0;
+
+        switch (opcode) {
+            case WebSocketFrames.OPCODE_CLOSE:
+            case WebSocketFrames.OPCODE_PING:
+            case WebSocketFrames.OPCODE_PONG:
+                if (!fin || payloadRemaining > WebSocketFrames.MAX_CONTROL_PAYLOAD) {
+                    throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "控制帧不能分片，并且不能超过125个字节");
+                }
+                controlLength = 0;
+                break;
+            case WebSocketFrames.OPCODE_TEXT:
+            case WebSocketFrames.OPCODE_BINARY:
+                if (messageOpcode != -1) {
+                    throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "上一条消息的分片还没有结束");
+                }
+                messageOpcode = opcode;
+                messageLength = 0;
+                ensureMessageCapacity();
+                break;
+            case WebSocketFrames.OPCODE_CONTINUATION:
+                if (messageOpcode == -1) {
+                    throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "没有可以继续的分片");
+                }
+                ensureMessageCapacity();
+                break;
+            default:
+                throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "不支持的操作码: " + opcode);
+        }
+        inPayload = true;
+    }
+
+    /**
+     * 确保消息的缓冲区能放下当前帧的payload，消息太长时抛出异常
+     */
+    private void ensureMessageCapacity() {
+        final long required = messageLength + payloadRemaining;
+        if (required > maxMessageSize) {
+            throw new WebSocketProtocolException(WebSocketFrames.CLOSE_MESSAGE_TOO_BIG, "消息太长");
+        }
+        if (message == null) {
+            message = BufferPool.allocate((int) required);
+        } else if (required > message.length) {
+            // 分片的消息一般会有好几片，按两倍扩容，不用每片都复制一次
+            message = BufferPool.grow(message, messageLength, (int) Math.min(maxMessageSize, Math.max(required, message.length * 2L)));
+        }
+    }
+
+    private void unmask(byte[] src, int srcPos, byte[] dest, int destPos, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[destPos + i] = (byte) (src[srcPos + i] ^ mask[maskIndex]);
+            maskIndex = (maskIndex + 1) & 3;
+        }
+    }
+
+    private void finishFrame() {
+        inPayload = false;
+        headerLength = 0;
+        switch (opcode) {
+            case WebSocketFrames.OPCODE_PING:
+                listener.onPing(Arrays.copyOf(control, controlLength));
+                break;
+            case WebSocketFrames.OPCODE_PONG:
+                listener.onPong(Arrays.copyOf(control, controlLength));
+                break;
+            case WebSocketFrames.OPCODE_CLOSE:
+                finishClose();
+                break;
+            default:
+                if (fin) {
+                    finishMessage();
+                }
+        }
+    }
+
+    private void finishClose() {
+        closed = true;
+        releaseMessage();
+        if (controlLength == 0) {
+            listener.onClose(WebSocketFrames.CLOSE_NO_STATUS, "");
+            return;
+        }
+        final int code = controlLength >= 2 ? ((control[0] & 0xFF) << 8) | (control[1] & 0xFF) : -1;
+        if (!WebSocketFrames.isValidCloseCode(code)) {
+            throw new WebSocketProtocolException(WebSocketFrames.CLOSE_PROTOCOL_ERROR, "关闭码不合法: " + code);
+        }
+        listener.onClose(code, decodeUtf8(control, 2, controlLength - 2));
+    }
+
+    private void finishMessage() {
+        final int finishedOpcode = messageOpcode;
+        final byte[] finishedMessage = message;
+        final int finishedLength = messageLength;
+        messageOpcode = -1;
+        message = null;
+        messageLength = 0;
+        try {
+            if (finishedOpcode == WebSocketFrames.OPCODE_TEXT) {
+                listener.onText(decodeUtf8(finishedMessage, 0, finishedLength));
+            } else {
+                listener.onBinary(Arrays.copyOf(finishedMessage, finishedLength));
+            }
+        } finally {
+            BufferPool.release(finishedMessage);
+        }
+    }
+
+    /**
+     * 把还没拼接完的消息的缓冲区还回去。连接关闭时也要调用
+     */
+    void releaseMessage() {
+        BufferPool.release(message);
+        message = null;
+        messageOpcode = -1;
+    }
+
+    /**
+     * 文本消息和关闭的原因必须是合法的UTF-8，不能像new String()那样把不合法的字节替换成�
+     */
+    private static String decodeUtf8(byte[] bytes, int offset, int length) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, length))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            throw new WebSocketProtocolException(WebSocketFrames.CLOSE_INVALID_DATA, "不是合法的UTF-8");
+        }
+    }
+}
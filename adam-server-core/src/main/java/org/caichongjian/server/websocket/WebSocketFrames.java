@@ -0,0 +1,102 @@
+package org.caichongjian.server.websocket;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>RFC 6455中帧的操作码、关闭码，以及服务器发送的帧的编码。</p>
+ * <p>服务器发送的帧不加掩码，每条消息都作为一个FIN帧发送，不分片。</p>
+ */
+final class WebSocketFrames {
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    /**
+     * 收到的close帧中没有关闭码，只能用在afterConnectionClosed中，不能发送
+     */
+    static final int CLOSE_NO_STATUS = 1005;
+    /**
+     * 连接没有经过关闭握手就断开了，只能用在afterConnectionClosed中，不能发送
+     */
+    static final int CLOSE_ABNORMAL = 1006;
+    static final int CLOSE_INVALID_DATA = 1007;
+    static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+    static final int CLOSE_INTERNAL_ERROR = 1011;
+
+    /**
+     * 控制帧(close、ping、pong)的payload最多125个字节
+     */
+    static final int MAX_CONTROL_PAYLOAD = 125;
+
+    static final byte[] PING = encode(OPCODE_PING, new byte[0], 0, 0);
+
+    private WebSocketFrames() {
+    }
+
+    /**
+     * 编码一个完整的(FIN)帧
+     *
+     * @param opcode  操作码
+     * @param payload 数据
+     * @param offset  数据在payload中的起始位置
+     * @param length  数据的长度
+     * @return 帧头和数据拼在一起的数组，可以直接发送
+     */
+    static byte[] encode(int opcode, byte[] payload, int offset, int length) {
+        final int headerLength = length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10;
+        final byte[] frame = new byte[headerLength + length];
+        frame[0] = (byte) (0x80 | opcode);
+        if (headerLength == 2) {
+            frame[1] = (byte) length;
+        } else if (headerLength == 4) {
+            frame[1] = 126;
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+        } else {
+            frame[1] = 127;
+            // 数组的长度不会超过int，前4个字节都是0
+            frame[6] = (byte) (length >>> 24);
+            frame[7] = (byte) (length >>> 16);
+            frame[8] = (byte) (length >>> 8);
+            frame[9] = (byte) length;
+        }
+        System.arraycopy(payload, offset, frame, headerLength, length);
+        return frame;
+    }
+
+    /**
+     * 编码一个close帧。1005、1006不能发送，这时发送没有关闭码的close帧
+     *
+     * @param code   关闭码
+     * @param reason 关闭的原因，超过123个字节时截断
+     * @return close帧
+     */
+    static byte[] encodeClose(int code, String reason) {
+        if (code == CLOSE_NO_STATUS || code == CLOSE_ABNORMAL) {
+            return encode(OPCODE_CLOSE, new byte[0], 0, 0);
+        }
+        final byte[] reasonBytes = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+        int reasonLength = Math.min(reasonBytes.length, MAX_CONTROL_PAYLOAD - 2);
+        while (reasonLength < reasonBytes.length && reasonLength > 0 && (reasonBytes[reasonLength] & 0xC0) == 0x80) {
+            reasonLength--; // 不能从一个字符的中间截断，否则客户端会认为不是合法的UTF-8
+        }
+        final byte[] payload = new byte[2 + reasonLength];
+        payload[0] = (byte) (code >>> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(reasonBytes, 0, payload, 2, reasonLength);
+        return encode(OPCODE_CLOSE, payload, 0, payload.length);
+    }
+
+    /**
+     * 判断关闭码能不能出现在close帧中。1000-1003、1007-1011是协议定义的，3000-4999留给框架和应用使用，其他的不能使用
+     */
+    static boolean isValidCloseCode(int code) {
+        return (code >= 1000 && code <= 1003) || (code >= 1007 && code <= 1011) || (code >= 3000 && code <= 4999);
+    }
+}
@@ -0,0 +1,151 @@
+package org.caichongjian.server.websocket;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.net.HttpHeaders;
+import org.caichongjian.annotations.MiniWebSocket;
+import org.caichongjian.api.MiniWebSocketHandler;
+import org.caichongjian.server.Router;
+import org.caichongjian.server.http.Request;
+import org.caichongjian.server.http.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>WebSocket的路由和握手(RFC 6455 4.2)。握手请求是普通的HTTP GET请求，带有Upgrade: websocket等请求头，
+ * 握手成功后响应101，之后这个连接上不再有HTTP请求，改为按WebSocket的帧读写数据。</p>
+ * <p>不支持扩展(如permessage-deflate)和子协议，客户端请求了也不会在响应中同意。</p>
+ */
+public final class WebSocketProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketProcessor.class);
+    private static final Router<MiniWebSocketHandler> ROUTER = new Router<>();
+    private static final Set<String> HANDSHAKE_METHODS = Set.of("GET");
+    private static final String WEBSOCKET = "websocket";
+    private static final String SUPPORTED_VERSION = "13";
+    /**
+     * 计算Sec-WebSocket-Accept时拼在Sec-WebSocket-Key后面的字符串，协议规定的
+     */
+    private static final String KEY_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private WebSocketProcessor() {
+    }
+
+    /**
+     * 添加启动时扫描到的@MiniWebSocket类
+     */
+    public static void addEndpoint(Class<?> clazz) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
+        final MiniWebSocket annotation = clazz.getAnnotation(MiniWebSocket.class);
+        Preconditions.checkState(MiniWebSocketHandler.class.isAssignableFrom(clazz), "@MiniWebSocket类必须实现MiniWebSocketHandler: %s", clazz.getName());
+        addEndpoint(annotation.value(), (MiniWebSocketHandler) clazz.getConstructor().newInstance());
+    }
+
+    /**
+     * 添加uri和handler的映射，编译时生成的路由表也通过这个方法注册
+     *
+     * @param uri     @MiniWebSocket.value()
+     * @param handler handler实例
+     */
+    public static void addEndpoint(String uri, MiniWebSocketHandler handler) {
+        ROUTER.add(uri, HANDSHAKE_METHODS, handler);
+        LOGGER.debug("WebSocket: {} -> {}", uri, handler.getClass().getName());
+    }
+
+    /**
+     * 判断请求是不是要升级为WebSocket，并查找对应的handler。NIO模式下在NioEventLoop线程中解析完请求头后就调用，这时还没有Request
+     *
+     * @param method  请求方式
+     * @param uri     请求的uri
+     * @param upgrade 请求头中的Upgrade
+     * @return 查找结果，请求不是WebSocket握手请求或者uri没有对应的handler时返回null，按普通的HTTP请求处理
+     */
+    public static Router.Match<MiniWebSocketHandler> route(String method, String uri, String upgrade) {
+        if (upgrade == null || !WEBSOCKET.equalsIgnoreCase(upgrade.trim())) {
+            return null;
+        }
+        final Router.Match<MiniWebSocketHandler> match = ROUTER.find(method, uri);
+        return match == null || match.getHandler() == null ? null : match;
+    }
+
+    /**
+     * @see #route(String, String, String)
+     */
+    public static Router.Match<MiniWebSocketHandler> route(Request request) {
+        return route(request.getMethod(), request.getRequestURI(), request.getHeader(HttpHeaders.UPGRADE));
+    }
+
+    /**
+     * 检查握手请求，合法时发送101并创建WebSocketSession，不合法时发送400。调用之后这个连接都不能再处理HTTP请求了
+     *
+     * @param request          握手请求
+     * @param response         http response
+     * @param match            route()的结果
+     * @param transport        握手成功后发送帧的方式
+     * @param callbackExecutor 握手成功后按顺序调用handler的方法
+     * @return 握手成功时返回WebSocketSession，调用方把101发送出去之后再调用它的open()；握手失败时返回null，发送完400后应该关闭连接
+     * @throws IOException IO异常
+     */
+    public static WebSocketSession handshake(Request request, Response response, Router.Match<MiniWebSocketHandler> match,
+                                             WebSocketSession.Transport transport, Executor callbackExecutor) throws IOException {
+        final String key = request.getHeader(HttpHeaders.SEC_WEBSOCKET_KEY);
+        if (!SUPPORTED_VERSION.equals(request.getHeader(HttpHeaders.SEC_WEBSOCKET_VERSION))) {
+            // 告诉客户端服务器支持哪个版本
+            response.setHeader(HttpHeaders.SEC_WEBSOCKET_VERSION, SUPPORTED_VERSION);
+            response.sendBadRequest();
+            return null;
+        }
+        if (!Request.HTTP_1_1.equals(request.getProtocol()) || !hasUpgradeToken(request.getHeader(HttpHeaders.CONNECTION)) || !isValidKey(key)) {
+            response.sendBadRequest();
+            return null;
+        }
+
+        response.setHeader(HttpHeaders.UPGRADE, WEBSOCKET);
+        response.setHeader(HttpHeaders.CONNECTION, HttpHeaders.UPGRADE);
+        response.setHeader(HttpHeaders.SEC_WEBSOCKET_ACCEPT, accept(key));
+        response.sendSwitchingProtocols();
+        return new WebSocketSession(match.getHandler(), request.getRequestURI(), request.getParameterMap(), match.getVariables(),
+                transport, callbackExecutor);
+    }
+
+    /**
+     * Connection请求头可能有多个值，如"keep-alive, Upgrade"
+     */
+    private static boolean hasUpgradeToken(String connection) {
+        if (connection == null) {
+            return false;
+        }
+        for (String token : connection.split(",")) {
+            if (HttpHeaders.UPGRADE.equalsIgnoreCase(token.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sec-WebSocket-Key必须是16个字节的随机数的Base64编码
+     */
+    private static boolean isValidKey(String key) {
+        if (key == null) {
+            return false;
+        }
+        try {
+            return Base64.getDecoder().decode(key.trim()).length == 16;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("deprecation") // 协议规定的SHA-1，不是用来保证安全性的
+    private static String accept(String key) {
+        final byte[] digest = Hashing.sha1().hashString(key.trim() + KEY_GUID, StandardCharsets.US_ASCII).asBytes();
+        return Base64.getEncoder().encodeToString(digest);
+    }
+}
@@ -0,0 +1,21 @@
+package org.caichongjian.server.websocket;
+
+/**
+ * 客户端发送的帧不符合RFC 6455时抛出，服务器以closeCode发送close帧后关闭连接
+ */
+class WebSocketProtocolException extends IllegalStateException {
+
+    private final int closeCode;
+
+    WebSocketProtocolException(int closeCode, String message) {
+        super(message);
+        this.closeCode = closeCode;
+    }
+
+    /**
+     * @return 关闭连接时使用的关闭码，如1002(Protocol Error)、1007(Invalid Data)、1009(Message Too Big)
+     */
+    int getCloseCode() {
+        return closeCode;
+    }
+}
@@ -0,0 +1,289 @@
+package org.caichongjian.server.websocket;
+
+import com.google.common.base.Preconditions;
+import org.caichongjian.api.MiniWebSocketHandler;
+import org.caichongjian.api.MiniWebSocketSession;
+import org.caichongjian.server.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>一个WebSocket连接。握手成功后由BioConnection或NioConnection创建，连接上收到的数据都交给onData()解码。</p>
+ * <p>读取数据、解码都在一个线程中进行(BIO模式下是处理这个连接的线程，NIO模式下是NioEventLoop线程)，
+ * handler的方法在callbackExecutor中按顺序调用(BIO模式下就在读取数据的线程中调用，NIO模式下交给线程池)。
+ * 发送消息可以由任意线程调用，由Transport保证一个帧不会被其他帧打断。</p>
+ * <p>ping由服务器自动回复pong，连接空闲时由服务器发送ping，发现已经断开的连接。</p>
+ */
+public final class WebSocketSession implements MiniWebSocketSession {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketSession.class);
+    private static final AtomicLong ID_GENERATOR = new AtomicLong();
+
+    /**
+     * 把帧发送到客户端的方式，BIO和NIO各有各的实现
+     */
+    public interface Transport {
+
+        /**
+         * 发送一个完整的帧。可由任意线程调用
+         *
+         * @param frame 编码好的帧
+         * @throws IOException 连接已经关闭，或者等待发送的数据太多
+         */
+        void write(byte[] frame) throws IOException;
+
+        /**
+         * 把已经调用write()的帧都发送出去之后，关闭底层的连接。可由任意线程调用
+         */
+        void close();
+    }
+
+    /**
+     * handler的方法，在callbackExecutor中执行
+     */
+    @FunctionalInterface
+    private interface Callback {
+        void call() throws Exception;
+    }
+
+    private final String id = Long.toString(ID_GENERATOR.incrementAndGet());
+    private final MiniWebSocketHandler handler;
+    private final String requestURI;
+    private final Map<String, String[]> parameters;
+    private final Map<String, String> pathVariables;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final Transport transport;
+    private final Executor callbackExecutor;
+    private final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(new FrameListener(), Constants.Server.WEBSOCKET_MAX_MESSAGE_SIZE);
+    /**
+     * 是否已经发送了close帧，之后不能再发送消息
+     */
+    private final AtomicBoolean closeSent = new AtomicBoolean();
+    /**
+     * 是否已经调用(交给callbackExecutor)了afterConnectionClosed，保证只调用一次
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * 发送ping之后是否还没有收到任何数据。只在读取数据的线程中访问
+     */
+    private boolean pingPending;
+
+    /**
+     * @param handler          @MiniWebSocket的handler
+     * @param requestURI       握手请求的uri
+     * @param parameters       握手请求的query string中的参数
+     * @param pathVariables    握手请求的uri中的路径变量
+     * @param transport        发送帧的方式
+     * @param callbackExecutor 按顺序调用handler的方法
+     */
+    WebSocketSession(MiniWebSocketHandler handler, String requestURI, Map<String, String[]> parameters, Map<String, String> pathVariables,
+                     Transport transport, Executor callbackExecutor) {
+        this.handler = handler;
+        this.requestURI = requestURI;
+        this.parameters = parameters;
+        this.pathVariables = pathVariables;
+        this.transport = transport;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * 握手的响应发送出去之后调用，通知handler连接已建立
+     * 内部方法，仅供adam-server-core内部调用
+     */
+    public void open() {
+        callback(() -> handler.afterConnectionEstablished(this));
+    }
+
+    /**
+     * 解码收到的数据，解码出完整的消息后交给handler。只能在读取数据的线程中调用
+     * 内部方法，仅供adam-server-core内部调用
+     */
+    public void onData(byte[] buffer, int offset, int end) {
+        pingPending = false;
+        try {
+            decoder.decode(buffer, offset, end);
+        } catch (WebSocketProtocolException e) {
+            LOGGER.debug("WebSocket协议错误: {}", e.getMessage());
+            closeNow(e.getCloseCode(), e.getMessage());
+        }
+    }
+
+    /**
+     * 连接空闲了一段时间(Constants.Server.WEBSOCKET_PING_INTERVAL_MILLIS)时调用，发送一个ping。只能在读取数据的线程中调用
+     * 内部方法，仅供adam-server-core内部调用
+     *
+     * @return 上次发送ping之后一直没有收到任何数据时返回false，客户端可能已经断开了，应该关闭连接
+     */
+    public boolean ping() {
+        if (pingPending) {
+            return false;
+        }
+        pingPending = true;
+        if (!closeSent.get()) {
+            writeQuietly(WebSocketFrames.PING);
+        }
+        return true;
+    }
+
+    /**
+     * 底层的连接已经关闭了(客户端断开、空闲超时、服务器关闭等)。没有经过关闭握手时以1006通知handler
+     * 内部方法，仅供adam-server-core内部调用
+     */
+    public void onDisconnect() {
+        decoder.releaseMessage();
+        notifyClosed(WebSocketFrames.CLOSE_ABNORMAL, "");
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        final String[] values = parameters.get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    @Override
+    public String getPathVariable(String name) {
+        return pathVariables.get(name);
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closeSent.get();
+    }
+
+    @Override
+    public void sendText(String message) throws IOException {
+        Preconditions.checkNotNull(message, "参数[message]不能为null");
+        final byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        send(WebSocketFrames.encode(WebSocketFrames.OPCODE_TEXT, payload, 0, payload.length));
+    }
+
+    @Override
+    public void sendBinary(byte[] message) throws IOException {
+        Preconditions.checkNotNull(message, "参数[message]不能为null");
+        send(WebSocketFrames.encode(WebSocketFrames.OPCODE_BINARY, message, 0, message.length));
+    }
+
+    private void send(byte[] frame) throws IOException {
+        if (closeSent.get()) {
+            throw new IOException("WebSocket连接已关闭");
+        }
+        transport.write(frame);
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(WebSocketFrames.CLOSE_NORMAL, "");
+    }
+
+    @Override
+    public void close(int code, String reason) throws IOException {
+        Preconditions.checkState(WebSocketFrames.isValidCloseCode(code), "不能使用的关闭码: %s", code);
+        if (closeSent.compareAndSet(false, true)) {
+            // 等客户端回复close帧之后再关闭连接
+            transport.write(WebSocketFrames.encodeClose(code, reason));
+        }
+    }
+
+    /**
+     * 发送close帧后直接关闭连接，不等客户端回复。协议错误、handler出错时使用
+     */
+    private void closeNow(int code, String reason) {
+        if (closeSent.compareAndSet(false, true)) {
+            writeQuietly(WebSocketFrames.encodeClose(code, reason));
+        }
+        transport.close();
+        notifyClosed(code, reason);
+    }
+
+    private void writeQuietly(byte[] frame) {
+        try {
+            transport.write(frame);
+        } catch (IOException e) {
+            LOGGER.debug("an error occurs: ", e);
+            transport.close();
+        }
+    }
+
+    private void notifyClosed(int code, String reason) {
+        if (closed.compareAndSet(false, true)) {
+            closeSent.set(true);
+            callback(() -> handler.afterConnectionClosed(this, code, reason));
+        }
+    }
+
+    private void callback(Callback callback) {
+        callbackExecutor.execute(() -> {
+            try {
+                callback.call();
+            } catch (Exception e) {
+                LOGGER.error("WebSocket消息处理失败", e);
+                closeNow(WebSocketFrames.CLOSE_INTERNAL_ERROR, "");
+            }
+        });
+    }
+
+    /**
+     * 处理解码出来的消息和控制帧，在读取数据的线程中执行
+     */
+    private final class FrameListener implements WebSocketFrameDecoder.Listener {
+
+        @Override
+        public void onText(String message) {
+            if (!closed.get()) {
+                callback(() -> handler.handleTextMessage(WebSocketSession.this, message));
+            }
+        }
+
+        @Override
+        public void onBinary(byte[] message) {
+            if (!closed.get()) {
+                callback(() -> handler.handleBinaryMessage(WebSocketSession.this, message));
+            }
+        }
+
+        @Override
+        public void onPing(byte[] payload) {
+            if (!closeSent.get()) {
+                writeQuietly(WebSocketFrames.encode(WebSocketFrames.OPCODE_PONG, payload, 0, payload.length));
+            }
+        }
+
+        @Override
+        public void onPong(byte[] payload) {
+            // 收到任何数据都会清除pingPending，这里不需要再做什么
+        }
+
+        @Override
+        public void onClose(int code, String reason) {
+            if (closeSent.compareAndSet(false, true)) {
+                // 客户端发起的关闭，回复一个close帧完成关闭握手
+                writeQuietly(WebSocketFrames.encodeClose(code, ""));
+            }
+            transport.close();
+            notifyClosed(code, reason);
+        }
+    }
+}
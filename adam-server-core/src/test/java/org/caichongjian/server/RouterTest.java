@@ -0,0 +1,208 @@
+package org.caichongjian.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RouterTest {
+
+    private static final Set<String> ANY = Set.of();
+    private static final Set<String> GET = Set.of("GET");
+
+    /**
+     * 同一个位置上普通字符串优先，其次路径变量，再其次*，最后**
+     */
+    @Test
+    void priorityAtSamePosition() {
+        final Router<String> router = new Router<>();
+        router.add("/users/**", ANY, "catchAll");
+        router.add("/users/*", ANY, "wildcard");
+        router.add("/users/{id}", ANY, "variable");
+        router.add("/users/me", ANY, "static");
+
+        assertHandler(router, "/users/me", "static");
+        assertHandler(router, "/users/42", "variable");
+        assertEquals(Map.of("id", "42"), router.find("GET", "/users/42").getVariables());
+        assertHandler(router, "/users/42/orders", "catchAll");
+        // 路径变量和*都不匹配空的一段，**可以匹配空的部分
+        assertHandler(router, "/users/", "catchAll");
+        assertHandler(router, "/users", "catchAll");
+    }
+
+    @Test
+    void wildcardBeforeCatchAll() {
+        final Router<String> router = new Router<>();
+        router.add("/files/**", ANY, "catchAll");
+        router.add("/files/*", ANY, "wildcard");
+
+        assertHandler(router, "/files/a.txt", "wildcard");
+        assertHandler(router, "/files/dir/a.txt", "catchAll");
+    }
+
+    /**
+     * 普通字符串走不通时回退到路径变量，路径变量走不通时回退到*，都走不通时回退到**
+     */
+    @Test
+    void backtracking() {
+        final Router<String> router = new Router<>();
+        router.add("/a/static/x", ANY, "static");
+        router.add("/a/{v}/y", ANY, "variable");
+        router.add("/a/*/z", ANY, "wildcard");
+        router.add("/a/**", ANY, "catchAll");
+
+        assertHandler(router, "/a/static/x", "static");
+        assertHandler(router, "/a/static/y", "variable");
+        assertEquals(Map.of("v", "static"), router.find("GET", "/a/static/y").getVariables());
+        assertHandler(router, "/a/static/z", "wildcard");
+        assertHandler(router, "/a/static/w", "catchAll");
+        assertHandler(router, "/a/other/z", "wildcard");
+        assertHandler(router, "/a/other/x", "catchAll");
+    }
+
+    /**
+     * 回退后重新匹配到的路径变量要覆盖之前记录的位置
+     */
+    @Test
+    void backtrackingOverwritesCapturedVariables() {
+        final Router<String> router = new Router<>();
+        router.add("/x/{a}/{b}/end1", ANY, "end1");
+        router.add("/x/{a}/lit/end2", ANY, "end2");
+
+        assertHandler(router, "/x/1/lit/end2", "end2");
+        assertEquals(Map.of("a", "1"), router.find("GET", "/x/1/lit/end2").getVariables());
+        assertHandler(router, "/x/1/lit/end1", "end1");
+        assertEquals(Map.of("a", "1", "b", "lit"), router.find("GET", "/x/1/lit/end1").getVariables());
+    }
+
+    @Test
+    void catchAllOnlyAtItsOwnLevel() {
+        final Router<String> router = new Router<>();
+        router.add("/**", ANY, "root");
+        router.add("/api/v1/**", ANY, "v1");
+        router.add("/api/v1/users/{id}", ANY, "user");
+
+        assertHandler(router, "/api/v1/users/1", "user");
+        assertHandler(router, "/api/v1/users/1/x", "v1");
+        assertHandler(router, "/api/v2/users/1", "root");
+        assertHandler(router, "/", "root");
+    }
+
+    @Test
+    void methodDispatchAndAllowedMethods() {
+        final Router<String> router = new Router<>();
+        router.add("/books", GET, "list");
+        router.add("/books", Set.of("POST", "PUT"), "save");
+        router.add("/books/{id}", Set.of("DELETE"), "delete");
+
+        assertHandler(router, "GET", "/books", "list");
+        assertHandler(router, "POST", "/books", "save");
+        assertHandler(router, "PUT", "/books", "save");
+
+        // uri匹配但是请求方式不匹配，调用方据此响应405
+        final Router.Match<String> match = router.find("DELETE", "/books");
+        assertNull(match.getHandler());
+        assertEquals(Set.of("GET", "POST", "PUT"), match.getAllowedMethods());
+        assertTrue(match.getVariables().isEmpty());
+
+        final Router.Match<String> byId = router.find("GET", "/books/1");
+        assertNull(byId.getHandler());
+        assertEquals(Set.of("DELETE"), byId.getAllowedMethods());
+        assertTrue(router.find("DELETE", "/books/1").getAllowedMethods().isEmpty());
+    }
+
+    @Test
+    void anyMethodHandlerIsFallback() {
+        final Router<String> router = new Router<>();
+        router.add("/orders", GET, "get");
+        router.add("/orders", ANY, "any");
+
+        assertHandler(router, "GET", "/orders", "get");
+        assertHandler(router, "PATCH", "/orders", "any");
+        assertHandler(router, "DELETE", "/orders", "any");
+    }
+
+    @Test
+    void noMatch() {
+        final Router<String> router = new Router<>();
+        router.add("/users/{id}", ANY, "user");
+
+        assertNull(router.find("GET", "/users"));
+        assertNull(router.find("GET", "/users/"));
+        assertNull(router.find("GET", "/users/1/x"));
+        assertNull(router.find("GET", "/user/1"));
+        assertNull(router.find("GET", "users/1"));
+        assertNull(router.find("GET", null));
+    }
+
+    @Test
+    void trailingSlashIsSignificant() {
+        final Router<String> router = new Router<>();
+        router.add("/t", ANY, "noSlash");
+        router.add("/t/", ANY, "slash");
+
+        assertHandler(router, "/t", "noSlash");
+        assertHandler(router, "/t/", "slash");
+    }
+
+    @Test
+    void manyStaticSiblings() {
+        final Router<String> router = new Router<>();
+        for (int i = 0; i < 200; i++) {
+            router.add("/s/k" + i, ANY, "k" + i);
+        }
+        router.add("/s/a", ANY, "a");
+        router.add("/s/ab", ANY, "ab");
+        router.add("/s/abc", ANY, "abc");
+
+        for (int i = 0; i < 200; i++) {
+            assertHandler(router, "/s/k" + i, "k" + i);
+        }
+        assertHandler(router, "/s/a", "a");
+        assertHandler(router, "/s/ab", "ab");
+        assertHandler(router, "/s/abc", "abc");
+        assertNull(router.find("GET", "/s/abcd"));
+        assertNull(router.find("GET", "/s/k200"));
+    }
+
+    @Test
+    void variablesAreDecoded() {
+        final Router<String> router = new Router<>();
+        router.add("/users/{name}/{tag}", ANY, "user");
+
+        final Map<String, String> variables = router.find("GET", "/users/%E8%94%A1%20a/c++").getVariables();
+        assertEquals("蔡 a", variables.get("name"));
+        assertEquals("c++", variables.get("tag"));
+        assertEquals("a+b", router.find("GET", "/users/x/a%2Bb").getVariables().get("tag"));
+        // 格式不对的转义不解码，原样返回
+        assertEquals("%zz", router.find("GET", "/users/%zz/x").getVariables().get("name"));
+        assertEquals("a%", router.find("GET", "/users/x/a%").getVariables().get("tag"));
+    }
+
+    @Test
+    void invalidRoutes() {
+        final Router<String> router = new Router<>();
+        router.add("/a/{x}", GET, "get");
+        router.add("/b", ANY, "any");
+
+        assertThrows(IllegalStateException.class, () -> router.add("/a/{x}", GET, "duplicate"));
+        assertThrows(IllegalStateException.class, () -> router.add("/a/{y}", Set.of("POST"), "renamed"));
+        assertThrows(IllegalStateException.class, () -> router.add("/b", ANY, "duplicate"));
+        assertThrows(IllegalStateException.class, () -> router.add("/c/**/d", ANY, "catchAllInMiddle"));
+        assertThrows(IllegalStateException.class, () -> router.add("c", ANY, "relative"));
+    }
+
+    private static void assertHandler(Router<String> router, String path, String expected) {
+        assertHandler(router, "GET", path, expected);
+    }
+
+    private static void assertHandler(Router<String> router, String method, String path, String expected) {
+        final Router.Match<String> match = router.find(method, path);
+        assertEquals(expected, match == null ? null : match.getHandler(), method + " " + path);
+    }
+}
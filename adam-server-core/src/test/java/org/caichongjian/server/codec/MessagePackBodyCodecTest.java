@@ -0,0 +1,400 @@
+package org.caichongjian.server.codec;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessagePackBodyCodecTest {
+
+    private final MessagePackBodyCodec codec = new MessagePackBodyCodec();
+
+    @Test
+    void roundTripBean() throws IOException {
+        final Book book = newBook();
+        final Book decoded = codec.decode(new ByteArrayInputStream(encode(book)), Book.class);
+        assertBook(book, decoded);
+    }
+
+    /**
+     * 属性中的List、Map、数组按泛型参数直接解码成对应的类型，请求体中多出来的属性被忽略
+     */
+    @Test
+    void decodeGenericProperties() throws IOException {
+        final Map<String, Object> shelf = new LinkedHashMap<>();
+        shelf.put("unknown", List.of(Map.of("a", 1)));
+        shelf.put("books", List.of(newBook()));
+        shelf.put("byTitle", Map.of("续集", newBook().getSequel()));
+        shelf.put("counts", new int[]{1, -1, 300});
+        shelf.put("labels", List.of("a", "b", "a"));
+        final Shelf decoded = codec.decode(new ByteArrayInputStream(encode(shelf)), Shelf.class);
+
+        assertEquals(1, decoded.getBooks().size());
+        assertBook(newBook(), decoded.getBooks().get(0));
+        assertEquals(-1, decoded.getByTitle().get("续集").getId());
+        assertArrayEquals(new int[]{1, -1, 300}, decoded.getCounts());
+        assertEquals(Set.of("a", "b"), decoded.getLabels());
+    }
+
+    /**
+     * 请求体在任意位置被拆成两次读到，解码结果都一样
+     */
+    @Test
+    void decodeSplitAtEveryByte() throws IOException {
+        final Book book = newBook();
+        final byte[] bytes = encode(book);
+        for (int split = 0; split <= bytes.length; split++) {
+            assertBook(book, codec.decode(new SplitInputStream(bytes, split), Book.class));
+        }
+    }
+
+    @Test
+    void truncatedBodyIsRejected() throws IOException {
+        final byte[] bytes = encode(newBook());
+        for (int length = 0; length < bytes.length; length++) {
+            final InputStream inputStream = new ByteArrayInputStream(Arrays.copyOf(bytes, length));
+            final Exception e = assertThrows(Exception.class, () -> codec.decode(inputStream, Book.class), "length " + length);
+            assertTrue(e instanceof EOFException || e instanceof IllegalStateException, e.toString());
+        }
+    }
+
+    @Test
+    void integers() throws IOException {
+        final long[] values = {0, 0x7f, 0x80, 0xff, 0x100, 0xffff, 0x10000, 0xffffffffL, 0x100000000L, Long.MAX_VALUE,
+                -1, -32, -33, Byte.MIN_VALUE, Byte.MIN_VALUE - 1, Short.MIN_VALUE, Short.MIN_VALUE - 1,
+                Integer.MIN_VALUE, Integer.MIN_VALUE - 1L, Long.MIN_VALUE};
+        final int[] types = {0x00, 0x7f, 0xcc, 0xcc, 0xcd, 0xcd, 0xce, 0xce, 0xcf, 0xcf,
+                0xff, 0xe0, 0xd0, 0xd0, 0xd1, 0xd1, 0xd2, 0xd2, 0xd3, 0xd3};
+        final int[] lengths = {1, 1, 2, 2, 3, 3, 5, 5, 9, 9, 1, 1, 2, 2, 3, 3, 5, 5, 9, 9};
+        for (int i = 0; i < values.length; i++) {
+            final byte[] bytes = encode(values[i]);
+            assertEquals(types[i], bytes[0] & 0xff, "type of " + values[i]);
+            assertEquals(lengths[i], bytes.length, "length of " + values[i]);
+            assertEquals(values[i], codec.decode(new ByteArrayInputStream(bytes), Long.class));
+        }
+    }
+
+    /**
+     * 0xcf是无符号的64位整数，超过Long.MAX_VALUE时不能变成负数
+     */
+    @Test
+    void uint64() throws IOException {
+        final byte[] max = {(byte) 0xcf, -1, -1, -1, -1, -1, -1, -1, -1};
+        assertEquals(new BigInteger("18446744073709551615"), codec.decode(new ByteArrayInputStream(max), BigInteger.class));
+
+        final byte[] overLong = {(byte) 0xcf, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0};
+        assertEquals(BigInteger.ONE.shiftLeft(63), codec.decode(new ByteArrayInputStream(overLong), BigInteger.class));
+
+        final byte[] small = {(byte) 0xcf, 0, 0, 0, 0, 0, 0, 0, 42};
+        assertEquals(42L, codec.decode(new ByteArrayInputStream(small), Long.class));
+
+        // 0xce也是无符号的
+        final byte[] uint32 = {(byte) 0xce, -1, -1, -1, -1};
+        assertEquals(0xffffffffL, codec.decode(new ByteArrayInputStream(uint32), Long.class));
+
+        // 超出long范围的BigInteger按字符串编码
+        final BigInteger huge = BigInteger.ONE.shiftLeft(64);
+        assertEquals(huge, codec.decode(new ByteArrayInputStream(encode(huge)), BigInteger.class));
+    }
+
+    @Test
+    void strings() throws IOException {
+        final int[] lengths = {0, 31, 32, 0xff, 0x100, 0xffff, 0x10000};
+        final int[] types = {0xa0, 0xbf, 0xd9, 0xd9, 0xda, 0xda, 0xdb};
+        for (int i = 0; i < lengths.length; i++) {
+            final String value = "a".repeat(lengths[i]);
+            final byte[] bytes = encode(value);
+            assertEquals(types[i], bytes[0] & 0xff, "type of length " + lengths[i]);
+            assertEquals(value, codec.decode(new ByteArrayInputStream(bytes), String.class));
+        }
+        assertEquals("蔡崇建", codec.decode(new ByteArrayInputStream(encode("蔡崇建")), String.class));
+    }
+
+    @Test
+    void collectionHeaders() throws IOException {
+        final int[] sizes = {0, 15, 16, 0xffff, 0x10000};
+        final int[] arrayTypes = {0x90, 0x9f, 0xdc, 0xdc, 0xdd};
+        for (int i = 0; i < sizes.length; i++) {
+            final Integer[] array = new Integer[sizes[i]];
+            Arrays.fill(array, 1);
+            final byte[] bytes = encode(array);
+            assertEquals(arrayTypes[i], bytes[0] & 0xff, "type of size " + sizes[i]);
+            assertEquals(sizes[i], codec.decode(new ByteArrayInputStream(bytes), JSONArray.class).size());
+        }
+        final byte[] map = encode(Map.of("a", 1));
+        assertEquals(0x81, map[0] & 0xff);
+        assertEquals(1, codec.decode(new ByteArrayInputStream(map), JSONObject.class).getIntValue("a"));
+    }
+
+    @Test
+    void depthLimit() throws IOException {
+        assertEquals(1, codec.decode(new ByteArrayInputStream(nestedArrays(64)), JSONArray.class).size());
+        assertThrows(IllegalStateException.class, () -> codec.decode(new ByteArrayInputStream(nestedArrays(65)), JSONArray.class));
+
+        // map也算一层
+        final byte[] nestedMaps = new byte[65 * 2 + 1];
+        for (int i = 0; i < 65; i++) {
+            nestedMaps[i * 2] = (byte) 0x81;
+            nestedMaps[i * 2 + 1] = (byte) 0xa0;
+        }
+        nestedMaps[nestedMaps.length - 1] = (byte) 0xc0;
+        assertThrows(IllegalStateException.class, () -> codec.decode(new ByteArrayInputStream(nestedMaps), JSONObject.class));
+    }
+
+    @Test
+    void unsupportedTypes() {
+        for (int type : new int[]{0xc1, 0xc7, 0xd4, 0xd8}) {
+            final byte[] bytes = {(byte) type, 0, 0, 0};
+            assertThrows(IllegalStateException.class, () -> codec.decode(new ByteArrayInputStream(bytes), Object.class));
+        }
+    }
+
+    /**
+     * 长度是客户端发来的，不能按它一次性分配空间
+     */
+    @Test
+    void declaredLengthLargerThanBody() {
+        final byte[] str32 = {(byte) 0xdb, 0x7f, -1, -1, -1, 'a', 'b'};
+        assertThrows(IllegalStateException.class, () -> codec.decode(new ByteArrayInputStream(str32), String.class));
+        final byte[] negativeLength = {(byte) 0xc6, -1, -1, -1, -1};
+        assertThrows(IllegalStateException.class, () -> codec.decode(new ByteArrayInputStream(negativeLength), byte[].class));
+        final byte[] array32 = {(byte) 0xdd, 0x7f, -1, -1, -1, 1, 2};
+        assertThrows(EOFException.class, () -> codec.decode(new ByteArrayInputStream(array32), JSONArray.class));
+        final byte[] map32 = {(byte) 0xdf, 0x7f, -1, -1, -1, (byte) 0xa1, 'k', 1};
+        assertThrows(EOFException.class, () -> codec.decode(new ByteArrayInputStream(map32), JSONObject.class));
+    }
+
+    private byte[] encode(Object value) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        codec.encode(value, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] nestedArrays(int depth) {
+        final byte[] bytes = new byte[depth + 1];
+        Arrays.fill(bytes, (byte) 0x91);
+        bytes[depth] = (byte) 0xc0;
+        return bytes;
+    }
+
+    private static Book newBook() {
+        final Book book = new Book();
+        book.setId(Integer.MAX_VALUE + 1L);
+        book.setTitle("Adam Server 源码解析 " + "x".repeat(300));
+        book.setAvailable(true);
+        book.setRating(4.5);
+        book.setPrice(new BigDecimal("12345678901234567890.0123456789"));
+        book.setTags(List.of("java", "http", ""));
+        book.setCover(new byte[]{0, 1, -1, 127, -128});
+        book.setPublished(new Date(1600000000000L));
+        book.setAttributes(Map.of("pages", 512, "negative", -100000, "nested", List.of(Map.of("k", "v"))));
+        final Book sequel = new Book();
+        sequel.setId(-1);
+        sequel.setTitle("续集");
+        book.setSequel(sequel);
+        return book;
+    }
+
+    private static void assertBook(Book expected, Book actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.isAvailable(), actual.isAvailable());
+        assertEquals(expected.getRating(), actual.getRating());
+        assertEquals(expected.getPrice(), actual.getPrice());
+        assertEquals(expected.getTags(), actual.getTags());
+        assertArrayEquals(expected.getCover(), actual.getCover());
+        assertEquals(expected.getPublished(), actual.getPublished());
+        assertEquals(expected.getAttributes(), actual.getAttributes());
+        assertEquals(expected.getSequel().getId(), actual.getSequel().getId());
+        assertEquals(expected.getSequel().getTitle(), actual.getSequel().getTitle());
+        assertNull(actual.getSequel().getSequel());
+    }
+
+    /**
+     * 第一次read()最多返回split个字节，之后每次最多返回1个字节
+     */
+    private static final class SplitInputStream extends InputStream {
+
+        private final byte[] bytes;
+        private int split;
+        private int position;
+
+        SplitInputStream(byte[] bytes, int split) {
+            this.bytes = bytes;
+            this.split = split;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == bytes.length) {
+                return -1;
+            }
+            final int length = Math.min(len, Math.min(bytes.length - position, Math.max(split, 1)));
+            split = 1;
+            System.arraycopy(bytes, position, b, off, length);
+            position += length;
+            return length;
+        }
+    }
+
+    public static class Book {
+
+        private long id;
+        private String title;
+        private boolean available;
+        private double rating;
+        private BigDecimal price;
+        private List<String> tags;
+        private byte[] cover;
+        private Date published;
+        private Map<String, Object> attributes;
+        private Book sequel;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public boolean isAvailable() {
+            return available;
+        }
+
+        public void setAvailable(boolean available) {
+            this.available = available;
+        }
+
+        public double getRating() {
+            return rating;
+        }
+
+        public void setRating(double rating) {
+            this.rating = rating;
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public void setPrice(BigDecimal price) {
+            this.price = price;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public void setTags(List<String> tags) {
+            this.tags = tags;
+        }
+
+        public byte[] getCover() {
+            return cover;
+        }
+
+        public void setCover(byte[] cover) {
+            this.cover = cover;
+        }
+
+        public Date getPublished() {
+            return published;
+        }
+
+        public void setPublished(Date published) {
+            this.published = published;
+        }
+
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        public void setAttributes(Map<String, Object> attributes) {
+            this.attributes = attributes;
+        }
+
+        public Book getSequel() {
+            return sequel;
+        }
+
+        public void setSequel(Book sequel) {
+            this.sequel = sequel;
+        }
+    }
+
+    public static class Shelf {
+
+        private List<Book> books;
+        private Map<String, Book> byTitle;
+        private int[] counts;
+        private Set<String> labels;
+
+        public List<Book> getBooks() {
+            return books;
+        }
+
+        public void setBooks(List<Book> books) {
+            this.books = books;
+        }
+
+        public Map<String, Book> getByTitle() {
+            return byTitle;
+        }
+
+        public void setByTitle(Map<String, Book> byTitle) {
+            this.byTitle = byTitle;
+        }
+
+        public int[] getCounts() {
+            return counts;
+        }
+
+        public void setCounts(int[] counts) {
+            this.counts = counts;
+        }
+
+        public Set<String> getLabels() {
+            return labels;
+        }
+
+        public void setLabels(Set<String> labels) {
+            this.labels = labels;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.caichongjian.server.http;
+
+import org.caichongjian.server.Constants;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedDecoderTest {
+
+    private static final String BODY = "5;name=value\r\n"
+            + "hello\r\n"
+            + "B\r\n"
+            + " world, 蔡\r\n"
+            + "0\r\n"
+            + "Expires: never\r\n"
+            + "X-Checksum :  abc \r\n"
+            + "\r\n";
+    /**
+     * 请求体后面的数据(比如pipelining的下一个请求)，不能被解码器读走
+     */
+    private static final String NEXT = "GET / HTTP/1.1\r\n";
+
+    @Test
+    void decodeWholeBody() {
+        final byte[] bytes = bytes(BODY + NEXT);
+        final Decoded decoded = decode(bytes, bytes.length);
+        assertBody(decoded, bytes);
+    }
+
+    @Test
+    void decodeSplitAtEveryByte() {
+        final byte[] bytes = bytes(BODY + NEXT);
+        for (int split = 0; split <= bytes.length; split++) {
+            final Decoded decoded = decode(bytes, split, bytes.length);
+            assertBody(decoded, bytes);
+        }
+    }
+
+    @Test
+    void decodeByteByByte() {
+        final byte[] bytes = bytes(BODY + NEXT);
+        final Decoded decoded = decode(bytes, IntStream.rangeClosed(0, bytes.length).toArray());
+        assertBody(decoded, bytes);
+    }
+
+    @Test
+    void notDoneUntilLastLine() {
+        final byte[] bytes = bytes(BODY);
+        for (int end = 0; end < bytes.length; end++) {
+            final Decoded decoded = decode(bytes, end);
+            assertFalse(decoded.decoder.isDone(), "end at " + end);
+            assertEquals(end, decoded.position);
+        }
+    }
+
+    @Test
+    void skipSplitAtEveryByte() {
+        final byte[] bytes = bytes(BODY + NEXT);
+        final int bodyLength = bytes(BODY).length;
+        for (int split = 0; split <= bytes.length; split++) {
+            final ChunkedDecoder decoder = new ChunkedDecoder();
+            int position = decoder.skip(bytes, 0, split);
+            assertEquals(Math.min(split, bodyLength), position, "split at " + split);
+            assertEquals(split >= bodyLength, decoder.isDone(), "split at " + split);
+            if (!decoder.isDone()) {
+                position = decoder.skip(bytes, position, bytes.length);
+            }
+            assertTrue(decoder.isDone());
+            assertEquals(bodyLength, position);
+            assertEquals("never", decoder.getTrailers().get("expires"));
+        }
+    }
+
+    @Test
+    void bareNewlinesAndHexDigits() {
+        final byte[] bytes = bytes("a\n0123456789\nA\r\nabcdefghij\n0\n\n");
+        final Decoded decoded = decode(bytes, bytes.length);
+        assertTrue(decoded.decoder.isDone());
+        assertEquals(bytes.length, decoded.position);
+        assertEquals("0123456789abcdefghij", decoded.data());
+        assertTrue(decoded.decoder.getTrailers().isEmpty());
+    }
+
+    @Test
+    void chunkSizeLimit() {
+        final byte[] max = bytes(Long.toHexString(Constants.Server.MAX_CHUNK_SIZE) + "\r\n");
+        final ChunkedDecoder decoder = new ChunkedDecoder();
+        assertEquals(max.length, decoder.decode(max, 0, max.length));
+        assertEquals(Constants.Server.MAX_CHUNK_SIZE, decoder.getChunkRemaining());
+
+        assertInvalid(Long.toHexString(Constants.Server.MAX_CHUNK_SIZE + 1) + "\r\n");
+        // 长度行中的数字太多时直接拒绝，不会溢出
+        assertInvalid("1000000000000000\r\n");
+        assertInvalid("000000000000000000001\r\n");
+    }
+
+    @Test
+    void invalidBodies() {
+        assertInvalid("\r\n");
+        assertInvalid(";ext\r\n");
+        assertInvalid("g\r\n");
+        assertInvalid("5\r\nhelloX\r\n0\r\n\r\n");
+        assertInvalid("5\r\nhello\r\r\n0\r\n\r\n");
+        assertInvalid("1;" + "x".repeat(2000) + "\r\n");
+        assertInvalid("0\r\nNoColon\r\n\r\n");
+        assertInvalid("0\r\n: empty-name\r\n\r\n");
+        assertInvalid("0\r\n\rX");
+        assertInvalid("0\r\nX-Big: " + "x".repeat(Constants.Server.MAX_REQUEST_HEADER_SIZE) + "\r\n\r\n");
+    }
+
+    private static void assertBody(Decoded decoded, byte[] bytes) {
+        assertTrue(decoded.decoder.isDone());
+        assertEquals(bytes.length - bytes(NEXT).length, decoded.position);
+        assertEquals("hello world, 蔡", decoded.data());
+        assertEquals(Map.of("expires", "never", "x-checksum", "abc"), decoded.decoder.getTrailers());
+    }
+
+    private static void assertInvalid(String body) {
+        final byte[] bytes = bytes(body);
+        assertThrows(IllegalStateException.class, () -> decode(bytes, bytes.length), body);
+        assertThrows(IllegalStateException.class, () -> decode(bytes, IntStream.rangeClosed(0, bytes.length).toArray()), body);
+    }
+
+    /**
+     * 模拟RequestStream的用法：数据每次多读到readEnds中的位置，chunk中的数据由调用方自己复制出来
+     */
+    private static Decoded decode(byte[] bytes, int... readEnds) {
+        final Decoded decoded = new Decoded();
+        for (int end : readEnds) {
+            while (decoded.position < end && !decoded.decoder.isDone()) {
+                decoded.position = decoded.decoder.decode(bytes, decoded.position, end);
+                final long chunkRemaining = decoded.decoder.getChunkRemaining();
+                if (chunkRemaining > 0 && decoded.position < end) {
+                    final int length = (int) Math.min(chunkRemaining, end - decoded.position);
+                    decoded.data.write(bytes, decoded.position, length);
+                    decoded.decoder.consumeData(length);
+                    decoded.position += length;
+                }
+            }
+        }
+        return decoded;
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Decoded {
+
+        private final ChunkedDecoder decoder = new ChunkedDecoder();
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private int position;
+
+        String data() {
+            return data.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.caichongjian.server.http;
+
+import org.caichongjian.server.Constants;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpRequestParserTest {
+
+    private static final String REQUEST = "POST /example/hello?id=1&name=%E8%94%A1 HTTP/1.1\r\n"
+            + "Host: localhost:8888\r\n"
+            + "content-length:  5 \r\n"
+            + "X-Empty:\r\n"
+            + "X-Author: 蔡崇建\r\n"
+            + "\r\n"
+            + "hello";
+
+    @Test
+    void parseWholeRequest() {
+        final byte[] bytes = bytes(REQUEST);
+        final HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(bytes, 0, bytes.length));
+        assertRequest(parser, bytes);
+    }
+
+    /**
+     * 数据在任意位置被拆成两次读到，解析结果都一样
+     */
+    @Test
+    void parseSplitAtEveryByte() {
+        final byte[] bytes = bytes(REQUEST);
+        final int headLength = bytes.length - "hello".length();
+        for (int split = 0; split < bytes.length; split++) {
+            final HttpRequestParser parser = new HttpRequestParser();
+            final boolean done = parser.parse(bytes, 0, split);
+            assertEquals(split >= headLength, done, "split at " + split);
+            if (!done) {
+                assertTrue(parser.parse(bytes, 0, bytes.length), "split at " + split);
+            }
+            assertRequest(parser, bytes);
+        }
+    }
+
+    /**
+     * 每次只多读到一个字节
+     */
+    @Test
+    void parseByteByByte() {
+        final byte[] bytes = bytes(REQUEST);
+        final int headLength = bytes.length - "hello".length();
+        final HttpRequestParser parser = new HttpRequestParser();
+        for (int end = 0; end < headLength; end++) {
+            assertFalse(parser.parse(bytes, 0, end), "end at " + end);
+        }
+        assertTrue(parser.parse(bytes, 0, headLength));
+        assertRequest(parser, bytes);
+    }
+
+    /**
+     * 请求行开头在buffer中的位置变了(比如数据挪到了新的buffer里)，传入新的位置后可以接着解析
+     */
+    @Test
+    void parseAfterBufferMoved() {
+        final byte[] bytes = bytes(REQUEST);
+        for (int split = 0; split < bytes.length; split++) {
+            final HttpRequestParser parser = new HttpRequestParser();
+            if (parser.parse(bytes, 0, split)) {
+                continue;
+            }
+            final byte[] moved = new byte[bytes.length + 7];
+            System.arraycopy(bytes, 0, moved, 7, bytes.length);
+            assertTrue(parser.parse(moved, 7, moved.length), "split at " + split);
+            assertEquals("/example/hello", parser.getRequestURI());
+            assertEquals("蔡崇建", parser.getHeader("x-author"));
+            assertEquals(bytes.length - "hello".length(), parser.getHeadLength());
+        }
+    }
+
+    @Test
+    void detachKeepsHeadersValidAfterBufferIsOverwritten() {
+        final byte[] bytes = bytes(REQUEST);
+        final HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(bytes, 0, bytes.length));
+        parser.detach();
+        Arrays.fill(bytes, (byte) 'x');
+        assertEquals("POST", parser.getMethod());
+        assertEquals("localhost:8888", parser.getHeader("Host"));
+        assertEquals(5, parser.getContentLength());
+    }
+
+    @Test
+    void resetForNextRequest() {
+        final byte[] bytes = bytes("GET /a HTTP/1.1\r\nA: 1\r\n\r\nGET /b?x HTTP/1.0\r\n\r\n");
+        final HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(bytes, 0, bytes.length));
+        assertEquals("/a", parser.getRequestURI());
+        final int next = parser.getHeadLength();
+
+        parser.reset();
+        assertTrue(parser.parse(bytes, next, bytes.length));
+        assertEquals("GET", parser.getMethod());
+        assertEquals("/b", parser.getRequestURI());
+        assertEquals("x", parser.getQueryString());
+        assertEquals("HTTP/1.0", parser.getProtocol());
+        assertEquals(0, parser.getHeaderCount());
+        assertNull(parser.getHeader("A"));
+        assertEquals(bytes.length - next, parser.getHeadLength());
+    }
+
+    @Test
+    void bareNewlinesAndLeadingEmptyLines() {
+        final byte[] bytes = bytes("\r\n\nGET / HTTP/1.1\nHost: a\n\n");
+        final HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(bytes, 0, bytes.length));
+        assertEquals("GET", parser.getMethod());
+        assertEquals("/", parser.getRequestURI());
+        assertNull(parser.getQueryString());
+        assertEquals("HTTP/1.1", parser.getProtocol());
+        assertEquals("a", parser.getHeader("host"));
+        assertEquals(bytes.length, parser.getHeadLength());
+    }
+
+    @Test
+    void requestLineWithoutProtocol() {
+        final byte[] bytes = bytes("GET /index.html\r\n\r\n");
+        final HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(bytes, 0, bytes.length));
+        assertEquals("/index.html", parser.getRequestURI());
+        assertNull(parser.getProtocol());
+    }
+
+    @Test
+    void onlyFirstQuestionMarkStartsQueryString() {
+        final HttpRequestParser parser = parse("GET /a?b=?c HTTP/1.1\r\n\r\n");
+        assertEquals("/a", parser.getRequestURI());
+        assertEquals("b=?c", parser.getQueryString());
+    }
+
+    @Test
+    void manyHeaders() {
+        final StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 100; i++) {
+            request.append("X-Header-").append(i).append(": ").append(i).append("\r\n");
+        }
+        final HttpRequestParser parser = parse(request.append("\r\n").toString());
+        assertEquals(100, parser.getHeaderCount());
+        assertEquals("X-Header-99", parser.getHeaderName(99));
+        assertEquals("42", parser.getHeader("x-header-42"));
+    }
+
+    @Test
+    void headerNamesAreCaseInsensitiveOnlyForLetters() {
+        final HttpRequestParser parser = parse("GET / HTTP/1.1\r\nX-A_B: 1\r\n\r\n");
+        assertEquals("1", parser.getHeader("x-a_b"));
+        assertNull(parser.getHeader("x-a\u007fb"));
+        assertNull(parser.getHeader("X-A_"));
+    }
+
+    @Test
+    void contentLength() {
+        assertEquals(-1, parse("GET / HTTP/1.1\r\n\r\n").getContentLength());
+        assertEquals(0, parse("GET / HTTP/1.1\r\nContent-Length: 0\r\n\r\n").getContentLength());
+        assertEquals(999999999999999999L, parse("GET / HTTP/1.1\r\nContent-Length: 999999999999999999\r\n\r\n").getContentLength());
+
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\nContent-Length: -1\r\n\r\n").getContentLength());
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\nContent-Length: 1 2\r\n\r\n").getContentLength());
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\nContent-Length:\r\n\r\n").getContentLength());
+        // 超过18位可能溢出
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\nContent-Length: 9999999999999999999\r\n\r\n").getContentLength());
+    }
+
+    @Test
+    void chunked() {
+        assertFalse(parse("GET / HTTP/1.1\r\n\r\n").isChunked());
+        assertTrue(parse("GET / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n").isChunked());
+        assertTrue(parse("GET / HTTP/1.1\r\nTransfer-Encoding: gzip, Chunked\r\n\r\n").isChunked());
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\nTransfer-Encoding: chunked, gzip\r\n\r\n").isChunked());
+    }
+
+    @Test
+    void invalidRequests() {
+        assertThrows(IllegalStateException.class, () -> parse("GET\r\n\r\n"));
+        // 不支持obs-fold
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\nA: 1\r\n  2\r\n\r\n"));
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\n: 1\r\n\r\n"));
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\nNoColon\r\n\r\n"));
+        assertThrows(IllegalStateException.class, () -> parse("GET / HTTP/1.1\r\n\rX"));
+    }
+
+    @Test
+    void headerTooLarge() {
+        final byte[] bytes = bytes("GET / HTTP/1.1\r\nCookie: " + "a".repeat(Constants.Server.MAX_REQUEST_HEADER_SIZE) + "\r\n\r\n");
+        final HttpRequestParser parser = new HttpRequestParser();
+        assertThrows(IllegalStateException.class, () -> parser.parse(bytes, 0, bytes.length));
+
+        // 数据分多次读到时也一样
+        final HttpRequestParser incremental = new HttpRequestParser();
+        assertThrows(IllegalStateException.class, () -> {
+            for (int end = 1000; end < bytes.length + 1000; end += 1000) {
+                incremental.parse(bytes, 0, Math.min(end, bytes.length));
+            }
+        });
+    }
+
+    private static void assertRequest(HttpRequestParser parser, byte[] bytes) {
+        assertEquals("POST", parser.getMethod());
+        assertEquals("/example/hello", parser.getRequestURI());
+        assertEquals("id=1&name=%E8%94%A1", parser.getQueryString());
+        assertEquals("HTTP/1.1", parser.getProtocol());
+        assertEquals(4, parser.getHeaderCount());
+        assertEquals("Host", parser.getHeaderName(0));
+        assertEquals("localhost:8888", parser.getHeader("HOST"));
+        assertEquals("5", parser.getHeader("Content-Length"));
+        assertEquals(5, parser.getContentLength());
+        assertEquals("", parser.getHeader("x-empty"));
+        assertEquals("蔡崇建", parser.getHeader("X-Author"));
+        assertNull(parser.getHeader("X-Missing"));
+        assertFalse(parser.isChunked());
+        assertArrayEquals(bytes("hello"), Arrays.copyOfRange(bytes, parser.getHeadLength(), bytes.length));
+    }
+
+    private static HttpRequestParser parse(String request) {
+        final byte[] bytes = bytes(request);
+        final HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(bytes, 0, bytes.length));
+        return parser;
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,305 @@
+package org.caichongjian.server.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WebSocketFrameDecoderTest {
+
+    private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+    private static final byte[] MASK = {0x12, 0x34, 0x56, 0x78};
+
+    @Test
+    void framesSplitAtEveryByte() {
+        final byte[] bytes = concat(
+                frame(true, WebSocketFrames.OPCODE_TEXT, utf8("你好, adam")),
+                frame(true, WebSocketFrames.OPCODE_BINARY, new byte[]{0, 1, -1, 127, -128}),
+                frame(true, WebSocketFrames.OPCODE_PING, utf8("ping")),
+                frame(true, WebSocketFrames.OPCODE_PONG, new byte[0]),
+                frame(true, WebSocketFrames.OPCODE_TEXT, new byte[0]));
+        assertEventsAtEverySplit(bytes, "text:你好, adam", "binary:AAH/f4A=", "ping:ping", "pong:", "text:");
+    }
+
+    /**
+     * 分片之间插入的控制帧先交给Listener，分片拼接完整后才交给Listener
+     */
+    @Test
+    void fragmentedMessageWithInterleavedControlFrames() {
+        final byte[] bytes = concat(
+                frame(false, WebSocketFrames.OPCODE_TEXT, utf8("ab")),
+                frame(true, WebSocketFrames.OPCODE_PING, utf8("p")),
+                frame(false, WebSocketFrames.OPCODE_CONTINUATION, utf8("cd")),
+                frame(true, WebSocketFrames.OPCODE_PONG, utf8("q")),
+                frame(false, WebSocketFrames.OPCODE_CONTINUATION, new byte[0]),
+                frame(true, WebSocketFrames.OPCODE_CONTINUATION, utf8("ef")),
+                frame(false, WebSocketFrames.OPCODE_BINARY, new byte[]{1}),
+                frame(true, WebSocketFrames.OPCODE_CONTINUATION, new byte[]{2}));
+        assertEventsAtEverySplit(bytes, "ping:p", "pong:q", "text:abcdef", "binary:AQI=");
+    }
+
+    /**
+     * 一个字符的UTF-8字节被拆到了两个分片中，拼接完整后再解码
+     */
+    @Test
+    void utf8CharacterSplitAcrossFragments() {
+        final byte[] cai = utf8("蔡");
+        final byte[] bytes = concat(
+                frame(false, WebSocketFrames.OPCODE_TEXT, Arrays.copyOf(cai, 1)),
+                frame(true, WebSocketFrames.OPCODE_CONTINUATION, Arrays.copyOfRange(cai, 1, 3)));
+        assertEventsAtEverySplit(bytes, "text:蔡");
+    }
+
+    @Test
+    void payloadLengthEncodings() {
+        for (int length : new int[]{125, 126, 0xffff, 0x10000}) {
+            final byte[] payload = new byte[length];
+            for (int i = 0; i < length; i++) {
+                payload[i] = (byte) i;
+            }
+            final byte[] bytes = frame(true, WebSocketFrames.OPCODE_BINARY, payload);
+            final Recorder recorder = new Recorder();
+            final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(recorder, MAX_MESSAGE_SIZE);
+            // 帧头中的每个位置都拆开试一次
+            int position = 0;
+            for (int end = 1; end <= 14; end++) {
+                decoder.decode(bytes, position, end);
+                position = end;
+            }
+            decoder.decode(bytes, position, bytes.length);
+            assertEquals(List.of("binary:" + Base64.getEncoder().encodeToString(payload)), recorder.events, "length " + length);
+        }
+    }
+
+    /**
+     * 掩码按payload中的位置循环使用，跨帧时重新开始
+     */
+    @Test
+    void masking() {
+        final byte[] zeroMask = frame(true, WebSocketFrames.OPCODE_TEXT, utf8("plain"), new byte[4]);
+        assertEquals("plain", new String(zeroMask, 6, 5, StandardCharsets.UTF_8));
+        final byte[] bytes = concat(zeroMask,
+                frame(true, WebSocketFrames.OPCODE_TEXT, utf8("masked"), new byte[]{-1, 0, 1, 2}),
+                frame(true, WebSocketFrames.OPCODE_TEXT, utf8("again")));
+        assertEventsAtEverySplit(bytes, "text:plain", "text:masked", "text:again");
+
+        final byte[] unmasked = concat(new byte[]{(byte) 0x81, 0x01}, utf8("x"));
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, unmasked);
+    }
+
+    @Test
+    void invalidUtf8() {
+        assertProtocolError(WebSocketFrames.CLOSE_INVALID_DATA, frame(true, WebSocketFrames.OPCODE_TEXT, new byte[]{(byte) 0xff, (byte) 0xfe}));
+        // 没有写完的多字节字符
+        assertProtocolError(WebSocketFrames.CLOSE_INVALID_DATA, frame(true, WebSocketFrames.OPCODE_TEXT, Arrays.copyOf(utf8("蔡"), 2)));
+        // 代理对(surrogate)的UTF-8编码也是不合法的
+        assertProtocolError(WebSocketFrames.CLOSE_INVALID_DATA, frame(true, WebSocketFrames.OPCODE_TEXT, new byte[]{(byte) 0xed, (byte) 0xa0, (byte) 0x80}));
+        assertProtocolError(WebSocketFrames.CLOSE_INVALID_DATA, concat(
+                frame(false, WebSocketFrames.OPCODE_TEXT, utf8("ok")),
+                frame(true, WebSocketFrames.OPCODE_CONTINUATION, new byte[]{(byte) 0xc0, (byte) 0x80})));
+        assertProtocolError(WebSocketFrames.CLOSE_INVALID_DATA, frame(true, WebSocketFrames.OPCODE_CLOSE, new byte[]{0x03, (byte) 0xe8, (byte) 0xff}));
+
+        // binary消息不检查
+        assertEventsAtEverySplit(frame(true, WebSocketFrames.OPCODE_BINARY, new byte[]{(byte) 0xff}), "binary:/w==");
+    }
+
+    @Test
+    void closeCodes() {
+        assertEventsAtEverySplit(frame(true, WebSocketFrames.OPCODE_CLOSE, new byte[0]), "close:1005:");
+        assertEventsAtEverySplit(closeFrame(1000, "再见"), "close:1000:再见");
+        for (int code : new int[]{1000, 1001, 1002, 1003, 1007, 1008, 1009, 1010, 1011, 3000, 4999}) {
+            assertEventsAtEverySplit(closeFrame(code, ""), "close:" + code + ":");
+        }
+        for (int code : new int[]{0, 999, 1004, 1005, 1006, 1012, 1015, 2999, 5000, 65535}) {
+            assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, closeFrame(code, ""));
+        }
+        // 只有1个字节的关闭码
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, frame(true, WebSocketFrames.OPCODE_CLOSE, new byte[]{0x03}));
+    }
+
+    /**
+     * 收到close帧后，后面的数据(包括不合法的帧)都不再解码
+     */
+    @Test
+    void nothingDecodedAfterClose() {
+        final byte[] bytes = concat(
+                frame(false, WebSocketFrames.OPCODE_TEXT, utf8("unfinished")),
+                closeFrame(1000, ""),
+                frame(true, WebSocketFrames.OPCODE_TEXT, utf8("late")),
+                new byte[]{(byte) 0xf1, 0x00});
+        assertEventsAtEverySplit(bytes, "close:1000:");
+    }
+
+    @Test
+    void protocolErrors() {
+        // RSV不为0
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, withFirstByte(frame(true, WebSocketFrames.OPCODE_TEXT, utf8("x")), 0xc1));
+        // 控制帧分片
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, frame(false, WebSocketFrames.OPCODE_PING, utf8("x")));
+        // 控制帧超过125个字节
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, frame(true, WebSocketFrames.OPCODE_PONG, new byte[126]));
+        // 没有可以继续的分片
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, frame(true, WebSocketFrames.OPCODE_CONTINUATION, utf8("x")));
+        // 上一条消息的分片还没结束就开始了新的消息
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, concat(
+                frame(false, WebSocketFrames.OPCODE_TEXT, utf8("a")),
+                frame(true, WebSocketFrames.OPCODE_BINARY, utf8("b"))));
+        // 保留的操作码
+        for (int opcode : new int[]{0x3, 0x7, 0xb, 0xf}) {
+            assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, frame(true, opcode, new byte[0]));
+        }
+        // 64位长度的最高位必须为0
+        final byte[] negativeLength = {(byte) 0x82, (byte) 0xff, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3, 4};
+        assertProtocolError(WebSocketFrames.CLOSE_PROTOCOL_ERROR, negativeLength);
+    }
+
+    @Test
+    void messageTooBig() {
+        final int max = 10;
+        assertEquals(List.of("binary:AAAAAAAAAAAAAA=="), decode(frame(true, WebSocketFrames.OPCODE_BINARY, new byte[max]), max));
+        assertThrowsTooBig(frame(true, WebSocketFrames.OPCODE_BINARY, new byte[max + 1]), max);
+        assertThrowsTooBig(concat(
+                frame(false, WebSocketFrames.OPCODE_TEXT, utf8("123456")),
+                frame(true, WebSocketFrames.OPCODE_CONTINUATION, utf8("78901"))), max);
+        // 只凭帧头中的长度就拒绝，不会按它分配缓冲区
+        final byte[] huge = {(byte) 0x82, (byte) 0xff, 0x7f, -1, -1, -1, -1, -1, -1, -1, 1, 2, 3, 4};
+        assertThrowsTooBig(huge, max);
+    }
+
+    private static void assertEventsAtEverySplit(byte[] bytes, String... expected) {
+        final List<String> events = List.of(expected);
+        assertEquals(events, decode(bytes, MAX_MESSAGE_SIZE));
+        for (int split = 0; split <= bytes.length; split++) {
+            final Recorder recorder = new Recorder();
+            final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(recorder, MAX_MESSAGE_SIZE);
+            decoder.decode(bytes, 0, split);
+            decoder.decode(bytes, split, bytes.length);
+            assertEquals(events, recorder.events, "split at " + split);
+        }
+        final Recorder recorder = new Recorder();
+        final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(recorder, MAX_MESSAGE_SIZE);
+        for (int i = 0; i < bytes.length; i++) {
+            // 每次只收到一个字节，并且不在buffer的开头
+            final byte[] buffer = {0, bytes[i], 0};
+            decoder.decode(buffer, 1, 2);
+        }
+        assertEquals(events, recorder.events, "byte by byte");
+    }
+
+    private static void assertProtocolError(int closeCode, byte[] bytes) {
+        WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class, () -> decode(bytes, MAX_MESSAGE_SIZE));
+        assertEquals(closeCode, e.getCloseCode(), e.getMessage());
+        for (int split = 0; split <= bytes.length; split++) {
+            final WebSocketFrameDecoder decoder = new WebSocketFrameDecoder(new Recorder(), MAX_MESSAGE_SIZE);
+            final int end = split;
+            e = assertThrows(WebSocketProtocolException.class, () -> {
+                decoder.decode(bytes, 0, end);
+                decoder.decode(bytes, end, bytes.length);
+            }, "split at " + split);
+            assertEquals(closeCode, e.getCloseCode(), e.getMessage());
+        }
+    }
+
+    private static void assertThrowsTooBig(byte[] bytes, int maxMessageSize) {
+        final WebSocketProtocolException e = assertThrows(WebSocketProtocolException.class, () -> decode(bytes, maxMessageSize));
+        assertEquals(WebSocketFrames.CLOSE_MESSAGE_TOO_BIG, e.getCloseCode());
+    }
+
+    private static List<String> decode(byte[] bytes, int maxMessageSize) {
+        final Recorder recorder = new Recorder();
+        new WebSocketFrameDecoder(recorder, maxMessageSize).decode(bytes, 0, bytes.length);
+        return recorder.events;
+    }
+
+    private static byte[] frame(boolean fin, int opcode, byte[] payload) {
+        return frame(fin, opcode, payload, MASK);
+    }
+
+    /**
+     * 按客户端的方式编码一帧(加掩码)
+     */
+    private static byte[] frame(boolean fin, int opcode, byte[] payload, byte[] mask) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write((fin ? 0x80 : 0) | opcode);
+        if (payload.length < 126) {
+            out.write(0x80 | payload.length);
+        } else if (payload.length <= 0xffff) {
+            out.write(0x80 | 126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+        out.writeBytes(mask);
+        for (int i = 0; i < payload.length; i++) {
+            out.write(payload[i] ^ mask[i & 3]);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] closeFrame(int code, String reason) {
+        final byte[] reasonBytes = utf8(reason);
+        final byte[] payload = new byte[2 + reasonBytes.length];
+        payload[0] = (byte) (code >>> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(reasonBytes, 0, payload, 2, reasonBytes.length);
+        return frame(true, WebSocketFrames.OPCODE_CLOSE, payload);
+    }
+
+    private static byte[] withFirstByte(byte[] frame, int firstByte) {
+        frame[0] = (byte) firstByte;
+        return frame;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.writeBytes(array);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] utf8(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Recorder implements WebSocketFrameDecoder.Listener {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onText(String message) {
+            events.add("text:" + message);
+        }
+
+        @Override
+        public void onBinary(byte[] message) {
+            events.add("binary:" + Base64.getEncoder().encodeToString(message));
+        }
+
+        @Override
+        public void onPing(byte[] payload) {
+            events.add("ping:" + new String(payload, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onPong(byte[] payload) {
+            events.add("pong:" + new String(payload, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onClose(int code, String reason) {
+            events.add("close:" + code + ":" + reason);
+        }
+    }
+}
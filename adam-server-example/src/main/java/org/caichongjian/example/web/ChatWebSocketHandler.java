@@ -0,0 +1,44 @@
+package org.caichongjian.example.web;
+
+import org.caichongjian.annotations.MiniWebSocket;
+import org.caichongjian.api.MiniWebSocketHandler;
+import org.caichongjian.api.MiniWebSocketSession;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 简单的聊天室，同一个房间的用户互相能收到对方发的消息
+ */
+@MiniWebSocket("/example/chat/{room}")
+public class ChatWebSocketHandler implements MiniWebSocketHandler {
+
+    private final Map<String, Set<MiniWebSocketSession>> rooms = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterConnectionEstablished(MiniWebSocketSession session) {
+        rooms.computeIfAbsent(session.getPathVariable("room"), room -> ConcurrentHashMap.newKeySet()).add(session);
+    }
+
+    @Override
+    public void handleTextMessage(MiniWebSocketSession session, String message) {
+        final String name = session.getParameter("name") == null ? session.getId() : session.getParameter("name");
+        for (MiniWebSocketSession member : rooms.getOrDefault(session.getPathVariable("room"), Set.of())) {
+            try {
+                member.sendText(name + ": " + message);
+            } catch (IOException e) {
+                // 对方已经断开了，等afterConnectionClosed把它移除
+            }
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(MiniWebSocketSession session, int code, String reason) {
+        rooms.computeIfPresent(session.getPathVariable("room"), (room, members) -> {
+            members.remove(session);
+            return members.isEmpty() ? null : members;
+        });
+    }
+}
@@ -1,23 +1,35 @@
 package org.caichongjian.example.web;
 
 import com.google.common.collect.Lists;
+import org.caichongjian.annotations.MiniCacheable;
+import org.caichongjian.annotations.MiniPathVariable;
 import org.caichongjian.annotations.MiniRequestBody;
 import org.caichongjian.annotations.MiniRequestMapping;
+import org.caichongjian.annotations.MiniRequestMethod;
 import org.caichongjian.annotations.MiniRestController;
 import org.caichongjian.api.MiniHttpServletRequest;
 import org.caichongjian.api.MiniHttpServletResponse;
 import org.caichongjian.example.pojo.User;
 
 import jakarta.servlet.http.Cookie;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 @MiniRestController
 @MiniRequestMapping("/example")
 public class ExampleController {
 
-    @MiniRequestMapping("/hello")
+    @MiniRequestMapping(value = "/hello", etag = true)
     public Map<String, Object> hello(Integer id, String name) {
         Map<String, Object> map = new HashMap<>();
         map.put("id", id);
@@ -43,6 +55,89 @@ public class ExampleController {
         return Lists.newArrayList(user);
     }
 
+    @MiniCacheable(expireSeconds = 10, maximumSize = 100)
+    @MiniRequestMapping(value = "/users/{id}", method = {MiniRequestMethod.GET, MiniRequestMethod.HEAD})
+    public User getUser(@MiniPathVariable Integer id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("user" + id);
+        return user;
+    }
+
+    @MiniRequestMapping(value = "/users/{id}", method = MiniRequestMethod.PUT)
+    public User updateUser(@MiniPathVariable("id") Integer userId, @MiniRequestBody User user) {
+        user.setId(userId);
+        return user;
+    }
+
+    @MiniRequestMapping(value = "/aggregate", asyncTimeout = 1000)
+    public CompletableFuture<Map<String, Object>> aggregate(Integer delay) {
+        // 模拟同时调用两个较慢的下游服务，等待期间不占用处理请求的线程，超过1秒没完成时响应操作失败
+        final Executor downstream = CompletableFuture.delayedExecutor(delay == null ? 200 : delay, TimeUnit.MILLISECONDS);
+        final CompletableFuture<User> user = CompletableFuture.supplyAsync(() -> getUser(1), downstream);
+        final CompletableFuture<List<Integer>> orders = CompletableFuture.supplyAsync(() -> List.of(101, 102), downstream);
+        return user.thenCombine(orders, (u, o) -> Map.of("user", u, "orders", o));
+    }
+
+    @MiniRequestMapping(value = "/status", method = MiniRequestMethod.GET)
+    public Flow.Publisher<Map<String, Object>> status(Integer count) {
+        // 每秒推送一次服务器的状态，不用再每秒轮询一次。浏览器中可以用new EventSource("/example/status")接收
+        final SubmissionPublisher<Map<String, Object>> publisher = new SubmissionPublisher<>();
+        final int total = count == null ? 10 : count;
+        final Executor everySecond = CompletableFuture.delayedExecutor(1, TimeUnit.SECONDS);
+        everySecond.execute(new Runnable() {
+            private int sent;
+
+            @Override
+            public void run() {
+                if (!publisher.hasSubscribers()) {
+                    // 客户端已经断开了
+                    publisher.close();
+                    return;
+                }
+                final Runtime runtime = Runtime.getRuntime();
+                publisher.submit(Map.of("seq", ++sent, "freeMemory", runtime.freeMemory(), "totalMemory", runtime.totalMemory()));
+                if (sent < total) {
+                    everySecond.execute(this);
+                } else {
+                    publisher.close();
+                }
+            }
+        });
+        return publisher;
+    }
+
+    @MiniRequestMapping("/upload")
+    public Map<String, Object> upload(MiniHttpServletRequest request) throws IOException {
+        // 边读边计算，请求体再大也只占用一个8KB的数组
+        final CRC32 crc32 = new CRC32();
+        long size = 0;
+        final byte[] buffer = new byte[8192];
+        final InputStream inputStream = request.getInputStream();
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            crc32.update(buffer, 0, bytesRead);
+            size += bytesRead;
+        }
+        // chunked编码的请求体读完后才能拿到trailer
+        return Map.of("size", size, "crc32", Long.toHexString(crc32.getValue()), "trailers", request.getTrailerFields());
+    }
+
+    @MiniRequestMapping("/export")
+    public void export(Integer rows, MiniHttpServletResponse response) throws IOException {
+        // 边生成边发送，导出的行数再多也不需要把整个响应体放在内存中
+        response.setContentType("text/csv;charset=UTF-8");
+        final PrintWriter writer = response.getWriter();
+        writer.println("id,name");
+        for (int i = 1; i <= (rows == null ? 100 : rows); i++) {
+            writer.append(String.valueOf(i)).append(",user").append(String.valueOf(i)).println();
+            // PrintWriter不抛出IOException，客户端断开后要自己检查，不然会一直生成到最后一行
+            if (i % 1000 == 0 && writer.checkError()) {
+                return;
+            }
+        }
+    }
+
     @MiniRequestMapping("/cookie")
     public Map<String, Object> cookie(MiniHttpServletResponse response) {
         Cookie cookie = new Cookie("a_my_name", "ccj");
@@ -0,0 +1,294 @@
+package org.caichongjian.processor;
+
+import org.caichongjian.annotations.MiniCacheable;
+import org.caichongjian.annotations.MiniPathVariable;
+import org.caichongjian.annotations.MiniRequestBody;
+import org.caichongjian.annotations.MiniRequestMapping;
+import org.caichongjian.annotations.MiniRequestMethod;
+import org.caichongjian.annotations.MiniRestController;
+import org.caichongjian.annotations.MiniWebSocket;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * <p>编译时为每个@MiniRestController和@MiniWebSocket类生成一个路由表(XxxController_MiniRoutes，实现了org.caichongjian.server.route.RouteTable)，
+ * 并把它们写到META-INF/services/org.caichongjian.server.route.RouteTable中。</p>
+ * <p>生成的路由表直接new出controller，直接调用controller的方法，服务器启动时通过ServiceLoader加载，
+ * 不需要扫描classpath，也不需要反射，和Jigsaw也没有冲突。</p>
+ * <p>使用方法：以provided的scope依赖adam-server-processor即可，javac会自动找到这个注解处理器。</p>
+ */
+public class MiniRouteProcessor extends AbstractProcessor {
+
+    private static final String ROUTE_TABLE = "org.caichongjian.server.route.RouteTable";
+    private static final String ROUTE_REGISTRAR = "org.caichongjian.server.route.RouteRegistrar";
+    private static final String PARAMETER_SOURCE = "org.caichongjian.server.route.ParameterSource";
+    private static final String CACHE_OPTIONS = "org.caichongjian.server.route.CacheOptions";
+    private static final String WEBSOCKET_HANDLER = "org.caichongjian.api.MiniWebSocketHandler";
+    private static final String SERVICE_FILE = "META-INF/services/" + ROUTE_TABLE;
+    private static final String SUFFIX = "_MiniRoutes";
+
+    /**
+     * 所有轮次生成的路由表的类名，最后一轮写到SERVICE_FILE中
+     */
+    private final Set<String> routeTables = new TreeSet<>();
+    /**
+     * 请求方式 + uri -> 方法(WEBSOCKET + uri -> 类)，用来检查重复的uri
+     */
+    private final Map<String, String> uris = new HashMap<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Set.of(MiniRestController.class.getCanonicalName(), MiniWebSocket.class.getCanonicalName());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+        // 一个类可以同时有@MiniRestController和@MiniWebSocket，只生成一个路由表
+        final Set<TypeElement> controllers = new LinkedHashSet<>();
+        controllers.addAll(ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(MiniRestController.class)));
+        controllers.addAll(ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(MiniWebSocket.class)));
+        for (TypeElement controller : controllers) {
+            if (checkController(controller)) {
+                generateRouteTable(controller);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 生成的代码要直接new出controller，所以controller必须是public的顶层类，并且有public的无参构造方法
+     */
+    private boolean checkController(TypeElement controller) {
+        final Set<Modifier> modifiers = controller.getModifiers();
+        if (controller.getKind() != ElementKind.CLASS || controller.getNestingKind() != NestingKind.TOP_LEVEL
+                || !modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)) {
+            error(controller, "@MiniRestController和@MiniWebSocket类必须是public的非抽象顶层类");
+            return false;
+        }
+        final List<ExecutableElement> constructors = ElementFilter.constructorsIn(controller.getEnclosedElements());
+        final boolean hasDefaultConstructor = constructors.stream()
+                .anyMatch(constructor -> constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC));
+        if (!hasDefaultConstructor) {
+            error(controller, "@MiniRestController和@MiniWebSocket类必须有public的无参构造方法");
+            return false;
+        }
+        if (controller.getAnnotation(MiniWebSocket.class) != null) {
+            final Types types = processingEnv.getTypeUtils();
+            final TypeElement handler = processingEnv.getElementUtils().getTypeElement(WEBSOCKET_HANDLER);
+            if (handler != null && !types.isAssignable(types.erasure(controller.asType()), types.erasure(handler.asType()))) {
+                error(controller, "@MiniWebSocket类必须实现" + WEBSOCKET_HANDLER);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generateRouteTable(TypeElement controller) {
+        final MiniRequestMapping typeMapping = controller.getAnnotation(MiniRequestMapping.class);
+        final String prefix = typeMapping == null ? "" : typeMapping.value();
+
+        final StringBuilder routes = new StringBuilder();
+        final List<ExecutableElement> methods = controller.getAnnotation(MiniRestController.class) == null
+                ? List.of() : ElementFilter.methodsIn(controller.getEnclosedElements());
+        for (ExecutableElement method : methods) {
+            final MiniRequestMapping methodMapping = method.getAnnotation(MiniRequestMapping.class);
+            if (methodMapping == null) {
+                continue;
+            }
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+                error(method, "@MiniRequestMapping方法必须是public的非静态方法");
+                continue;
+            }
+            final String uri = prefix + methodMapping.value();
+            final Set<String> httpMethods = Arrays.stream(methodMapping.method()).map(MiniRequestMethod::name)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            if (checkDuplicateUri(method, uri, httpMethods)) {
+                appendRoute(routes, uri, httpMethods, method, methodMapping);
+            }
+        }
+        final MiniWebSocket webSocket = controller.getAnnotation(MiniWebSocket.class);
+        if (webSocket != null && checkDuplicateWebSocket(controller, webSocket.value())) {
+            routes.append("        registrar.registerWebSocket(").append(quote(webSocket.value())).append(", controller);\n");
+        }
+
+        final String packageName = ((PackageElement) controller.getEnclosingElement()).getQualifiedName().toString();
+        final String simpleName = controller.getSimpleName() + SUFFIX;
+        final String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, controller).openWriter()) {
+            if (!packageName.isEmpty()) {
+                writer.write("package " + packageName + ";\n\n");
+            }
+            writer.write("/**\n"
+                    + " * 由adam-server-processor根据" + controller.getSimpleName() + "生成，请勿手动修改\n"
+                    + " */\n"
+                    + "public final class " + simpleName + " implements " + ROUTE_TABLE + " {\n"
+                    + "\n"
+                    + "    @Override\n"
+                    + "    public Class<?> getControllerType() {\n"
+                    + "        return " + controller.getQualifiedName() + ".class;\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    @Override\n"
+                    + "    @SuppressWarnings({\"unchecked\", \"rawtypes\"})\n"
+                    + "    public void registerRoutes(" + ROUTE_REGISTRAR + " registrar) {\n"
+                    + "        final " + controller.getQualifiedName() + " controller = new " + controller.getQualifiedName() + "();\n"
+                    + routes
+                    + "    }\n"
+                    + "}\n");
+        } catch (IOException e) {
+            error(controller, "生成路由表失败：" + e);
+            return;
+        }
+        routeTables.add(qualifiedName);
+    }
+
+    /**
+     * 同一个uri可以按请求方式分给不同的方法，请求方式和uri都相同时报错。路径变量的名称冲突等问题留到服务器启动时检查
+     */
+    private boolean checkDuplicateUri(ExecutableElement method, String uri, Set<String> httpMethods) {
+        final String location = ((TypeElement) method.getEnclosingElement()).getQualifiedName() + "." + method.getSimpleName() + "()";
+        final Set<String> keys = httpMethods.isEmpty() ? Set.of("ANY") : httpMethods;
+        boolean unique = true;
+        for (String key : keys) {
+            final String previous = uris.putIfAbsent(key + " " + uri, location);
+            if (previous != null) {
+                error(method, "uri[" + key + " " + uri + "]重复了，和" + previous + "冲突");
+                unique = false;
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * WebSocket的握手请求都是GET请求，和rest方法分开检查
+     */
+    private boolean checkDuplicateWebSocket(TypeElement controller, String uri) {
+        final String previous = uris.putIfAbsent("WEBSOCKET " + uri, controller.getQualifiedName().toString());
+        if (previous != null) {
+            error(controller, "WebSocket的uri[" + uri + "]重复了，和" + previous + "冲突");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 生成一条registrar.register(...)语句，controller的方法用lambda直接调用
+     */
+    private void appendRoute(StringBuilder routes, String uri, Set<String> httpMethods, ExecutableElement method, MiniRequestMapping mapping) {
+        final List<String> arguments = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<String> types = new ArrayList<>();
+        final List<String> sources = new ArrayList<>();
+        final List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            final VariableElement parameter = parameters.get(i);
+            final TypeMirror type = processingEnv.getTypeUtils().erasure(parameter.asType());
+            arguments.add("(" + boxedName(type) + ") arguments[" + i + "]");
+            types.add(type + ".class");
+            final MiniPathVariable pathVariable = parameter.getAnnotation(MiniPathVariable.class);
+            if (pathVariable != null) {
+                names.add(quote(pathVariable.value().isEmpty() ? parameter.getSimpleName().toString() : pathVariable.value()));
+                sources.add(PARAMETER_SOURCE + ".PATH_VARIABLE");
+            } else {
+                names.add(quote(parameter.getSimpleName().toString()));
+                sources.add(PARAMETER_SOURCE + (parameter.getAnnotation(MiniRequestBody.class) != null ? ".REQUEST_BODY" : ".REQUEST_PARAMETER"));
+            }
+        }
+        final String call = "controller." + method.getSimpleName() + "(" + String.join(", ", arguments) + ")";
+        final String lambda = method.getReturnType().getKind() == TypeKind.VOID
+                ? "arguments -> {\n                    " + call + ";\n                    return null;\n                }"
+                : "arguments -> " + call;
+        final String methods = httpMethods.stream().map(MiniRouteProcessor::quote).collect(Collectors.joining(", "));
+        routes.append("        registrar.register(").append(quote(uri)).append(",\n")
+                .append("                new String[]{").append(methods).append("},\n")
+                .append("                ").append(lambda).append(",\n")
+                .append("                new String[]{").append(String.join(", ", names)).append("},\n")
+                .append("                new Class<?>[]{").append(String.join(", ", types)).append("},\n")
+                .append("                new " + PARAMETER_SOURCE + "[]{").append(String.join(", ", sources)).append("},\n")
+                .append("                ").append(mapping.etag()).append(",\n")
+                .append("                ").append(cacheOptions(method.getAnnotation(MiniCacheable.class))).append(",\n")
+                .append("                ").append(mapping.asyncTimeout()).append("L);\n");
+    }
+
+    /**
+     * 把@MiniCacheable转换成new CacheOptions(...)，没有这个注解时为null
+     */
+    private static String cacheOptions(MiniCacheable cacheable) {
+        if (cacheable == null) {
+            return "null";
+        }
+        final String keyParameters = Arrays.stream(cacheable.keyParameters()).map(MiniRouteProcessor::quote).collect(Collectors.joining(", "));
+        return "new " + CACHE_OPTIONS + "(" + cacheable.expireSeconds() + "L, new String[]{" + keyParameters + "}, "
+                + cacheable.maximumSize() + ", " + cacheable.maximumBytes() + "L)";
+    }
+
+    private String boxedName(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    private static String quote(String str) {
+        return "\"" + str.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private void writeServiceFile() {
+        if (routeTables.isEmpty()) {
+            return;
+        }
+        try {
+            final FileObject serviceFile = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = serviceFile.openWriter()) {
+                for (String routeTable : routeTables) {
+                    writer.write(routeTable);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "生成" + SERVICE_FILE + "失败：" + e);
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2002-2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.caichongjian.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 我本来想在adam-server直接使用Spring MVC的，但遗憾地发现实现整个jakarta.servlet-api工作量实在是太大了。
+ * 我又不喜欢Servlet的形式，所以我学习参考了Spring的创意。
+ * 注解内的方法的数量比起spring-context来少了很多。
+ * 如果你觉得adam-server对你有帮助，请去下面的链接点★Star
+ *
+ * I originally wanted to use Spring MVC directly on adam-server, but unfortunately found that implementing the entire jakarta.servlet-api workload was too great.
+ * I don't like the form of Servlet, so I learned from the ideas of Spring.
+ * The number of methods in annotations is much less than in spring-context.
+ * If you think adam-server is helpful to you, please go to the link below and click ★Star
+ *
+ * Annotation indicating that the serialized result of invoking a method can be cached.
+ * <p>Each time an advised method is invoked, the cache is checked to see whether the method
+ * has been invoked for the given request. If a fresh entry is found, the cached response
+ * body is sent without invoking the method or serializing its result again.
+ * <p>只有GET和HEAD请求才会使用缓存。缓存的只是响应体，controller通过MiniHttpServletResponse设置的响应头、Cookie不会被缓存，
+ * 通过getOutputStream()、getWriter()输出响应体的方法也不会被缓存。
+ *
+ * @author Costin Leau
+ * @author Phillip Webb
+ * @author Stephane Nicoll
+ * @author Sam Brannen
+ *
+ * @see Maven: org.springframework:spring-context:5.2.5.RELEASE  org.springframework.cache.annotation.Cacheable
+ * @see https://github.com/spring-projects/spring-framework
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MiniCacheable {
+
+    /**
+     * How long a cached response stays fresh after it is written, in seconds.
+     */
+    long expireSeconds() default 60;
+
+    /**
+     * Names of the request parameters that make up the cache key, together with the request URI
+     * (path variables included) and the negotiated Content-Type.
+     * <p>不配置时使用完整的query string。配置后其他参数不再影响缓存，例如分页接口可以忽略时间戳之类的参数。
+     */
+    String[] keyParameters() default {};
+
+    /**
+     * The maximum number of cached responses for this method.
+     */
+    int maximumSize() default 1000;
+
+    /**
+     * The maximum number of bytes the cached responses of this method may occupy.
+     * <p>超过maximumSize或者maximumBytes时，按最近最少使用淘汰。
+     */
+    long maximumBytes() default 16 * 1024 * 1024;
+}
@@ -53,4 +53,26 @@ public @interface MiniRequestMapping {
      * this primary mapping, narrowing it for a specific handler method.
      */
     String value() default "";
+
+    /**
+     * The HTTP request methods to map to, narrowing the primary mapping:
+     * GET, POST, HEAD, OPTIONS, PUT, PATCH, DELETE, TRACE.
+     * <p>只在方法上配置时生效，不配置时不限制请求方式。
+     * uri中可以使用{name}形式的路径变量(通过@MiniPathVariable获取)、匹配一段的*和匹配剩下所有部分的**(只能放在最后)
+     */
+    MiniRequestMethod[] method() default {};
+
+    /**
+     * 是否根据序列化后的响应体计算ETag，只在方法上配置时生效。
+     * 开启后客户端带上If-None-Match再次请求时，如果响应体没有变化，服务器只响应304，不发送响应体。
+     * 方法仍然会被调用，节省的是带宽而不是方法的执行时间
+     */
+    boolean etag() default false;
+
+    /**
+     * Timeout in milliseconds for methods returning a {@code CompletionStage}, only supported at the method level.
+     * <p>方法返回CompletionStage时，处理请求的线程不用等着，CompletionStage完成后再序列化并发送响应。
+     * 不配置或者小于等于0时使用服务器默认的超时时间(-Dadam.server.async-timeout，默认30秒)
+     */
+    long asyncTimeout() default 0;
 }
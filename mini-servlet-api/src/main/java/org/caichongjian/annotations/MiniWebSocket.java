@@ -0,0 +1,55 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.caichongjian.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 我本来想在adam-server直接使用Spring MVC的，但遗憾地发现实现整个jakarta.servlet-api工作量实在是太大了。
+ * 我又不喜欢Servlet的形式，所以我学习参考了Spring的创意。
+ * 注解内的方法的数量比起spring-websocket来少了很多。
+ * 如果你觉得adam-server对你有帮助，请去下面的链接点★Star
+ *
+ * I originally wanted to use Spring MVC directly on adam-server, but unfortunately found that implementing the entire jakarta.servlet-api workload was too great.
+ * I don't like the form of Servlet, so I learned from the ideas of Spring.
+ * The number of methods in annotations is much less than in spring-websocket.
+ * If you think adam-server is helpful to you, please go to the link below and click ★Star
+ *
+ * Annotation indicating that a class is a WebSocket handler mapped to the given path,
+ * the annotation-based counterpart of registering a handler through WebSocketHandlerRegistry.
+ * <p>被注解的类必须实现org.caichongjian.api.MiniWebSocketHandler，并且有public的无参构造方法。
+ * 和@MiniRestController一样在启动时扫描，或者由adam-server-processor在编译时生成路由表。
+ * 所有连接共用一个handler实例。
+ *
+ * @author Rossen Stoyanchev
+ *
+ * @see Maven: org.springframework:spring-websocket:5.2.5.RELEASE  org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
+ * @see https://github.com/spring-projects/spring-framework
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MiniWebSocket {
+
+    /**
+     * The path the handler is mapped to, e.g. "/chat/{room}".
+     * <p>和@MiniRequestMapping一样支持{name}、*和**，路径变量通过MiniWebSocketSession.getPathVariable()获取。
+     */
+    String value();
+}
@@ -20,6 +20,7 @@ package org.caichongjian.api;
 
 import jakarta.servlet.http.Cookie;
 import java.util.Enumeration;
+import java.util.Map;
 
 /**
  * jakarta.servlet-api的HttpServletRequest需要实现的方法太多了。
@@ -143,4 +144,44 @@ public interface MiniHttpServletRequest extends MiniServletRequest {
      * @see     HttpUtils#getRequestURL
      */
     String getRequestURI();
+
+    /**
+     * Get the request trailer fields.
+     *
+     * <p>The returned map is not backed by the {@code HttpServletRequest} object,
+     * so changes in the returned map are not reflected in the
+     * {@code HttpServletRequest} object, and vice-versa.</p>
+     *
+     * <p>{@link #isTrailerFieldsReady()} should be called first to determine
+     * if it is safe to call this method without causing an exception.</p>
+     *
+     * @return A map of trailer fields in which all the keys are in lowercase,
+     * regardless of the case they had at the protocol level. If there are no
+     * trailer fields, yet {@link #isTrailerFieldsReady} is returning true,
+     * the empty map is returned.
+     *
+     * @throws IllegalStateException if {@link #isTrailerFieldsReady()} is false
+     */
+    Map<String, String> getTrailerFields();
+
+    /**
+     * Return a boolean indicating whether trailer fields are ready to read
+     * using {@link #getTrailerFields}.
+     *
+     * This methods returns true immediately if it is known that there is no
+     * trailer in the request, for instance, the underlying protocol (such
+     * as HTTP 1.0) does not supports the trailer fields, or the request is
+     * not in chunked encoding in HTTP 1.1.
+     * And the method also returns true if both of the following conditions
+     * are satisfied:
+     * <ol type="a">
+     *   <li> the application has read all the request data and an EOF
+     *        indication has been returned from the {@link #getInputStream}.
+     *   <li> all the trailer fields sent by the client have been received.
+     *        Note that it is possible that the client has sent no trailer fields.
+     * </ol>
+     *
+     * @return a boolean whether trailer fields are ready to read
+     */
+    boolean isTrailerFieldsReady();
 }
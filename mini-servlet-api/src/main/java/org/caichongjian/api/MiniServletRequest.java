@@ -18,6 +18,8 @@
 
 package org.caichongjian.api;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Map;
 
@@ -64,6 +66,26 @@ public interface MiniServletRequest {
      */
     String getContentType();
 
+    /**
+     * Retrieves the body of the request as binary data using
+     * an {@link InputStream}. The stream reads lazily from the
+     * connection and returns -1 after Content-Length bytes,
+     * so large bodies can be processed in constant memory.
+     *
+     * <p>If the body is <code>application/x-www-form-urlencoded</code>,
+     * it has already been consumed as request parameters and
+     * the returned stream is empty.
+     *
+     * <p>Wrap it with {@link java.nio.channels.Channels#newChannel(InputStream)}
+     * if a <code>ReadableByteChannel</code> is preferred.
+     *
+     * @return an {@link InputStream} object containing
+     * the body of the request
+     *
+     * @exception IOException if an input or output exception occurred
+     */
+    InputStream getInputStream() throws IOException;
+
     /**
      * Returns the value of a request parameter as a <code>String</code>,
      * or <code>null</code> if the parameter does not exist. Request parameters
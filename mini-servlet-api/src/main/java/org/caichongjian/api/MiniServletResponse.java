@@ -18,6 +18,10 @@
 
 package org.caichongjian.api;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
 /**
  * jakarta.servlet-api的ServletResponse需要实现的方法太多了。
  * 简易服务器不会有真实用户，没必要实现那么多方法，所以自定义了简易版的接口。
@@ -90,4 +94,58 @@ public interface MiniServletResponse {
      *
      */
     void setContentType(String type);
+
+    /**
+     * Returns an {@link OutputStream} suitable for writing binary
+     * data in the response. The written data is buffered; once the
+     * buffer fills up or {@link OutputStream#flush()} is called, the
+     * response is committed and sent with
+     * <code>Transfer-Encoding: chunked</code>, so large or incrementally
+     * produced bodies do not have to be held in memory. If the body fits
+     * in the buffer, it is sent with a <code>Content-Length</code> header.
+     *
+     * <p>Either this method or {@link #getWriter} may
+     * be called to write the body, not both.
+     *
+     * @return an {@link OutputStream} for writing binary data
+     *
+     * @exception IllegalStateException if the <code>getWriter</code> method
+     * has been called on this response
+     *
+     * @exception IOException if an input or output exception occurred
+     *
+     * @see #getWriter
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Returns a <code>PrintWriter</code> object that
+     * can send character text to the client, encoded in UTF-8.
+     * It is backed by the same buffered stream as
+     * {@link #getOutputStream}.
+     *
+     * <p>Either this method or {@link #getOutputStream} may be called
+     * to write the body, not both.
+     *
+     * @return a <code>PrintWriter</code> object that
+     * can return character data to the client
+     *
+     * @exception IllegalStateException if the <code>getOutputStream</code>
+     * method has already been called for this response object
+     *
+     * @exception IOException if an input or output exception occurred
+     *
+     * @see #getOutputStream
+     */
+    PrintWriter getWriter() throws IOException;
+
+    /**
+     * Returns a boolean indicating if the response has been
+     * committed.  A committed response has already had its status
+     * code and headers written.
+     *
+     * @return a boolean indicating if the response has been
+     * committed
+     */
+    boolean isCommitted();
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.caichongjian.api;
+
+/**
+ * 我本来想在adam-server直接使用Spring MVC的，但遗憾地发现实现整个jakarta.servlet-api工作量实在是太大了。
+ * 我又不喜欢Servlet的形式，所以我学习参考了Spring的创意。
+ * 接口方法的数量比起spring-websocket来少了很多。
+ * 如果你觉得adam-server对你有帮助，请去下面的链接点★Star
+ *
+ * I originally wanted to use Spring MVC directly on adam-server, but unfortunately found that implementing the entire jakarta.servlet-api workload was too great.
+ * I don't like the form of Servlet, so I learned from the ideas of Spring.
+ * The number of interface methods is much less than spring-websocket.
+ * If you think adam-server is helpful to you, please go to the link below and click ★Star
+ *
+ * A handler for WebSocket messages and lifecycle events.
+ * <p>同一个连接上的方法按顺序调用，不会并发；不同连接上的方法可能在不同的线程中同时调用。
+ * 方法抛出异常时服务器以1011(Internal Error)关闭这个连接。
+ * ping、pong和关闭握手由服务器处理，不需要handler关心。
+ *
+ * @author Rossen Stoyanchev
+ * @author Phillip Webb
+ *
+ * @see Maven: org.springframework:spring-websocket:5.2.5.RELEASE  org.springframework.web.socket.WebSocketHandler
+ * @see Maven: org.springframework:spring-websocket:5.2.5.RELEASE  org.springframework.web.socket.handler.AbstractWebSocketHandler
+ * @see https://github.com/spring-projects/spring-framework
+ */
+public interface MiniWebSocketHandler {
+
+    /**
+     * Invoked after WebSocket negotiation has succeeded and the WebSocket connection is
+     * opened and ready for use.
+     *
+     * @param session the session that was opened
+     * @throws Exception this method can handle or propagate exceptions
+     */
+    default void afterConnectionEstablished(MiniWebSocketSession session) throws Exception {
+    }
+
+    /**
+     * Invoked when a new text message arrives. Fragmented messages are reassembled before this method is called.
+     *
+     * @param session the session the message came from
+     * @param message the complete message
+     * @throws Exception this method can handle or propagate exceptions
+     */
+    default void handleTextMessage(MiniWebSocketSession session, String message) throws Exception {
+    }
+
+    /**
+     * Invoked when a new binary message arrives. Fragmented messages are reassembled before this method is called.
+     *
+     * @param session the session the message came from
+     * @param message the complete message
+     * @throws Exception this method can handle or propagate exceptions
+     */
+    default void handleBinaryMessage(MiniWebSocketSession session, byte[] message) throws Exception {
+    }
+
+    /**
+     * Invoked after the WebSocket connection has been closed by either side, or after a transport error.
+     * Although the session may technically still be open, it is no longer usable.
+     * <p>连接没有经过关闭握手就断开了(如客户端直接关闭了TCP连接、长时间没有回复ping)时，code为1006。
+     *
+     * @param session the session that was closed
+     * @param code    the close status code, e.g. 1000 for a normal closure
+     * @param reason  the close reason, may be empty
+     * @throws Exception this method can handle or propagate exceptions
+     */
+    default void afterConnectionClosed(MiniWebSocketSession session, int code, String reason) throws Exception {
+    }
+}
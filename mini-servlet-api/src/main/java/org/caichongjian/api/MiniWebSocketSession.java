@@ -0,0 +1,112 @@
+/*
+ * Copyright 2002-2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.caichongjian.api;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * 我本来想在adam-server直接使用Spring MVC的，但遗憾地发现实现整个jakarta.servlet-api工作量实在是太大了。
+ * 我又不喜欢Servlet的形式，所以我学习参考了Spring的创意。
+ * 接口方法的数量比起spring-websocket来少了很多。
+ * 如果你觉得adam-server对你有帮助，请去下面的链接点★Star
+ *
+ * I originally wanted to use Spring MVC directly on adam-server, but unfortunately found that implementing the entire jakarta.servlet-api workload was too great.
+ * I don't like the form of Servlet, so I learned from the ideas of Spring.
+ * The number of interface methods is much less than spring-websocket.
+ * If you think adam-server is helpful to you, please go to the link below and click ★Star
+ *
+ * A WebSocket session abstraction. Allows sending messages over a WebSocket connection and closing it.
+ * <p>发送消息的方法可以由任意线程调用(比如在一个连接的handleTextMessage中向其他连接广播)，
+ * 每条消息作为一个完整的帧发送，不会和其他线程发送的消息交错。
+ *
+ * @author Rossen Stoyanchev
+ *
+ * @see Maven: org.springframework:spring-websocket:5.2.5.RELEASE  org.springframework.web.socket.WebSocketSession
+ * @see https://github.com/spring-projects/spring-framework
+ */
+public interface MiniWebSocketSession {
+
+    /**
+     * Return a unique session identifier.
+     */
+    String getId();
+
+    /**
+     * Return the URI used to open the WebSocket connection, without the query string.
+     */
+    String getRequestURI();
+
+    /**
+     * Return the value of a query parameter of the handshake request, or null if the parameter does not exist.
+     *
+     * @param name a String specifying the name of the parameter
+     */
+    String getParameter(String name);
+
+    /**
+     * Return the value of a path variable of the handshake request, e.g. "room" for "/chat/{room}",
+     * or null if the variable does not exist.
+     *
+     * @param name the name of the path variable
+     */
+    String getPathVariable(String name);
+
+    /**
+     * Return the map with attributes associated with the WebSocket session.
+     * <p>可以放一些和这个连接相关的数据，如用户名。可由多个线程同时访问
+     */
+    Map<String, Object> getAttributes();
+
+    /**
+     * Return whether the connection is still open.
+     */
+    boolean isOpen();
+
+    /**
+     * Send a text message.
+     *
+     * @param message the message
+     * @throws IOException 连接已经关闭，或者客户端接收得太慢(NIO模式下等待发送的消息太多)
+     */
+    void sendText(String message) throws IOException;
+
+    /**
+     * Send a binary message.
+     *
+     * @param message the message
+     * @throws IOException 连接已经关闭，或者客户端接收得太慢(NIO模式下等待发送的消息太多)
+     */
+    void sendBinary(byte[] message) throws IOException;
+
+    /**
+     * Close the WebSocket connection with status 1000.
+     *
+     * @throws IOException IO异常
+     */
+    void close() throws IOException;
+
+    /**
+     * Close the WebSocket connection with the given close status.
+     * <p>发送close帧后等客户端回复close帧再关闭连接，之后调用handler的afterConnectionClosed。
+     *
+     * @param code   the close status code, e.g. 1000 for a normal closure, or 4000-4999 for application use
+     * @param reason the close reason, may be null
+     * @throws IOException IO异常
+     */
+    void close(int code, String reason) throws IOException;
+}